@@ -30,7 +30,6 @@ package de.escidoc.bwelabs.deposit;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
 
@@ -41,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import de.escidoc.bwelabs.depositor.error.MissingConfigurationPropertyException;
 import de.escidoc.bwelabs.depositor.error.WrongConfigurationContentException;
 import de.escidoc.bwelabs.depositor.service.Constants;
+import de.escidoc.bwelabs.depositor.utility.MessageDigestFactory;
 
 @SuppressWarnings("serial")
 public class Configuration extends Properties {
@@ -71,6 +71,8 @@ public class Configuration extends Properties {
 
     public static final String PROPERTY_CHECKSUM_ALGORITHM = "CheckSumType";
 
+    public static final String PROPERTY_INGEST_WEIGHT = "IngestWeight";
+
     private boolean isValid;
 
     public boolean isValid() throws WrongConfigurationContentException {
@@ -137,6 +139,20 @@ public class Configuration extends Properties {
             // }
         }
 
+        // PROPERTY_INGEST_WEIGHT is optional
+        if (!isNullOrEmpty(this.getProperty(PROPERTY_INGEST_WEIGHT))) {
+            try {
+                if (Integer.parseInt(this.getProperty(PROPERTY_INGEST_WEIGHT).trim()) < 1) {
+                    throw new WrongConfigurationContentException(Constants.PROPERTY_INGEST_WEIGHT
+                        + " must be a positive integer.");
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new WrongConfigurationContentException(Constants.PROPERTY_INGEST_WEIGHT
+                    + " must be a positive integer.", e);
+            }
+        }
+
         try {
             if (isNullOrEmpty(this.getProperty(PROPERTY_INFRASTRUCTURE_ENDPOINT))) {
                 String message = Constants.PROPERTY_INFRASTRUCTURE_ENDPOINT + " is missing.";
@@ -153,7 +169,7 @@ public class Configuration extends Properties {
                 this.isValid = false;
             }
             else {
-                MessageDigest.getInstance(this.getProperty(PROPERTY_CHECKSUM_ALGORITHM));
+                MessageDigestFactory.resolve(this.getProperty(PROPERTY_CHECKSUM_ALGORITHM));
             }
         }
         catch (MalformedURLException e) {
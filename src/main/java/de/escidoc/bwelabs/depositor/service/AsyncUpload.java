@@ -0,0 +1,272 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.depositor.error.DepositorException;
+import de.escidoc.bwelabs.depositor.error.ServiceUnavailableException;
+import de.escidoc.bwelabs.depositor.utility.AdmissionController;
+import de.escidoc.bwelabs.depositor.utility.StagingBufferPool;
+import de.escidoc.bwelabs.depositor.utility.StagingSpaceGuard;
+
+/**
+ * Stages a content file from a request body with non-blocking reads. The container calls the listener only if data
+ * can be read without blocking, so a slow uploader does not hold a container thread while its data is on the way.
+ * Read data is collected in a buffer of the {@link StagingBufferPool} and written to the content file, the digests and
+ * the pipelined transfer, if there is one, once the buffer is full. The upload is admitted only when the whole body is
+ * read and its session is submitted; the container thread is not blocked by waiting for a permit. An upload to a
+ * saturated service is rejected before its body is read, see {@link SessionManager#checkAdmission()}.
+ * 
+ */
+public class AsyncUpload implements ReadListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncUpload.class);
+
+    // a direct buffer has no array, data is read into a chunk and copied into the buffer
+    private static final int READ_CHUNK_SIZE = 16 * 1024;
+
+    private final SessionManager manager;
+
+    private final StagingSpaceGuard.Reservation reservation;
+
+    private final AsyncContext asyncContext;
+
+    private final ServletInputStream input;
+
+    private final String configId;
+
+    private final String checkSumValue;
+
+    private final File content;
+
+    private final ContentDigests digests;
+
+    private final PipelinedTransfer transfer;
+
+    private final FileOutputStream fos;
+
+    private final FileChannel out;
+
+    private final StagingBufferPool buffers;
+
+    private final ByteBuffer buffer;
+
+    private final byte[] chunk;
+
+    private final AtomicBoolean isFinished = new AtomicBoolean();
+
+    /**
+     * @param manager
+     * @param reservation
+     * @param asyncContext
+     * @param configId
+     * @param checkSumValue
+     * @param content
+     *            content file prepared by {@link SessionManager#prepareContentFile(String, String)}
+     * @param digests
+     * @param transfer
+     *            pipelined transfer of the content file or <code>null</code>, it is committed or rolled back by the
+     *            upload
+     * @throws IOException
+     */
+    public AsyncUpload(SessionManager manager, StagingSpaceGuard.Reservation reservation, AsyncContext asyncContext,
+        String configId, String checkSumValue, File content, ContentDigests digests, PipelinedTransfer transfer)
+        throws IOException {
+        Preconditions.checkNotNull(manager, "manager is null: %s", manager);
+        Preconditions.checkNotNull(reservation, "reservation is null: %s", reservation);
+        Preconditions.checkNotNull(asyncContext, "asyncContext is null: %s", asyncContext);
+        Preconditions.checkNotNull(content, "content is null: %s", content);
+        Preconditions.checkNotNull(digests, "digests is null: %s", digests);
+
+        this.manager = manager;
+        this.reservation = reservation;
+        this.asyncContext = asyncContext;
+        this.input = asyncContext.getRequest().getInputStream();
+        this.configId = configId;
+        this.checkSumValue = checkSumValue;
+        this.content = content;
+        this.digests = digests;
+        this.transfer = transfer;
+        this.fos = new FileOutputStream(content);
+        this.out = fos.getChannel();
+        this.buffers = manager.getStagingBuffers();
+        this.buffer = buffers.acquire();
+        this.chunk = buffer.hasArray() ? null : new byte[Math.min(READ_CHUNK_SIZE, buffer.capacity())];
+    }
+
+    /**
+     * Method registers the listener at the request stream, from now on the container calls the listener.
+     */
+    public void start() {
+        input.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (input.isReady()) {
+            int read;
+            if (chunk == null) {
+                read = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read > 0) {
+                    buffer.position(buffer.position() + read);
+                }
+            }
+            else {
+                read = input.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+                if (read > 0) {
+                    buffer.put(chunk, 0, read);
+                }
+            }
+            if (read < 0) {
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            flush();
+            fos.close();
+        }
+        catch (IOException e) {
+            onError(e);
+            return;
+        }
+        AdmissionController.Permit permit;
+        try {
+            permit = manager.admitNow();
+        }
+        catch (ServiceUnavailableException e) {
+            // the content file is not handed over to the manager yet
+            discard();
+            DepositorServlet.sendServiceUnavailable(response, e);
+            finish();
+            return;
+        }
+        try {
+            digests.complete();
+            if (manager.storeStagedContent(configId, checkSumValue, content, digests, transfer)) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType("text/xml");
+                response.flushBuffer();
+            }
+            else {
+                DepositorServlet.sendInvalidChecksum(response);
+            }
+        }
+        catch (ServiceUnavailableException e) {
+            // the content file is already discarded by the manager
+            DepositorServlet.sendServiceUnavailable(response, e);
+        }
+        catch (DepositorException e) {
+            DepositorServlet.sendDepositError(response, e);
+        }
+        catch (IOException e) {
+            LOG.warn("Could not send response to eSyncDemon", e);
+        }
+        finally {
+            permit.release();
+            finish();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (isFinished.get()) {
+            return;
+        }
+        LOG.warn("Upload of the content file " + content.getName() + " for the configuration with id " + configId
+            + " failed: " + t.getMessage());
+        try {
+            fos.close();
+        }
+        catch (IOException e) {
+            LOG.warn("Error closing content file", e);
+        }
+        discard();
+        DepositorServlet.sendOtherError((HttpServletResponse) asyncContext.getResponse(), t);
+        finish();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        ContentDigests.update(digests.getMessageDigests(), buffer);
+        int written = buffer.remaining();
+        if (transfer != null) {
+            // the transfer never fails, a broken connection is dropped silently
+            write(buffer.duplicate(), transfer.getChannel());
+        }
+        write(buffer, out);
+        reservation.consume(written);
+        buffer.clear();
+    }
+
+    private static void write(ByteBuffer src, WritableByteChannel channel) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private void discard() {
+        if (transfer != null) {
+            transfer.rollback();
+        }
+        manager.discardContentFile(configId, content);
+    }
+
+    private void finish() {
+        if (isFinished.compareAndSet(false, true)) {
+            buffers.release(buffer);
+            reservation.release();
+            asyncContext.complete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a batch upload: one entry per content file found in the uploaded archive. It is sent back to the eSync
+ * daemon as an XML document, so the daemon knows which files have to be sent again.
+ * 
+ */
+public class BatchResult {
+
+    public enum Status {
+        STORED, CHECKSUM_MISMATCH, MISSING_CHECKSUM, ALREADY_EXISTS, REJECTED, FAILED
+    }
+
+    private final String configId;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private boolean isComplete = true;
+
+    public BatchResult(String configId) {
+        this.configId = configId;
+    }
+
+    public void add(String fileName, Status status, String message) {
+        entries.add(new Entry(fileName, status, message));
+    }
+
+    /**
+     * Method marks the result as incomplete, because the archive could not be read to its end. Entries which are not
+     * part of the result were not stored.
+     */
+    public void setIncomplete() {
+        this.isComplete = false;
+    }
+
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public int getStoredCount() {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.getStatus() == Status.STORED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String toXml() {
+        StringBuilder xml = new StringBuilder(128 + entries.size() * 96);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<batch-result configuration=\"").append(escape(configId)).append("\" complete=\"")
+            .append(isComplete).append("\">\n");
+        for (Entry entry : entries) {
+            xml.append("  <entry name=\"").append(escape(entry.getFileName())).append("\" status=\"")
+                .append(entry.getStatus().name().toLowerCase().replace('_', '-')).append('"');
+            if (entry.getMessage() == null) {
+                xml.append("/>\n");
+            }
+            else {
+                xml.append('>').append(escape(entry.getMessage())).append("</entry>\n");
+            }
+        }
+        xml.append("</batch-result>\n");
+        return xml.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    public static class Entry {
+
+        private final String fileName;
+
+        private final Status status;
+
+        private final String message;
+
+        Entry(String fileName, Status status, String message) {
+            this.fileName = fileName;
+            this.status = status;
+            this.message = message;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the states of all configurations known to the Depositor, see {@link ConfigurationState}. Lookups do not
+ * lock; changes of a configuration are guarded by the lock of its state.
+ */
+public class ConfigurationRegistry {
+
+    private final ConcurrentMap<String, ConfigurationState> states =
+        new ConcurrentHashMap<String, ConfigurationState>();
+
+    private final AtomicLong modifications = new AtomicLong();
+
+    /**
+     * @param configId
+     * @return the state of the configuration or <code>null</code> if it is unknown
+     */
+    public ConfigurationState get(String configId) {
+        return states.get(configId);
+    }
+
+    /**
+     * @param configId
+     * @return the state of the configuration, a new one if it is unknown so far
+     */
+    public ConfigurationState getOrCreate(String configId) {
+        ConfigurationState state = states.get(configId);
+        if (state == null) {
+            state = new ConfigurationState(configId, modifications);
+            ConfigurationState existing = states.putIfAbsent(configId, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Method reserves the id of a configuration for a registration, see {@link ConfigurationState#beginRegistration()}.
+     * 
+     * @param configId
+     * @return false if a configuration with the id is already being registered or if it is known
+     */
+    public boolean beginRegistration(String configId) {
+        while (true) {
+            ConfigurationState state = getOrCreate(configId);
+            synchronized (state) {
+                // the state may have been removed by a cancelled registration in the meantime
+                if (states.get(configId) == state) {
+                    return state.beginRegistration();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method removes the state of a configuration, whose registration failed.
+     * 
+     * @param configId
+     */
+    public void cancelRegistration(String configId) {
+        ConfigurationState state = states.get(configId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.cancelRegistration()) {
+                states.remove(configId, state);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the states of all configurations
+     */
+    public List<ConfigurationState> getAll() {
+        return new ArrayList<ConfigurationState>(states.values());
+    }
+
+    /**
+     * @return a snapshot of the states of active configurations, which failed to store some content files
+     */
+    public List<ConfigurationState> getFailed() {
+        List<ConfigurationState> failed = new ArrayList<ConfigurationState>();
+        for (ConfigurationState state : states.values()) {
+            if (state.isFailed() && state.isActive()) {
+                failed.add(state);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return a counter increased whenever a configuration is registered, cleaned up or moved, see
+     *         {@link #touch()}
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
+    /**
+     * Method increases the modification counter, e.g. after the properties of a configuration were changed.
+     */
+    public void touch() {
+        modifications.incrementAndGet();
+    }
+
+    public int size() {
+        return states.size();
+    }
+}
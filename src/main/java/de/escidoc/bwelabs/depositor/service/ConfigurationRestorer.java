@@ -0,0 +1,224 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Restores the configurations from the configuration directories of the last run on start up. A configuration is
+ * taken from a {@link RegistrySnapshot} if the snapshot is up to date for its directory; otherwise its configuration
+ * file is parsed and a directory of the flat layout is moved into the sharded layout. The directories are restored by
+ * a number of workers in parallel.
+ * 
+ */
+public class ConfigurationRestorer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationRestorer.class);
+
+    /**
+     * A configuration restored from a configuration directory.
+     */
+    public static class Restored {
+
+        private final String configId;
+
+        private final File directory;
+
+        private final String directoryPath;
+
+        private final Properties configuration;
+
+        private final boolean isFromSnapshot;
+
+        Restored(String configId, File directory, String directoryPath, Properties configuration,
+            boolean isFromSnapshot) {
+            this.configId = configId;
+            this.directory = directory;
+            this.directoryPath = directoryPath;
+            this.configuration = configuration;
+            this.isFromSnapshot = isFromSnapshot;
+        }
+
+        public String getConfigurationId() {
+            return configId;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public String getDirectoryPath() {
+            return directoryPath;
+        }
+
+        public Properties getConfiguration() {
+            return configuration;
+        }
+
+        /**
+         * @return true if the configuration directory was renamed to failed_expired_ on a clean up
+         */
+        public boolean isFailedExpired() {
+            return directory.getName().startsWith("failed_expired_");
+        }
+
+        public boolean isFromSnapshot() {
+            return isFromSnapshot;
+        }
+    }
+
+    private final File baseDir;
+
+    private final RegistrySnapshot snapshot;
+
+    private final int threadNumber;
+
+    /**
+     * @param baseDir
+     * @param snapshot
+     *            the snapshot of the last run or <code>null</code>
+     * @param threadNumber
+     *            number of workers
+     */
+    public ConfigurationRestorer(File baseDir, RegistrySnapshot snapshot, int threadNumber) {
+        Preconditions.checkNotNull(baseDir, "baseDir is null: %s", baseDir);
+        Preconditions.checkArgument(threadNumber > 0, "threadNumber must be positive: %s", threadNumber);
+        this.baseDir = baseDir;
+        this.snapshot = snapshot;
+        this.threadNumber = threadNumber;
+    }
+
+    /**
+     * Method restores the configurations of provided directories. Files at the level of configuration directories are
+     * deleted, directories without a readable configuration file are skipped.
+     * 
+     * @param dirs
+     * @return the restored configurations in the order of the directories
+     * @throws InterruptedException
+     */
+    public List<Restored> restore(List<File> dirs) throws InterruptedException {
+        final AtomicInteger workerNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadNumber, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread worker = new Thread(r, "Restore-Worker-" + workerNumber.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        try {
+            List<Future<Restored>> futures = new ArrayList<Future<Restored>>(dirs.size());
+            for (final File dir : dirs) {
+                futures.add(executor.submit(new Callable<Restored>() {
+                    public Restored call() {
+                        return restore(dir);
+                    }
+                }));
+            }
+            List<Restored> restored = new ArrayList<Restored>(dirs.size());
+            for (Future<Restored> future : futures) {
+                try {
+                    Restored configuration = future.get();
+                    if (configuration != null) {
+                        restored.add(configuration);
+                    }
+                }
+                catch (ExecutionException e) {
+                    LOG.error("Can not restore a configuration on start up of the Depositor: "
+                        + e.getCause().getMessage(), e.getCause());
+                }
+            }
+            return restored;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Restored restore(File dir) {
+        if (!dir.isDirectory()) {
+            dir.delete();
+            return null;
+        }
+        String dirName = DirectoryLayout.getRelativePath(baseDir, dir);
+        File configurationFile = new File(dir, Constants.CONFIGURATION_FILE_NAME);
+        if (snapshot != null) {
+            RegistrySnapshot.Entry entry = snapshot.get(dirName, configurationFile.lastModified());
+            if (entry != null) {
+                return new Restored(entry.getConfigurationId(), dir, dirName, entry.getConfiguration(), true);
+            }
+        }
+        if (!configurationFile.exists()) {
+            LOG.error("Can not restore the configuration from the directory " + baseDir + "/" + dirName
+                + " on start up of the Depositor: a configuration file does not exist in the directory.");
+            return null;
+        }
+        Properties configProperties = new Properties();
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(configurationFile);
+            configProperties.loadFromXML(fis);
+        }
+        catch (IOException e) {
+            LOG.error("Can not restore the configuration data from the directory " + baseDir + "/" + dirName
+                + " on start up of the Depositor:" + e.getMessage());
+            return null;
+        }
+        finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                }
+                catch (IOException e) {
+                    LOG.warn("Error closing " + configurationFile, e);
+                }
+            }
+        }
+        String configId = configProperties.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
+        // directories of the flat layout are moved into the sharded layout
+        dir = DirectoryLayout.migrate(baseDir, dir, configId);
+        return new Restored(configId, dir, DirectoryLayout.getRelativePath(baseDir, dir), configProperties, false);
+    }
+}
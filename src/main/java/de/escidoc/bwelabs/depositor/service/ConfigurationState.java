@@ -0,0 +1,388 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of a configuration on the Depositor: its properties, its directory, its sessions and its phase in the life
+ * cycle. Every configuration has its own lock, the state object itself, so operations on different configurations
+ * never contend.
+ * 
+ * <pre>
+ * REGISTERING -> ACTIVE -> CLEANING -> EXPIRED
+ *                                   -> FAILED_EXPIRED
+ * </pre>
+ * 
+ * A configuration can not be cleaned up twice; if the clean up fails unexpectedly, the configuration is active again.
+ * A configuration, which is going to be deleted, is cleaning from the moment the deletion is accepted, so no content
+ * files are accepted while the deletion waits for a worker.
+ */
+public class ConfigurationState {
+
+    public enum Phase {
+        /**
+         * The configuration directory is created, the configuration is not registered yet.
+         */
+        REGISTERING,
+        /**
+         * Content files are accepted.
+         */
+        ACTIVE,
+        /**
+         * The sessions of the configuration are finished and its directory is removed or renamed.
+         */
+        CLEANING,
+        /**
+         * All content files of the configuration are stored into the infrastructure and its directory is removed.
+         */
+        EXPIRED,
+        /**
+         * Some content files of the configuration could not be stored, its directory is renamed to failed_expired_.
+         */
+        FAILED_EXPIRED
+    }
+
+    private final String configId;
+
+    private final AtomicLong modifications;
+
+    private Phase phase = Phase.REGISTERING;
+
+    private Properties configuration;
+
+    private String directoryPath;
+
+    private boolean isRegistered;
+
+    // a configuration with the id is being registered by a request
+    private boolean isRegistering;
+
+    private boolean isFailed;
+
+    private boolean isExpiredSinceLastRun;
+
+    // sizes of the content files waiting for the ingest and of the stored ones
+    private long pendingIngestBytes;
+
+    private long reclaimableBytes;
+
+    // null until the first session is added, content files restored from the last run have no sessions
+    private List<ItemSession> sessions;
+
+    private CountDownLatch cleaning;
+
+    // the configuration is closed by a deletion, whose clean up is not begun yet
+    private boolean isDeletionPending;
+
+    public ConfigurationState(String configId) {
+        this(configId, new AtomicLong());
+    }
+
+    /**
+     * @param configId
+     * @param modifications
+     *            counter increased on every change of the phase, the registration or the directory
+     */
+    ConfigurationState(String configId, AtomicLong modifications) {
+        this.configId = configId;
+        this.modifications = modifications;
+    }
+
+    public String getConfigurationId() {
+        return configId;
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized boolean isActive() {
+        return phase == Phase.ACTIVE;
+    }
+
+    /**
+     * @return the properties of the configuration or <code>null</code> if it is not registered so far
+     */
+    public synchronized Properties getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the directory of the configuration, relative to the base directory of the Depositor
+     */
+    public synchronized String getDirectoryPath() {
+        return directoryPath;
+    }
+
+    public synchronized void setDirectoryPath(String directoryPath) {
+        this.directoryPath = directoryPath;
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Method reserves the id of the configuration for a registration, so a configuration with the same id sent
+     * concurrently is rejected.
+     * 
+     * @return false if the configuration is already being registered or if it is known
+     */
+    public synchronized boolean beginRegistration() {
+        if (isRegistering || isKnown()) {
+            return false;
+        }
+        isRegistering = true;
+        return true;
+    }
+
+    /**
+     * Method ends a registration, which failed before the configuration was registered.
+     * 
+     * @return false if the configuration is not being registered
+     */
+    public synchronized boolean cancelRegistration() {
+        if (!isRegistering) {
+            return false;
+        }
+        isRegistering = false;
+        directoryPath = null;
+        modifications.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Method registers the configuration, content files are accepted from now on.
+     * 
+     * @param configuration
+     */
+    public synchronized void register(Properties configuration) {
+        this.configuration = configuration;
+        this.isRegistered = true;
+        this.isRegistering = false;
+        this.phase = Phase.ACTIVE;
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Method restores a configuration directory, which was renamed to failed_expired_ on the last run.
+     * 
+     * @param directoryPath
+     */
+    public synchronized void restoreFailedExpired(String directoryPath) {
+        this.directoryPath = directoryPath;
+        this.phase = Phase.FAILED_EXPIRED;
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * @return true if the configuration is registered and not deleted
+     */
+    public synchronized boolean isRegistered() {
+        return isRegistered;
+    }
+
+    /**
+     * Method removes the registration of a configuration, which was deleted by the client. It is still known to
+     * reject a new configuration with the same id.
+     */
+    public synchronized void unregister() {
+        isRegistered = false;
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * @return true if a configuration with the id can not be registered again
+     */
+    public synchronized boolean isKnown() {
+        return isRegistered || phase == Phase.EXPIRED || phase == Phase.FAILED_EXPIRED;
+    }
+
+    public synchronized boolean isFailed() {
+        return isFailed;
+    }
+
+    public synchronized void setFailed(boolean isFailed) {
+        this.isFailed = isFailed;
+    }
+
+    /**
+     * @return true if the configuration already expired when it was restored on start up
+     */
+    public synchronized boolean isExpiredSinceLastRun() {
+        return isExpiredSinceLastRun;
+    }
+
+    public synchronized void setExpiredSinceLastRun(boolean isExpiredSinceLastRun) {
+        this.isExpiredSinceLastRun = isExpiredSinceLastRun;
+    }
+
+    /**
+     * Method updates the sizes of the content files of the configuration, until it is expired.
+     * 
+     * @param pendingIngest
+     *            bytes added to or, if negative, removed from the content files waiting for the ingest
+     * @param reclaimable
+     *            bytes added to or, if negative, removed from the content files stored into the infrastructure
+     * @return false if the configuration is expired and its content files are not counted any more
+     */
+    public synchronized boolean addContentFileBytes(long pendingIngest, long reclaimable) {
+        if (phase == Phase.EXPIRED || phase == Phase.FAILED_EXPIRED) {
+            return false;
+        }
+        pendingIngestBytes += pendingIngest;
+        reclaimableBytes += reclaimable;
+        return true;
+    }
+
+    public synchronized long getPendingIngestBytes() {
+        return pendingIngestBytes;
+    }
+
+    public synchronized long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    /**
+     * Method adds a session, if the configuration is active.
+     * 
+     * @param session
+     * @return false if the configuration is not active any more
+     */
+    public synchronized boolean addSession(ItemSession session) {
+        if (phase != Phase.ACTIVE) {
+            return false;
+        }
+        if (sessions == null) {
+            sessions = new ArrayList<ItemSession>();
+        }
+        sessions.add(session);
+        return true;
+    }
+
+    public synchronized void removeSession(ItemSession session) {
+        if (sessions != null) {
+            sessions.remove(session);
+        }
+    }
+
+    /**
+     * Method removes the finished sessions, which failed to store their content file.
+     * 
+     * @return the removed sessions or <code>null</code> if the configuration never had a session
+     */
+    public synchronized List<ItemSession> removeFailedSessions() {
+        if (sessions == null) {
+            return null;
+        }
+        List<ItemSession> failed = new ArrayList<ItemSession>();
+        for (Iterator<ItemSession> iter = sessions.iterator(); iter.hasNext();) {
+            ItemSession session = iter.next();
+            if (session.isFinished() && session.isSessionFailed()) {
+                failed.add(session);
+                iter.remove();
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Method starts the clean up of an active configuration. No sessions are added from now on.
+     * 
+     * @return the sessions of the configuration or <code>null</code> if the configuration is not active, e.g. it is
+     *         being cleaned by another thread
+     */
+    public synchronized List<ItemSession> beginCleaning() {
+        if (phase != Phase.ACTIVE && !isDeletionPending) {
+            return null;
+        }
+        isDeletionPending = false;
+        phase = Phase.CLEANING;
+        cleaning = new CountDownLatch(1);
+        List<ItemSession> cleaned = sessions == null ? new ArrayList<ItemSession>() : sessions;
+        sessions = null;
+        return cleaned;
+    }
+
+    /**
+     * Method closes an active configuration, which is going to be deleted. No sessions are added from now on, the
+     * clean up is begun later by {@link #beginCleaning()}.
+     * 
+     * @return false if the configuration is not active
+     */
+    public synchronized boolean beginDeletion() {
+        if (phase != Phase.ACTIVE) {
+            return false;
+        }
+        phase = Phase.CLEANING;
+        isDeletionPending = true;
+        return true;
+    }
+
+    /**
+     * Method activates a configuration again, whose deletion could not be started.
+     */
+    public synchronized void cancelDeletion() {
+        if (isDeletionPending) {
+            isDeletionPending = false;
+            phase = Phase.ACTIVE;
+        }
+    }
+
+    /**
+     * Method finishes the clean up and releases threads waiting for it.
+     * 
+     * @param result
+     *            {@link Phase#EXPIRED}, {@link Phase#FAILED_EXPIRED} or {@link Phase#ACTIVE} if the clean up failed
+     *            unexpectedly
+     */
+    public synchronized void endCleaning(Phase result) {
+        phase = result;
+        modifications.incrementAndGet();
+        if (result != Phase.ACTIVE) {
+            isFailed = false;
+            isExpiredSinceLastRun = false;
+        }
+        if (cleaning != null) {
+            cleaning.countDown();
+            cleaning = null;
+        }
+    }
+
+    /**
+     * @return a latch released when the running clean up is finished or <code>null</code> if the configuration is not
+     *         being cleaned
+     */
+    public synchronized CountDownLatch getCleaning() {
+        return cleaning;
+    }
+}
@@ -67,6 +67,8 @@ public final class Constants {
 
     public static final String PROPERTY_CHECKSUM_ALGORITHM = "CheckSumType";
 
+    public static final String PROPERTY_INGEST_WEIGHT = "IngestWeight";
+
     /**
      * Schemas Namespace-URIs.
      */
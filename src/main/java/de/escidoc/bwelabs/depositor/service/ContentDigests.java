@@ -0,0 +1,342 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.depositor.utility.MessageDigestFactory;
+import de.escidoc.bwelabs.depositor.utility.Utility;
+
+/**
+ * Holds all digests of a content file, calculated in one pass over the content. Besides the checksum algorithm of a
+ * configuration it always contains MD5, the algorithm the eSciDoc Core reports for stored components, so an ingested
+ * file can be verified without reading it again.
+ * 
+ */
+public class ContentDigests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentDigests.class);
+
+    public static final String MD5 = "MD5";
+
+    /**
+     * Prefix of the sidecar file, which holds the checksums of a staged content file next to it.
+     */
+    public static final String SIDECAR_PREFIX = ".checksums_";
+
+    private static final String SIDECAR_TMP_SUFFIX = ".tmp";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+
+    private final Map<String, String> checksums = new LinkedHashMap<String, String>();
+
+    private final Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+
+    /**
+     * @param algorithm
+     *            the checksum algorithm of a configuration
+     * @throws NoSuchAlgorithmException
+     */
+    public ContentDigests(String algorithm) throws NoSuchAlgorithmException {
+        Preconditions.checkNotNull(algorithm, "algorithm is null: %s", algorithm);
+        addDigest(algorithm);
+        addDigest(MD5);
+    }
+
+    private ContentDigests(Properties storedChecksums) {
+        for (String key : storedChecksums.stringPropertyNames()) {
+            byte[] value = Utility.hexStringToByteArray(storedChecksums.getProperty(key).trim());
+            checksums.put(normalize(key), Utility.byteArraytoHexString(value));
+            values.put(normalize(key), value);
+        }
+    }
+
+    private void addDigest(String algorithm) throws NoSuchAlgorithmException {
+        String key = normalize(algorithm);
+        if (!digests.containsKey(key)) {
+            digests.put(key, MessageDigestFactory.acquire(algorithm));
+        }
+    }
+
+    private ContentDigests(ContentDigests original) throws CloneNotSupportedException {
+        for (Map.Entry<String, MessageDigest> entry : original.digests.entrySet()) {
+            digests.put(entry.getKey(), (MessageDigest) entry.getValue().clone());
+        }
+        checksums.putAll(original.checksums);
+        values.putAll(original.values);
+    }
+
+    /**
+     * Method copies the current state of all digests, e.g. to restore it if a part of a resumable upload fails.
+     * 
+     * @return independent copy of these digests
+     * @throws CloneNotSupportedException
+     *             if a digest implementation can not be copied
+     */
+    public ContentDigests copy() throws CloneNotSupportedException {
+        return new ContentDigests(this);
+    }
+
+    /**
+     * @return digests to be updated with every byte of a content file
+     */
+    public MessageDigest[] getMessageDigests() {
+        return digests.values().toArray(new MessageDigest[digests.size()]);
+    }
+
+    /**
+     * Method completes all digests. It has to be called once, after the whole content was passed to the digests.
+     * The digests are given back to the {@link MessageDigestFactory} afterwards.
+     */
+    public void complete() {
+        Preconditions.checkState(checksums.isEmpty(), "Digests are already completed.");
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            byte[] value = entry.getValue().digest();
+            values.put(entry.getKey(), value);
+            checksums.put(entry.getKey(), Utility.byteArraytoHexString(value));
+            MessageDigestFactory.release(entry.getValue());
+        }
+        digests.clear();
+    }
+
+    /**
+     * Method compares a checksum, e.g. sent by a client or reported by the infrastructure, with the calculated digest
+     * bytes. Upper and lower case hex digits are accepted.
+     * 
+     * @param algorithm
+     * @param checksum
+     *            hex encoded checksum
+     * @return true if the checksum was calculated with the algorithm and is equal
+     */
+    public boolean matches(String algorithm, String checksum) {
+        byte[] value = algorithm == null ? null : values.get(normalize(algorithm));
+        return Utility.isHexEqual(value, checksum);
+    }
+
+    /**
+     * @param algorithm
+     *            e.g. <code>MD5</code>, <code>SHA-1</code> or <code>SHA1</code>
+     * @return hex encoded checksum or <code>null</code> if it was not calculated with the algorithm
+     */
+    public String getChecksum(String algorithm) {
+        return algorithm == null ? null : checksums.get(normalize(algorithm));
+    }
+
+    public Map<String, String> getChecksums() {
+        return Collections.unmodifiableMap(checksums);
+    }
+
+    /**
+     * Method calculates digests of a stored content file in one pass.
+     * 
+     * @param content
+     * @param algorithm
+     *            the checksum algorithm of a configuration
+     * @return completed digests
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static ContentDigests calculate(File content, String algorithm) throws IOException,
+        NoSuchAlgorithmException {
+        ContentDigests contentDigests = new ContentDigests(algorithm);
+        contentDigests.update(content);
+        contentDigests.complete();
+        return contentDigests;
+    }
+
+    /**
+     * Method updates all digests with the whole content of a provided file.
+     * 
+     * @param content
+     * @throws IOException
+     */
+    public void update(File content) throws IOException {
+        MessageDigest[] mds = getMessageDigests();
+        FileInputStream fis = new FileInputStream(content);
+        try {
+            FileChannel channel = fis.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                update(mds, buffer);
+                buffer.clear();
+            }
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Method stores the completed checksums in a sidecar file next to a provided content file, so they can be trusted
+     * after a restart instead of reading the content file again.
+     * 
+     * @param content
+     * @throws IOException
+     */
+    public void store(File content) throws IOException {
+        Preconditions.checkState(!checksums.isEmpty(), "Digests are not completed.");
+        Properties stored = new Properties();
+        stored.putAll(checksums);
+        File sidecar = getSidecar(content);
+        File tmp = new File(sidecar.getPath() + SIDECAR_TMP_SUFFIX);
+        FileOutputStream os = new FileOutputStream(tmp);
+        try {
+            stored.store(os, null);
+        }
+        finally {
+            os.close();
+        }
+        if (!tmp.renameTo(sidecar)) {
+            tmp.delete();
+            throw new IOException("Can not rename " + tmp.getName() + " to " + sidecar.getName() + ".");
+        }
+    }
+
+    /**
+     * Method loads the checksums of a provided content file from its sidecar file.
+     * 
+     * @param content
+     * @return stored checksums or <code>null</code> if no sidecar file exists for the content file or it holds a
+     *         checksum, which is not a valid hex string, so the content file is hashed again
+     * @throws IOException
+     */
+    public static ContentDigests load(File content) throws IOException {
+        FileInputStream is;
+        try {
+            is = new FileInputStream(getSidecar(content));
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            Properties stored = new Properties();
+            stored.load(is);
+            for (String key : stored.stringPropertyNames()) {
+                if (Utility.hexStringToByteArray(stored.getProperty(key).trim()) == null) {
+                    LOG.warn("The " + key + " checksum in the sidecar file of the content file " + content.getName()
+                        + " is not a valid hex string, the stored checksums are ignored.");
+                    return null;
+                }
+            }
+            return stored.isEmpty() ? null : new ContentDigests(stored);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Method loads the checksums of a provided content file from its sidecar file or, if there is none, calculates
+     * them from the content file.
+     * 
+     * @param content
+     * @param algorithm
+     *            the checksum algorithm of a configuration
+     * @return completed digests
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static ContentDigests loadOrCalculate(File content, String algorithm) throws IOException,
+        NoSuchAlgorithmException {
+        ContentDigests stored = load(content);
+        if (stored != null && stored.getChecksum(algorithm) != null) {
+            return stored;
+        }
+        return calculate(content, algorithm);
+    }
+
+    /**
+     * Method removes the sidecar file of a provided content file.
+     * 
+     * @param content
+     * @return true if the sidecar file was removed
+     */
+    public static boolean deleteSidecar(File content) {
+        return getSidecar(content).delete();
+    }
+
+    /**
+     * @param content
+     * @return true if the checksums of a provided content file were stored in its sidecar file
+     */
+    public static boolean hasSidecar(File content) {
+        return getSidecar(content).exists();
+    }
+
+    /**
+     * @param file
+     * @return true if a provided file is a sidecar file and no content file
+     */
+    public static boolean isSidecar(File file) {
+        return file.getName().startsWith(SIDECAR_PREFIX);
+    }
+
+    // the sidecar is named after the content file as it was sent
+    private static File getSidecar(File content) {
+        return new File(content.getParentFile(), SIDECAR_PREFIX + content.getName());
+    }
+
+    /**
+     * Method updates all provided digests with the remaining bytes of a provided buffer without changing the position
+     * of the buffer.
+     * 
+     * @param mds
+     * @param buffer
+     */
+    public static void update(MessageDigest[] mds, ByteBuffer buffer) {
+        for (MessageDigest md : mds) {
+            md.update(buffer.duplicate());
+        }
+    }
+
+    // MessageDigest accepts both SHA-1 and SHA1, the eSciDoc Core reports SHA1
+    private static String normalize(String algorithm) {
+        return algorithm.replace("-", "").toUpperCase();
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.escidoc.core.client.ingest.exceptions.ConfigurationException;
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+import org.escidoc.core.client.ingest.filesystem.FileIngester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.deposit.Configuration;
+import de.escidoc.core.client.exceptions.EscidocException;
+import de.escidoc.core.client.exceptions.InternalClientException;
+import de.escidoc.core.client.exceptions.TransportException;
+import de.escidoc.core.client.exceptions.application.security.AuthenticationException;
+import de.escidoc.core.client.interfaces.ItemHandlerClientInterface;
+import de.escidoc.core.resources.common.properties.PublicStatus;
+
+/**
+ * Ingests content files of a configuration with a {@link FileIngester}. The FileIngester reports the ids of the
+ * created items only, so the item of every content file is found by the file name of its component.
+ * 
+ */
+public class ContentFileIngester implements IngestBatcher.Ingester {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentFileIngester.class);
+
+    private final InfrastructureClientRegistry clients;
+
+    public ContentFileIngester(InfrastructureClientRegistry clients) {
+        Preconditions.checkNotNull(clients, "clients is null: %s", clients);
+        this.clients = clients;
+    }
+
+    /**
+     * Method creates a {@link FileIngester}, which creates an item for every provided content file in the container of
+     * a provided configuration.
+     * 
+     * @param configuration
+     * @param files
+     * @return the ingester
+     */
+    public static FileIngester newFileIngester(Properties configuration, List<File> files) {
+        FileIngester ingester =
+            new FileIngester(configuration.getProperty(Constants.PROPERTY_INFRASTRUCTURE_ENDPOINT),
+                configuration.getProperty(Constants.PROPERTY_USER_HANDLE),
+                configuration.getProperty(Constants.PROPERTY_EXPERIMENT_ID));
+        for (File file : files) {
+            ingester.addFile(file.getPath());
+        }
+        // FIXME: container content model is not needed here.
+        ingester.setContainerContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
+        ingester.setItemContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
+        ingester.setContext(configuration.getProperty(Configuration.PROPERTY_CONTEXT_ID));
+        ingester.setContentCategory("ORIGINAL");
+        ingester.setInitialLifecycleStatus(PublicStatus.PENDING);
+        ingester.setVisibility("public");
+        ingester.setValidStatus("valid");
+        ingester.setMimeType("text/plain");
+        ingester.setForceCreate(true);
+        return ingester;
+    }
+
+    public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+        throws ConfigurationException, IngestException {
+        FileIngester ingester = newFileIngester(configuration, files);
+        try {
+            ingester.ingest();
+        }
+        finally {
+            assign(configuration, files, ingester.getItemIDs(), itemIds);
+        }
+        return ingester.getItemIDs().size();
+    }
+
+    // an item, whose file name can not be retrieved, is not assigned to any file
+    private void assign(
+        Properties configuration, List<File> files, List<String> created, Map<String, String> itemIds) {
+        if (files.size() == 1 && created.size() == 1) {
+            itemIds.put(files.get(0).getName(), created.get(0));
+            return;
+        }
+        if (created.isEmpty()) {
+            return;
+        }
+        Set<String> fileNames = new HashSet<String>();
+        for (File file : files) {
+            fileNames.add(file.getName());
+        }
+        String endpoint = configuration.getProperty(Constants.PROPERTY_INFRASTRUCTURE_ENDPOINT);
+        String handle = configuration.getProperty(Constants.PROPERTY_USER_HANDLE);
+        ItemHandlerClientInterface itemClient = null;
+        boolean isReusable = false;
+        try {
+            itemClient = clients.borrowItemClient(endpoint, handle);
+            for (String itemId : created) {
+                String fileName = itemClient.retrieve(itemId).getComponents().get(0).getProperties().getFileName();
+                if (fileNames.contains(fileName)) {
+                    itemIds.put(fileName, itemId);
+                }
+                else {
+                    LOG.warn("The item " + itemId + " does not contain a content file of the batch: " + fileName);
+                }
+            }
+            isReusable = true;
+        }
+        catch (MalformedURLException e) {
+            LOG.error("URL not well formed. " + e.getMessage(), e);
+        }
+        catch (AuthenticationException e) {
+            // the handle is rejected, clients using it are of no use any more
+            clients.invalidate(endpoint, handle);
+            LOG.error("The user handle is rejected by eSciDoc Core: " + e.getMessage(), e);
+        }
+        catch (EscidocException e) {
+            LOG.error("Something wrong in eSciDoc Core: " + e.getMessage(), e);
+        }
+        catch (InternalClientException e) {
+            LOG.error("Something wrong in escidoc java connector" + e.getMessage(), e);
+        }
+        catch (TransportException e) {
+            LOG.error("HTTP Transport error: " + e.getMessage(), e);
+        }
+        finally {
+            if (itemClient != null) {
+                clients.release(endpoint, handle, itemClient, isReusable);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.escidoc.bwelabs.depositor.error.WrongFormatException;
+
+/**
+ * Value of a <code>Content-Range</code> header of a part of a resumable upload, e.g.
+ * <code>bytes 0-1048575/20971520</code>. The total length may be unknown (<code>*</code>) for all but the last part.
+ * 
+ */
+public class ContentRange {
+
+    public static final long UNKNOWN_TOTAL = -1;
+
+    private static final Pattern FORMAT = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final long first;
+
+    private final long last;
+
+    private final long total;
+
+    public ContentRange(long first, long last, long total) {
+        this.first = first;
+        this.last = last;
+        this.total = total;
+    }
+
+    /**
+     * @param value
+     *            value of a <code>Content-Range</code> header
+     * @return the parsed range
+     * @throws WrongFormatException
+     *             if the value is not a valid byte range
+     */
+    public static ContentRange parse(String value) throws WrongFormatException {
+        Matcher matcher = value == null ? null : FORMAT.matcher(value.trim());
+        if (matcher == null || !matcher.matches()) {
+            throw new WrongFormatException("Invalid Content-Range: " + value);
+        }
+        try {
+            long first = Long.parseLong(matcher.group(1));
+            long last = Long.parseLong(matcher.group(2));
+            long total = "*".equals(matcher.group(3)) ? UNKNOWN_TOTAL : Long.parseLong(matcher.group(3));
+            if (last < first || (total != UNKNOWN_TOTAL && last >= total)) {
+                throw new WrongFormatException("Invalid Content-Range: " + value);
+            }
+            return new ContentRange(first, last, total);
+        }
+        catch (NumberFormatException e) {
+            throw new WrongFormatException("Invalid Content-Range: " + value, e);
+        }
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true if the range is the last part of an upload
+     */
+    public boolean isLast() {
+        return total != UNKNOWN_TOTAL && last == total - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "bytes " + first + "-" + last + "/" + (total == UNKNOWN_TOTAL ? "*" : Long.toString(total));
+    }
+}
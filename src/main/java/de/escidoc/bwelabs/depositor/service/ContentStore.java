@@ -0,0 +1,224 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content addressed staging store. A verified content file is stored once per digest as a blob in the store
+ * directory; the content files in configuration directories are hard links to the blob. The link count of the file
+ * system is the reference count of a blob: a blob is removed when its last content file is released, so the used
+ * disk space grows with the unique content only.
+ * 
+ * If the file system does not support hard links and link counts, the store is disabled and content files are kept
+ * as copies.
+ * 
+ */
+public class ContentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentStore.class);
+
+    private static final String LINK_COUNT_ATTRIBUTE = "unix:nlink";
+
+    private static final String TMP_SUFFIX = ".link";
+
+    private final File storeDir;
+
+    private final boolean isEnabled;
+
+    // file key (device and inode) of every blob, to find the blob of a content file
+    private final Map<Object, File> blobs = new HashMap<Object, File>();
+
+    private long deduplicatedBytes;
+
+    /**
+     * @param storeDir
+     *            directory of the blobs
+     * @param isEnabled
+     *            false if content files are not deduplicated
+     */
+    public ContentStore(File storeDir, boolean isEnabled) {
+        this.storeDir = storeDir;
+        this.isEnabled = isEnabled && isSupported(storeDir);
+        if (this.isEnabled) {
+            restore();
+        }
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Method replaces a verified content file by a link to the blob with the same digest. If there is no such blob
+     * yet, the content file becomes the blob.
+     * 
+     * @param content
+     * @param algorithm
+     * @param checksum
+     *            hex encoded digest of the content file
+     */
+    public synchronized void deduplicate(File content, String algorithm, String checksum) {
+        if (!isEnabled || checksum == null) {
+            return;
+        }
+        String key = algorithm + "-" + checksum.toLowerCase();
+        File shardDir = new File(storeDir, key.substring(key.length() - 2));
+        File blob = new File(shardDir, key);
+        try {
+            if (blob.exists() && blob.length() == content.length()) {
+                long length = content.length();
+                // link under a temporary name and replace the content file atomically, so it never disappears
+                Path tmp = new File(content.getParentFile(), content.getName() + TMP_SUFFIX).toPath();
+                Files.createLink(tmp, blob.toPath());
+                Files.move(tmp, content.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                deduplicatedBytes += length;
+                LOG.debug("The content file " + content.getName() + " is a link to " + key + ".");
+                return;
+            }
+            if (blob.exists()) {
+                LOG.warn("The blob " + key + " differs in size from the content file " + content.getName() + ".");
+                return;
+            }
+            shardDir.mkdirs();
+            Files.createLink(blob.toPath(), content.toPath());
+            blobs.put(getFileKey(blob.toPath()), blob);
+        }
+        catch (IOException e) {
+            LOG.warn("Can not deduplicate the content file " + content.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method deletes a content file and the blob it refers to, if no other content file refers to the blob.
+     * 
+     * @param content
+     * @return true if the content file was deleted
+     */
+    public synchronized boolean release(File content) {
+        if (!isEnabled) {
+            return content.delete();
+        }
+        Path path = content.toPath();
+        try {
+            Object fileKey = getFileKey(path);
+            int links = getLinkCount(path);
+            Files.delete(path);
+            File blob = blobs.get(fileKey);
+            // the blob itself is the last link
+            if (blob != null && links == 2) {
+                blobs.remove(fileKey);
+                Files.deleteIfExists(blob.toPath());
+            }
+            return true;
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+        catch (IOException e) {
+            LOG.warn("Can not release the content file " + content.getName() + ": " + e.getMessage());
+            return content.delete();
+        }
+    }
+
+    /**
+     * @return number of blobs in the store
+     */
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    /**
+     * @return bytes, which were not stored again because their content was in the store already
+     */
+    public synchronized long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+
+    // reads the blobs of the last run and removes blobs, which are not referred to any more
+    private void restore() {
+        File[] shards = storeDir.listFiles();
+        if (shards == null) {
+            return;
+        }
+        for (File shard : shards) {
+            File[] files = shard.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File blob : files) {
+                try {
+                    if (getLinkCount(blob.toPath()) <= 1) {
+                        blob.delete();
+                    }
+                    else {
+                        blobs.put(getFileKey(blob.toPath()), blob);
+                    }
+                }
+                catch (IOException e) {
+                    LOG.warn("Can not restore the blob " + blob.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        LOG.info("Restored " + blobs.size() + " blobs of the content store " + storeDir + ".");
+    }
+
+    private static boolean isSupported(File storeDir) {
+        try {
+            storeDir.mkdirs();
+            if (Files.getFileStore(storeDir.toPath()).supportsFileAttributeView("unix")) {
+                return true;
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Can not inspect the file store of " + storeDir + ": " + e.getMessage());
+        }
+        LOG.warn("The file system of " + storeDir + " does not support link counts, content files are not deduplicated.");
+        return false;
+    }
+
+    private static Object getFileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    private static int getLinkCount(Path path) throws IOException {
+        return ((Number) Files.getAttribute(path, LINK_COUNT_ATTRIBUTE)).intValue();
+    }
+}
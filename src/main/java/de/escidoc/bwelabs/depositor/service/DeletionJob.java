@@ -0,0 +1,232 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.depositor.error.ApplicationException;
+import de.escidoc.bwelabs.depositor.error.DepositorException;
+import de.escidoc.bwelabs.depositor.error.ServiceUnavailableException;
+
+/**
+ * Deletes configurations on a bounded number of workers, so a DELETE request does not wait until all sessions of a
+ * configuration are finished and its directory is removed. Concurrent deletions of the same configuration are
+ * collapsed into one, the state of a deletion can be requested until it is evicted by {@link #evictFinished(long)}.
+ * 
+ */
+public class DeletionJob {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeletionJob.class);
+
+    /**
+     * Deletes a configuration, called by a worker.
+     */
+    public interface Deleter {
+
+        void delete(String configId) throws ApplicationException, DepositorException;
+    }
+
+    public enum State {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * A deletion of a configuration.
+     */
+    public static class Deletion {
+
+        private final String configId;
+
+        private volatile State state = State.PENDING;
+
+        private volatile Exception failure;
+
+        private volatile long finishedAt;
+
+        Deletion(String configId) {
+            this.configId = configId;
+        }
+
+        public String getConfigurationId() {
+            return configId;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state == State.SUCCEEDED || state == State.FAILED;
+        }
+
+        /**
+         * @return the exception, which caused a failed deletion, or <code>null</code>
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    private final Deleter deleter;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, Deletion> deletions = new ConcurrentHashMap<String, Deletion>();
+
+    /**
+     * @param deleter
+     * @param poolSize
+     *            number of workers
+     */
+    public DeletionJob(Deleter deleter, int poolSize) {
+        Preconditions.checkNotNull(deleter, "deleter is null: %s", deleter);
+        Preconditions.checkArgument(poolSize > 0, "poolSize must be positive: %s", poolSize);
+        this.deleter = deleter;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        // deletions are collapsed per configuration, so the queue can not grow beyond the number of configurations
+        this.executor =
+            new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread worker = new Thread(r, "Deletion-Worker-" + threadNumber.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    }
+                });
+    }
+
+    /**
+     * Method returns the unfinished deletion of a configuration with a provided id or submits a new one.
+     * 
+     * @param configId
+     * @return the deletion
+     * @throws ServiceUnavailableException
+     *             if the job is shut down
+     */
+    public Deletion submit(String configId) throws ServiceUnavailableException {
+        while (true) {
+            Deletion existing = deletions.get(configId);
+            if (existing != null && !existing.isFinished()) {
+                return existing;
+            }
+            final Deletion deletion = new Deletion(configId);
+            boolean isSubmitted =
+                existing == null ? deletions.putIfAbsent(configId, deletion) == null : deletions.replace(configId,
+                    existing, deletion);
+            if (!isSubmitted) {
+                // another request submitted a deletion meanwhile
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        execute(deletion);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                deletions.remove(configId, deletion);
+                throw new ServiceUnavailableException("The depositor service is shutting down.", 0, e);
+            }
+            return deletion;
+        }
+    }
+
+    /**
+     * @param configId
+     * @return the last deletion of a configuration with a provided id or <code>null</code>
+     */
+    public Deletion getDeletion(String configId) {
+        return deletions.get(configId);
+    }
+
+    /**
+     * Method forgets deletions, which are finished for more than a provided time.
+     * 
+     * @param retentionMillis
+     */
+    public void evictFinished(long retentionMillis) {
+        long oldest = System.currentTimeMillis() - retentionMillis;
+        for (Iterator<Deletion> iter = deletions.values().iterator(); iter.hasNext();) {
+            Deletion deletion = iter.next();
+            if (deletion.isFinished() && deletion.finishedAt < oldest) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Method stops accepting deletions, the submitted ones are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void execute(Deletion deletion) {
+        deletion.state = State.RUNNING;
+        try {
+            deleter.delete(deletion.configId);
+            finish(deletion, null);
+            LOG.info("Deleted the configuration with id " + deletion.configId + ".");
+        }
+        catch (ApplicationException e) {
+            finish(deletion, e);
+        }
+        catch (DepositorException e) {
+            finish(deletion, e);
+        }
+        catch (RuntimeException e) {
+            finish(deletion, e);
+        }
+    }
+
+    private static void finish(Deletion deletion, Exception failure) {
+        if (failure != null) {
+            LOG.error("Can not delete the configuration with id " + deletion.configId + ": " + failure.getMessage(),
+                failure);
+        }
+        // the finish time is set first, a finished deletion is never evicted before its retention elapsed
+        deletion.failure = failure;
+        deletion.finishedAt = System.currentTimeMillis();
+        deletion.state = failure == null ? State.SUCCEEDED : State.FAILED;
+    }
+}
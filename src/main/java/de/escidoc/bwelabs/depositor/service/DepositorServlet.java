@@ -40,6 +40,7 @@ import java.io.InputStream;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Properties;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -56,7 +57,14 @@ import de.escidoc.bwelabs.depositor.error.AlreadyExistException;
 import de.escidoc.bwelabs.depositor.error.AlreadyExpiredException;
 import de.escidoc.bwelabs.depositor.error.ApplicationException;
 import de.escidoc.bwelabs.depositor.error.DepositorException;
+import de.escidoc.bwelabs.depositor.error.InsufficientStorageException;
+import de.escidoc.bwelabs.depositor.error.ServiceUnavailableException;
+import de.escidoc.bwelabs.depositor.error.WrongChecksumException;
 import de.escidoc.bwelabs.depositor.error.WrongConfigurationContentException;
+import de.escidoc.bwelabs.depositor.error.WrongFormatException;
+import de.escidoc.bwelabs.depositor.error.WrongOffsetException;
+import de.escidoc.bwelabs.depositor.utility.AdmissionController;
+import de.escidoc.bwelabs.depositor.utility.StagingSpaceGuard;
 
 /**
  * Handles requests to Depositor service.
@@ -70,10 +78,25 @@ public class DepositorServlet extends HttpServlet {
 
     public static final String ESCIDOC_CHECKSUM_HEADER = "X-ESciDoc-CheckSum";
 
+    public static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+    public static final String UPLOAD_OFFSET_HEADER = "X-ESciDoc-Upload-Offset";
+
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    public static final String ARCHIVE_CONTENT_TYPE = "application/zip";
+
+    public static final int SC_INSUFFICIENT_STORAGE = 507;
+
     private static final long serialVersionUID = -2846807557758308527L;
 
     public static final String PATH_FOR_SENDING_NEW_CONFIGURATION = "/configuration";
 
+    /**
+     * Path of the state of a configuration deletion, followed by the configuration id.
+     */
+    public static final String DELETION_STATUS_PATH = "/deletion/";
+
     public static final String START_PATH_FOR_SENDING_START_COMMAND = "/esync/configuration/start/";
 
     public static final String START_PATH_FOR_SENDING_STOP_COMMAND = "/esync/configuration/";
@@ -104,6 +127,8 @@ public class DepositorServlet extends HttpServlet {
 
     private String contentFileServletUrl;
 
+    private boolean isAsyncUpload;
+
     /**
      * Method calls a SessionManager.storeConfiguration() method to check and register the configuration, provided in
      * the body of the request.
@@ -113,6 +138,11 @@ public class DepositorServlet extends HttpServlet {
         String pathInfo = request.getPathInfo();
         LOGGER.debug("PUT " + pathInfo);
 
+        if (!PATH_FOR_SENDING_NEW_CONFIGURATION.equals(pathInfo) && request.getHeader(CONTENT_RANGE_HEADER) != null) {
+            storeContentRange(request, response, getRequestInputStream(request, response));
+            return;
+        }
+
         if (!PATH_FOR_SENDING_NEW_CONFIGURATION.equals(pathInfo)) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A PUT-requst to path info: " + pathInfo
                 + " is not suported.");
@@ -127,12 +157,20 @@ public class DepositorServlet extends HttpServlet {
             String configId = configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID);
 
             // TODO Manager only has to now about successful configuration. Saving and ingest might be in another class.
-            manager.checkIfAlreadyExists(configId);
-            File configFile = manager.saveInLocalFileSystem(configProperties);
+            manager.beginRegistration(configId);
+            File configFile;
+            try {
+                configFile = manager.saveInLocalFileSystem(configProperties);
+            }
+            catch (DepositorException e) {
+                manager.cancelRegistration(configId);
+                throw e;
+            }
             try {
                 manager.ingestConfiguration(configProperties, configFile);
             }
             catch (Exception e) {
+                manager.cancelRegistration(configId);
                 boolean success = false;
                 File configDir = configFile.getParentFile();
                 success = configFile.delete();
@@ -202,7 +240,220 @@ public class DepositorServlet extends HttpServlet {
 
         LOGGER.debug("POST");
         InputStream is = getRequestInputStream(request, response);
-        checkSum(request, response, is);
+        if (isArchive(request)) {
+            storeArchive(request, response, is);
+        }
+        else if (request.getHeader(CONTENT_RANGE_HEADER) != null) {
+            storeContentRange(request, response, is);
+        }
+        else if (isAsyncUpload && request.isAsyncSupported()) {
+            storeContentAsync(request, response);
+        }
+        else {
+            checkSum(request, response, is);
+        }
+    }
+
+    /**
+     * Method calls a SessionManager.getCommittedOffset() method to tell a client, how many bytes of a content file,
+     * sent in several parts, are stored so far.
+     */
+    @Override
+    public void doHead(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        LOGGER.debug("HEAD");
+        String pathInfo = request.getPathInfo();
+        String fileName = request.getHeader(CONTENT_DISPOSITION_HEADER);
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A HEAD-request to path info: " + pathInfo
+                + " is not suported.");
+            return;
+        }
+        if (fileName == null || fileName.length() == 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A HEAD-request without the header "
+                + CONTENT_DISPOSITION_HEADER + " is not suported.");
+            return;
+        }
+        String configId = pathInfo.substring(1);
+        try {
+            long offset = manager.getCommittedOffset(configId, fileName);
+            response.setHeader(UPLOAD_OFFSET_HEADER, Long.toString(offset));
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+        catch (ApplicationException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Method calls a SessionManager.storeContentRange() method to store a part of a content file, sent in several
+     * parts. The response contains the committed offset, so a client can resume an interrupted upload.
+     */
+    private void storeContentRange(HttpServletRequest request, HttpServletResponse response, InputStream is) {
+        AdmissionController.Permit permit = null;
+        StagingSpaceGuard.Reservation reservation = null;
+        try {
+            permit = manager.admit();
+
+            String checkSumValue = request.getHeader(ESCIDOC_CHECKSUM_HEADER);
+            String fileName = request.getHeader(CONTENT_DISPOSITION_HEADER);
+            String configId = request.getPathInfo().substring(1);
+            ContentRange range = ContentRange.parse(request.getHeader(CONTENT_RANGE_HEADER));
+            reservation = manager.reserveStagingSpace(range.getLength());
+            is = reservation.track(is);
+
+            long offset = manager.storeContentRange(configId, fileName, range, checkSumValue, is);
+            response.setHeader(UPLOAD_OFFSET_HEADER, Long.toString(offset));
+            response.setStatus(range.isLast() ? HttpServletResponse.SC_OK : HttpServletResponse.SC_ACCEPTED);
+            response.setContentType("text/xml");
+            response.flushBuffer();
+        }
+        catch (WrongOffsetException e) {
+            response.setHeader(UPLOAD_OFFSET_HEADER, Long.toString(e.getCommittedOffset()));
+            sendError(response, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, e);
+        }
+        catch (WrongFormatException e) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, e);
+        }
+        catch (WrongChecksumException e) {
+            sendError(response, HttpServletResponse.SC_PRECONDITION_FAILED, e);
+        }
+        catch (ApplicationException e) {
+            handleApplicationException(response, e);
+        }
+        catch (InsufficientStorageException e) {
+            sendError(response, SC_INSUFFICIENT_STORAGE, e);
+        }
+        catch (ServiceUnavailableException e) {
+            sendServiceUnavailable(response, e);
+        }
+        catch (DepositorException e) {
+            sendDepositError(response, e);
+        }
+        catch (Throwable e) {
+            sendOtherError(response, e);
+        }
+        finally {
+            cleanUp(is, permit, reservation);
+        }
+    }
+
+    /**
+     * Method stages a content file, provided in the body of the request, with non-blocking reads. The container thread
+     * is released as soon as the upload is started; the response is sent by the {@link AsyncUpload} once the whole
+     * body is read. The upload is admitted only when its session is submitted, so the number of uploads on the way is
+     * limited by the staging space and not by the number of permits. If no permit is free, the upload is rejected
+     * before its body is read. If pipelined ingest is enabled, the body is streamed to the infrastructure while it is
+     * read.
+     */
+    private void storeContentAsync(HttpServletRequest request, HttpServletResponse response) {
+        String checkSumValue = request.getHeader(ESCIDOC_CHECKSUM_HEADER);
+        String fileName = request.getHeader(CONTENT_DISPOSITION_HEADER);
+        String configId = request.getPathInfo().substring(1);
+
+        StagingSpaceGuard.Reservation reservation = null;
+        File content = null;
+        PipelinedTransfer transfer = null;
+        AsyncUpload upload = null;
+        try {
+            manager.checkAdmission();
+            reservation = manager.reserveStagingSpace(request.getContentLengthLong());
+            content = manager.prepareContentFile(configId, fileName);
+            ContentDigests digests = manager.createContentDigests(configId);
+            AsyncContext asyncContext = request.startAsync();
+            // a stalled upload is ended by the idle timeout of the connector
+            asyncContext.setTimeout(0);
+            transfer = manager.openPipelinedTransfer(configId);
+            upload =
+                new AsyncUpload(manager, reservation, asyncContext, configId, checkSumValue, content, digests,
+                    transfer);
+            upload.start();
+        }
+        catch (ApplicationException e) {
+            handleApplicationException(response, e);
+        }
+        catch (InsufficientStorageException e) {
+            sendError(response, SC_INSUFFICIENT_STORAGE, e);
+        }
+        catch (ServiceUnavailableException e) {
+            sendServiceUnavailable(response, e);
+        }
+        catch (DepositorException e) {
+            sendDepositError(response, e);
+        }
+        catch (Throwable e) {
+            sendOtherError(response, e);
+        }
+        finally {
+            if (upload == null) {
+                // the upload was not started, so the prepared content file is not needed
+                if (transfer != null) {
+                    transfer.rollback();
+                }
+                if (content != null) {
+                    manager.discardContentFile(configId, content);
+                }
+                if (reservation != null) {
+                    reservation.release();
+                }
+                if (request.isAsyncStarted()) {
+                    request.getAsyncContext().complete();
+                }
+            }
+        }
+    }
+
+    private static boolean isArchive(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(ARCHIVE_CONTENT_TYPE);
+    }
+
+    /**
+     * Method calls a SessionManager.storeArchive() method to store all content files of a ZIP archive, provided in the
+     * body of the request. The response contains a result for every content file of the archive.
+     */
+    private void storeArchive(HttpServletRequest request, HttpServletResponse response, InputStream is) {
+        AdmissionController.Permit permit = null;
+        StagingSpaceGuard.Reservation reservation = null;
+        try {
+            permit = manager.admit();
+            // the compressed size is reserved first, the reservation grows with the decompressed entries
+            reservation = manager.reserveStagingSpace(request.getContentLengthLong());
+
+            String configId = request.getPathInfo().substring(1);
+            BatchResult result = manager.storeArchive(configId, is, reservation);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("text/xml");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write(result.toXml());
+            response.flushBuffer();
+        }
+        catch (ApplicationException e) {
+            handleApplicationException(response, e);
+        }
+        catch (InsufficientStorageException e) {
+            sendError(response, SC_INSUFFICIENT_STORAGE, e);
+        }
+        catch (ServiceUnavailableException e) {
+            sendServiceUnavailable(response, e);
+        }
+        catch (DepositorException e) {
+            sendDepositError(response, e);
+        }
+        catch (Throwable e) {
+            sendOtherError(response, e);
+        }
+        finally {
+            cleanUp(is, permit, reservation);
+        }
+    }
+
+    private static void sendError(HttpServletResponse response, int status, Exception e) {
+        try {
+            response.sendError(status, e.getMessage());
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Could not send error to eSyncDemon", ioe);
+        }
     }
 
     private static void sendError(HttpServletResponse response) {
@@ -230,15 +481,18 @@ public class DepositorServlet extends HttpServlet {
     }
 
     private void checkSum(HttpServletRequest request, HttpServletResponse response, InputStream is) {
+        AdmissionController.Permit permit = null;
+        StagingSpaceGuard.Reservation reservation = null;
         try {
+            permit = manager.admit();
+            reservation = manager.reserveStagingSpace(request.getContentLengthLong());
+            is = reservation.track(is);
+
             String checkSumValue = request.getHeader(ESCIDOC_CHECKSUM_HEADER);
             String fileName = request.getHeader(CONTENT_DISPOSITION_HEADER);
             String configId = request.getPathInfo().substring(1);
 
             // FIXME check for empty value OR null and react accordingly
-            // TODO what does this line do?
-            manager.increaseThreadsNumber();
-
             if (isValid(is, checkSumValue, fileName, configId)) {
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.setContentType("text/xml");
@@ -251,6 +505,12 @@ public class DepositorServlet extends HttpServlet {
         catch (ApplicationException e) {
             handleApplicationException(response, e);
         }
+        catch (InsufficientStorageException e) {
+            sendError(response, SC_INSUFFICIENT_STORAGE, e);
+        }
+        catch (ServiceUnavailableException e) {
+            sendServiceUnavailable(response, e);
+        }
         catch (DepositorException e) {
             sendDepositError(response, e);
         }
@@ -258,12 +518,18 @@ public class DepositorServlet extends HttpServlet {
             sendOtherError(response, e);
         }
         finally {
-            cleanUp(is);
+            cleanUp(is, permit, reservation);
         }
     }
 
-    private void cleanUp(InputStream is) {
-        manager.decreaseThreadsNumber();
+    private static void cleanUp(InputStream is, AdmissionController.Permit permit,
+        StagingSpaceGuard.Reservation reservation) {
+        if (reservation != null) {
+            reservation.release();
+        }
+        if (permit != null) {
+            permit.release();
+        }
         try {
             is.close();
         }
@@ -272,7 +538,7 @@ public class DepositorServlet extends HttpServlet {
         }
     }
 
-    private static void sendOtherError(HttpServletResponse response, Throwable e) {
+    static void sendOtherError(HttpServletResponse response, Throwable e) {
         try {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
         }
@@ -281,7 +547,20 @@ public class DepositorServlet extends HttpServlet {
         }
     }
 
-    private static void sendDepositError(HttpServletResponse response, DepositorException e) {
+    /**
+     * Method tells the client, that the Depositor is saturated and when the request should be retried.
+     */
+    static void sendServiceUnavailable(HttpServletResponse response, ServiceUnavailableException e) {
+        response.setHeader(RETRY_AFTER_HEADER, Long.toString(e.getRetryAfterSeconds()));
+        try {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Could not send error to eSyncDemon", ioe);
+        }
+    }
+
+    static void sendDepositError(HttpServletResponse response, DepositorException e) {
         try {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
         }
@@ -309,7 +588,7 @@ public class DepositorServlet extends HttpServlet {
         }
     }
 
-    private static void sendInvalidChecksum(HttpServletResponse response) {
+    static void sendInvalidChecksum(HttpServletResponse response) {
         try {
             response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED,
                 "A calculated check sum of the attached file " + "does not match the provided check sum.");
@@ -325,20 +604,19 @@ public class DepositorServlet extends HttpServlet {
     }
 
     /**
-     * Method calls a SessionManager.deleteConfiguration() method to delete a data for the configuration with id,
-     * provided in a request-url from a Depositor service and file system.
+     * Method calls a SessionManager.deleteConfigurationAsync() method to delete a data for the configuration with id,
+     * provided in a request-url from a Depositor service and file system. The deletion runs in the background, the
+     * response tells the client where to request its state.
      */
     @Override
     public void doDelete(HttpServletRequest request, HttpServletResponse response) {
         LOGGER.debug("DELETE");
         String pathInfo = request.getPathInfo();
         String configId = pathInfo.substring(1);
+        AdmissionController.Permit permit = null;
         try {
-            manager.increaseThreadsNumber();
-            manager.deleteConfiguration(configId);
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.setContentType("text/xml");
-            // response.flushBuffer();
+            permit = manager.admit();
+            sendDeletionState(request, response, manager.deleteConfigurationAsync(configId));
         }
         catch (ApplicationException e) {
             try {
@@ -349,6 +627,9 @@ public class DepositorServlet extends HttpServlet {
             }
 
         }
+        catch (ServiceUnavailableException e) {
+            sendServiceUnavailable(response, e);
+        }
         catch (DepositorException e) {
             sendDepositError(response, e);
 
@@ -357,11 +638,68 @@ public class DepositorServlet extends HttpServlet {
             sendOtherError(response, e);
         }
         finally {
-            manager.decreaseThreadsNumber();
+            if (permit != null) {
+                permit.release();
+            }
         }
 
     }
 
+    /**
+     * Method tells the client the state of a configuration deletion, requested by a path
+     * {@link #DELETION_STATUS_PATH}{configId}.
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException,
+        ServletException {
+        String pathInfo = request.getPathInfo();
+        LOGGER.debug("GET " + pathInfo);
+        if (pathInfo == null || !pathInfo.startsWith(DELETION_STATUS_PATH)) {
+            super.doGet(request, response);
+            return;
+        }
+        String configId = pathInfo.substring(DELETION_STATUS_PATH.length());
+        DeletionJob.Deletion deletion = manager.getDeletion(configId);
+        if (deletion == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                "Depositor has no deletion of a configuration with the id " + configId + ".");
+            return;
+        }
+        sendDeletionState(request, response, deletion);
+    }
+
+    /**
+     * Method answers with 202 and the location of the deletion state while a deletion is not finished, with 200 if it
+     * succeeded and with the error of the deletion if it failed.
+     */
+    private static void sendDeletionState(
+        HttpServletRequest request, HttpServletResponse response, DeletionJob.Deletion deletion) {
+        switch (deletion.getState()) {
+            case SUCCEEDED:
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType("text/xml");
+                break;
+            case FAILED:
+                Exception failure = deletion.getFailure();
+                if (failure instanceof ApplicationException) {
+                    handleApplicationException(response, (ApplicationException) failure);
+                }
+                else if (failure instanceof DepositorException) {
+                    sendDepositError(response, (DepositorException) failure);
+                }
+                else {
+                    sendOtherError(response, failure);
+                }
+                break;
+            default:
+                response.setHeader("Location", request.getContextPath() + request.getServletPath()
+                    + DELETION_STATUS_PATH + deletion.getConfigurationId());
+                response.setHeader(RETRY_AFTER_HEADER, "1");
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                break;
+        }
+    }
+
     @Override
     public void init() throws ServletException {
         try {
@@ -394,6 +732,7 @@ public class DepositorServlet extends HttpServlet {
 
             // load configuration
             Properties props = loadConfiguration();
+            this.isAsyncUpload = Boolean.parseBoolean(props.getProperty(SessionManager.PROP_ASYNC_UPLOAD, "true"));
             // create session manager that will run as thread creating
             // additional threads for all configurations
             this.manager = new SessionManager(props);
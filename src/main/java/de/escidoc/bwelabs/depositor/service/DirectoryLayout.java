@@ -0,0 +1,347 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Layout of the session base directory. Configuration directories are spread over two levels of hashed shard
+ * directories, e.g. <code>3f/a2/2011_05_04_10_12_01_123</code>, and the content files of a configuration over one
+ * level of shard directories within its configuration directory. All files belonging to one content file (the content
+ * file, its sidecar and its partial file) share a shard, because the shard is calculated from the name the file was
+ * sent with.
+ * 
+ * Configuration directories of the flat layout of earlier versions are moved into the sharded layout by
+ * {@link #migrate(File, File, String)}.
+ * 
+ */
+public final class DirectoryLayout {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryLayout.class);
+
+    /**
+     * Name of the directory of the {@link ContentStore} within the base directory.
+     */
+    public static final String CONTENT_STORE_DIRECTORY_NAME = ".content";
+
+    /**
+     * Name of the {@link RegistrySnapshot} file within the base directory.
+     */
+    public static final String REGISTRY_SNAPSHOT_FILE_NAME = ".registry";
+
+    /**
+     * Name of the {@link SessionJournal} file within the base directory.
+     */
+    public static final String JOURNAL_FILE_NAME = ".journal";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // earlier versions encoded the processing state of a content file in a prefix of its name
+    private static final String[] STATE_PREFIXES = { "successful_failed_", "successful_", "failed_" };
+
+    private static final int MAX_ALLOCATION_ATTEMPTS = 1000;
+
+    private DirectoryLayout() {
+    }
+
+    /**
+     * Method creates a new configuration directory. If a directory with a provided name exists already, e.g. because
+     * two configurations were sent within the same millisecond, a counter is appended to the name.
+     * 
+     * @param baseDir
+     * @param configId
+     * @param name
+     *            name of the directory, e.g. a time stamp
+     * @return path of the created directory relative to a provided base directory
+     * @throws IOException
+     *             if no directory could be created
+     */
+    public static String createConfigurationDirectory(File baseDir, String configId, String name)
+        throws IOException {
+        String shardPath = getConfigurationShardPath(configId);
+        File shardDir = new File(baseDir, shardPath);
+        for (int i = 0; i < MAX_ALLOCATION_ATTEMPTS; i++) {
+            String dirName = i == 0 ? name : name + "_" + i;
+            shardDir.mkdirs();
+            // mkdir is atomic, only one caller can create a directory
+            if (new File(shardDir, dirName).mkdir()) {
+                return shardPath + "/" + dirName;
+            }
+        }
+        throw new IOException("Can not create a configuration directory " + name + " in " + shardDir + ".");
+    }
+
+    /**
+     * @param configId
+     * @return path of the shard directories of a configuration relative to the base directory, e.g. <code>3f/a2</code>
+     */
+    public static String getConfigurationShardPath(String configId) {
+        long hash = hash(configId);
+        return toShardName(hash) + "/" + toShardName(hash >>> 8);
+    }
+
+    /**
+     * Method returns all configuration directories in a base directory, in the sharded and in the flat layout. Other
+     * files at the level of the configuration directories are returned as well.
+     * 
+     * @param baseDir
+     * @return the configuration directories or <code>null</code> if the base directory can not be read
+     */
+    public static List<File> listConfigurationDirectories(File baseDir) {
+        File[] entries = baseDir.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        List<File> dirs = new ArrayList<File>();
+        for (File entry : entries) {
+            if (entry.getName().equals(CONTENT_STORE_DIRECTORY_NAME)
+                || entry.getName().startsWith(REGISTRY_SNAPSHOT_FILE_NAME)
+                || entry.getName().startsWith(JOURNAL_FILE_NAME)) {
+                continue;
+            }
+            if (!isShard(entry)) {
+                // a directory of the flat layout
+                dirs.add(entry);
+                continue;
+            }
+            File[] shards = entry.listFiles();
+            if (shards == null) {
+                continue;
+            }
+            for (File shard : shards) {
+                File[] configurationDirs = shard.listFiles();
+                if (configurationDirs == null) {
+                    continue;
+                }
+                for (File configurationDir : configurationDirs) {
+                    dirs.add(configurationDir);
+                }
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * @param baseDir
+     * @param dir
+     * @return path of a provided directory relative to a provided base directory
+     */
+    public static String getRelativePath(File baseDir, File dir) {
+        String base = baseDir.getAbsolutePath();
+        String path = dir.getAbsolutePath();
+        if (!path.startsWith(base + File.separator)) {
+            return dir.getName();
+        }
+        return path.substring(base.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Method moves a configuration directory of the flat layout and all its content files into the sharded layout.
+     * 
+     * @param baseDir
+     * @param dir
+     *            directory directly in the base directory
+     * @param configId
+     * @return the moved directory or a provided directory if it could not be moved
+     */
+    public static File migrate(File baseDir, File dir, String configId) {
+        if (!dir.getParentFile().equals(baseDir)) {
+            return dir;
+        }
+        File shardDir = new File(baseDir, getConfigurationShardPath(configId));
+        shardDir.mkdirs();
+        File migrated = new File(shardDir, dir.getName());
+        if (migrated.exists() || !dir.renameTo(migrated)) {
+            return dir;
+        }
+        File[] files = migrated.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().equals(Constants.CONFIGURATION_FILE_NAME)) {
+                    File contentDir = getContentDirectory(migrated, getSentName(file.getName()));
+                    contentDir.mkdirs();
+                    file.renameTo(new File(contentDir, file.getName()));
+                }
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Method renames the content files of a configuration directory of an earlier version, whose processing states
+     * are encoded in prefixes of their names, back to the names they were sent with and moves them into the shards of
+     * these names. This is the only place, where state prefixes are interpreted.
+     * 
+     * @param configurationDirectory
+     * @return the states of the content files by the names they were sent with
+     */
+    public static Map<String, FileNameIndex.State> stripStatePrefixes(File configurationDirectory) {
+        Map<String, FileNameIndex.State> states = new HashMap<String, FileNameIndex.State>();
+        for (File file : listContentFiles(configurationDirectory)) {
+            String name = file.getName();
+            if (name.equals(Constants.CONFIGURATION_FILE_NAME) || ContentDigests.isSidecar(file)) {
+                continue;
+            }
+            if (ResumableUpload.isPartial(file)) {
+                states.put(getSentName(name), FileNameIndex.State.RESERVED);
+                continue;
+            }
+            FileNameIndex.State state = FileNameIndex.State.STORED;
+            String sentName = name;
+            for (String prefix : STATE_PREFIXES) {
+                if (name.startsWith(prefix)) {
+                    state =
+                        prefix.startsWith("successful_") ? FileNameIndex.State.SUCCESSFUL : FileNameIndex.State.FAILED;
+                    sentName = name.substring(prefix.length());
+                    break;
+                }
+            }
+            if (!sentName.equals(name)) {
+                File renamed = createContentFile(configurationDirectory, sentName);
+                if (renamed.exists() || !file.renameTo(renamed)) {
+                    LOG.error("Can not rename the content file " + file + " to " + renamed + ".");
+                    continue;
+                }
+            }
+            states.put(sentName, state);
+        }
+        return states;
+    }
+
+    /**
+     * @param configurationDirectory
+     * @param fileName
+     *            name of a content file as it was sent
+     * @return the shard directory of a content file within a configuration directory, it might not exist yet
+     */
+    public static File getContentDirectory(File configurationDirectory, String fileName) {
+        return new File(configurationDirectory, toShardName(hash(fileName)));
+    }
+
+    /**
+     * Method returns a new content file and creates its shard directory.
+     * 
+     * @param configurationDirectory
+     * @param fileName
+     *            name of a content file as it was sent
+     * @return the content file
+     */
+    public static File createContentFile(File configurationDirectory, String fileName) {
+        File contentDir = getContentDirectory(configurationDirectory, fileName);
+        contentDir.mkdirs();
+        return new File(contentDir, fileName);
+    }
+
+    /**
+     * Method returns all files of a configuration directory and of its shard directories, that is the configuration
+     * file and the content files with their sidecar and partial files.
+     * 
+     * @param configurationDirectory
+     * @return the files, empty if the directory can not be read
+     */
+    public static List<File> listContentFiles(File configurationDirectory) {
+        List<File> files = new ArrayList<File>();
+        File[] entries = configurationDirectory.listFiles();
+        if (entries == null) {
+            return files;
+        }
+        for (File entry : entries) {
+            if (!isShard(entry)) {
+                files.add(entry);
+                continue;
+            }
+            File[] contentFiles = entry.listFiles();
+            if (contentFiles != null) {
+                for (File contentFile : contentFiles) {
+                    files.add(contentFile);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Method deletes a configuration directory with all files and shard directories within it.
+     * 
+     * @param configurationDirectory
+     * @return true if the directory was removed
+     */
+    public static boolean deleteConfigurationDirectory(File configurationDirectory) {
+        for (File file : listContentFiles(configurationDirectory)) {
+            file.delete();
+        }
+        File[] shards = configurationDirectory.listFiles();
+        if (shards != null) {
+            for (File shard : shards) {
+                shard.delete();
+            }
+        }
+        return configurationDirectory.delete();
+    }
+
+    private static boolean isShard(File file) {
+        String name = file.getName();
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0
+            && Character.digit(name.charAt(1), 16) >= 0 && file.isDirectory();
+    }
+
+    // the name of the content file a file belongs to, without the prefix of a sidecar or partial file
+    private static String getSentName(String name) {
+        if (name.startsWith(ContentDigests.SIDECAR_PREFIX)) {
+            return name.substring(ContentDigests.SIDECAR_PREFIX.length());
+        }
+        if (name.startsWith(ResumableUpload.PARTIAL_PREFIX)) {
+            return name.substring(ResumableUpload.PARTIAL_PREFIX.length());
+        }
+        return name;
+    }
+
+    private static long hash(String name) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(UTF8));
+        return crc.getValue();
+    }
+
+    private static String toShardName(long hash) {
+        int value = (int) hash & 0xff;
+        return new String(new char[] { HEX_DIGITS[value >>> 4], HEX_DIGITS[value & 0x0f] });
+    }
+}
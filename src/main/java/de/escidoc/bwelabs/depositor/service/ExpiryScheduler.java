@@ -0,0 +1,176 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Keeps the expiry instant of every configuration in a priority queue, so expired configurations are found without
+ * checking all configurations. The expiry of a configuration is calculated once, when its monitoring start time is
+ * known. A rescheduled or cancelled configuration leaves a stale entry in the queue, which is skipped when it is due.
+ * 
+ */
+public class ExpiryScheduler {
+
+    /**
+     * Expiry of a configuration without a monitoring start time.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final PriorityQueue<Deadline> queue = new PriorityQueue<Deadline>();
+
+    private final Map<String, Long> deadlines = new HashMap<String, Long>();
+
+    private boolean isWakeUpRequested;
+
+    /**
+     * Method calculates the expiry of a configuration from its monitoring start time and duration. Start times
+     * without a time zone are taken as UTC.
+     * 
+     * @param configuration
+     * @return the expiry in milliseconds since the epoch or {@link #NEVER}
+     */
+    public static long getExpiry(Properties configuration) {
+        String monitoringStartTime = configuration.getProperty(Constants.PROPERTY_MONITORING_START_TIME);
+        if (monitoringStartTime == null) {
+            return NEVER;
+        }
+        String monitoringDuration = configuration.getProperty(Constants.PROPERTY_TIME_MONITORING_DURATION);
+        if (monitoringDuration == null) {
+            return NEVER;
+        }
+        DateTime startTime = new DateTime(monitoringStartTime, DateTimeZone.UTC);
+        return startTime.plusMinutes(Integer.parseInt(monitoringDuration)).getMillis();
+    }
+
+    /**
+     * Method sets the expiry of a configuration, a former expiry is replaced.
+     * 
+     * @param configId
+     * @param expiry
+     *            milliseconds since the epoch or {@link #NEVER}
+     */
+    public synchronized void schedule(String configId, long expiry) {
+        if (expiry == NEVER) {
+            deadlines.remove(configId);
+            return;
+        }
+        deadlines.put(configId, expiry);
+        Deadline deadline = new Deadline(configId, expiry);
+        queue.add(deadline);
+        if (queue.peek() == deadline) {
+            // the waiting reaper has to wake up earlier
+            notifyAll();
+        }
+    }
+
+    public synchronized void cancel(String configId) {
+        deadlines.remove(configId);
+    }
+
+    /**
+     * @param configId
+     * @param now
+     * @return true if a configuration is scheduled and its expiry is reached
+     */
+    public synchronized boolean isExpired(String configId, long now) {
+        Long expiry = deadlines.get(configId);
+        return expiry != null && expiry <= now;
+    }
+
+    /**
+     * Method removes all configurations, which expired until a provided instant, from the schedule.
+     * 
+     * @param now
+     * @return ids of the expired configurations
+     */
+    public synchronized List<String> pollExpired(long now) {
+        List<String> expired = new ArrayList<String>();
+        while (!queue.isEmpty() && queue.peek().expiry <= now) {
+            Deadline deadline = queue.poll();
+            Long expiry = deadlines.get(deadline.configId);
+            // skip entries of cancelled and rescheduled configurations
+            if (expiry != null && expiry == deadline.expiry) {
+                deadlines.remove(deadline.configId);
+                expired.add(deadline.configId);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Method waits until the next expiry or a provided instant, whatever is earlier. It returns earlier if a sooner
+     * expiry is scheduled or {@link #wakeUp()} is called.
+     * 
+     * @param until
+     *            milliseconds since the epoch
+     * @throws InterruptedException
+     */
+    public synchronized void awaitExpiry(long until) throws InterruptedException {
+        long next = queue.isEmpty() ? until : Math.min(until, queue.peek().expiry);
+        long remaining = next - System.currentTimeMillis();
+        if (remaining > 0 && !isWakeUpRequested) {
+            wait(remaining);
+        }
+        isWakeUpRequested = false;
+    }
+
+    public synchronized void wakeUp() {
+        isWakeUpRequested = true;
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    private static final class Deadline implements Comparable<Deadline> {
+
+        private final String configId;
+
+        private final long expiry;
+
+        private Deadline(String configId, long expiry) {
+            this.configId = configId;
+            this.expiry = expiry;
+        }
+
+        public int compareTo(Deadline other) {
+            return expiry < other.expiry ? -1 : (expiry == other.expiry ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs ingest tasks on a fixed number of workers and keeps a queue per configuration. The queues are served
+ * round-robin: a configuration gets as many consecutive tasks as its weight, then the next configuration with queued
+ * tasks is served. A configuration with a large backlog therefore does not delay the tasks of other configurations.
+ * 
+ */
+public class FairIngestScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FairIngestScheduler.class);
+
+    private final int capacity;
+
+    private final Thread[] workers;
+
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+    // lanes with queued tasks in the order they are served
+    private final Deque<Lane> activeLanes = new ArrayDeque<Lane>();
+
+    private int queued;
+
+    private int running;
+
+    private boolean isShutdown;
+
+    /**
+     * @param poolSize
+     *            number of workers
+     * @param capacity
+     *            how many tasks of all configurations may be queued
+     * @param namePrefix
+     *            prefix of the worker thread names
+     */
+    public FairIngestScheduler(int poolSize, int capacity, String namePrefix) {
+        Preconditions.checkArgument(poolSize > 0, "poolSize must be positive: %s", poolSize);
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.capacity = capacity;
+        this.workers = new Thread[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            workers[i] = new Thread(new Worker(), namePrefix + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Method queues a task of a configuration.
+     * 
+     * @param configId
+     * @param weight
+     *            how many consecutive tasks of the configuration are run in its turn
+     * @param task
+     * @throws RejectedExecutionException
+     *             if the queue capacity is exhausted or the scheduler is shut down
+     */
+    public synchronized void execute(String configId, int weight, Runnable task) {
+        Preconditions.checkNotNull(configId, "configId is null: %s", configId);
+        Preconditions.checkNotNull(task, "task is null: %s", task);
+        if (isShutdown) {
+            throw new RejectedExecutionException("The ingest scheduler is shut down.");
+        }
+        if (queued >= capacity) {
+            throw new RejectedExecutionException("The ingest queue is full: " + queued + " tasks.");
+        }
+        Lane lane = lanes.get(configId);
+        if (lane == null) {
+            lane = new Lane(configId);
+            lanes.put(configId, lane);
+        }
+        lane.weight = Math.max(1, weight);
+        if (lane.tasks.isEmpty()) {
+            lane.credit = lane.weight;
+            activeLanes.addLast(lane);
+        }
+        lane.tasks.addLast(task);
+        queued++;
+        notifyAll();
+    }
+
+    private synchronized Runnable take() throws InterruptedException {
+        while (activeLanes.isEmpty()) {
+            if (isShutdown) {
+                return null;
+            }
+            wait();
+        }
+        Lane lane = activeLanes.peekFirst();
+        Runnable task = lane.tasks.pollFirst();
+        queued--;
+        running++;
+        lane.credit--;
+        if (lane.tasks.isEmpty()) {
+            activeLanes.pollFirst();
+            lanes.remove(lane.configId);
+        }
+        else if (lane.credit <= 0) {
+            lane.credit = lane.weight;
+            activeLanes.addLast(activeLanes.pollFirst());
+        }
+        return task;
+    }
+
+    private synchronized void finished() {
+        running--;
+        if (isShutdown && queued == 0 && running == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param configId
+     * @return number of queued tasks of a configuration
+     */
+    public synchronized int getQueuedCount(String configId) {
+        Lane lane = lanes.get(configId);
+        return lane == null ? 0 : lane.tasks.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    /**
+     * Method stops accepting tasks. Queued tasks are still run.
+     */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Method waits until all queued and running tasks are finished after a shutdown.
+     * 
+     * @param timeout
+     * @param unit
+     * @return true if all tasks are finished, false if the timeout elapsed before
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isShutdown || queued > 0 || running > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private static class Lane {
+
+        private final String configId;
+
+        private final Deque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        private int weight = 1;
+
+        private int credit;
+
+        Lane(String configId) {
+            this.configId = configId;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = take();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    LOG.error("Ingest task failed: " + e.getMessage(), e);
+                }
+                finally {
+                    finished();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the content file names of all configurations. A name stays taken as long as the configuration exists,
+ * regardless of the processing state of its content file, so a content file can be sent only once. The index of a
+ * configuration is loaded from the {@link SessionJournal} when the configuration is registered or restored,
+ * afterwards every state transition of a content file updates the index.
+ * 
+ */
+public class FileNameIndex {
+
+    public enum State {
+        RESERVED, STORED, SUCCESSFUL, FAILED
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<String, State>> indexes =
+        new ConcurrentHashMap<String, ConcurrentMap<String, State>>();
+
+    /**
+     * Method loads the index of a configuration, replacing an index loaded before.
+     * 
+     * @param configId
+     * @param states
+     *            states of the content files of the configuration by the names they were sent with
+     */
+    public void load(String configId, Map<String, State> states) {
+        ConcurrentMap<String, State> index = new ConcurrentHashMap<String, State>(states);
+        // configuration.xml is taken as well
+        index.put(Constants.CONFIGURATION_FILE_NAME, State.STORED);
+        indexes.put(configId, index);
+    }
+
+    /**
+     * Method reserves a content file name for a configuration before the content file is stored.
+     * 
+     * @param configId
+     * @param fileName
+     * @return true if the name was free, false if it is already taken
+     */
+    public boolean reserve(String configId, String fileName) {
+        return getIndex(configId).putIfAbsent(fileName, State.RESERVED) == null;
+    }
+
+    /**
+     * Method frees a content file name, because its content file was deleted.
+     * 
+     * @param configId
+     * @param fileName
+     */
+    public void release(String configId, String fileName) {
+        ConcurrentMap<String, State> index = indexes.get(configId);
+        if (index != null) {
+            index.remove(fileName);
+        }
+    }
+
+    /**
+     * Method records a new state of a content file, e.g. after it was ingested.
+     * 
+     * @param configId
+     * @param fileName
+     *            name of the content file as it was sent
+     * @param state
+     */
+    public void update(String configId, String fileName, State state) {
+        ConcurrentMap<String, State> index = indexes.get(configId);
+        if (index != null) {
+            index.put(fileName, state);
+        }
+    }
+
+    /**
+     * @param configId
+     * @param fileName
+     * @return state of the content file or <code>null</code> if the name is free or the index is not loaded
+     */
+    public State getState(String configId, String fileName) {
+        ConcurrentMap<String, State> index = indexes.get(configId);
+        return index == null ? null : index.get(fileName);
+    }
+
+    /**
+     * Method drops the index of a configuration, which is removed from the Depositor.
+     * 
+     * @param configId
+     */
+    public void remove(String configId) {
+        indexes.remove(configId);
+    }
+
+    private ConcurrentMap<String, State> getIndex(String configId) {
+        ConcurrentMap<String, State> index = indexes.get(configId);
+        if (index != null) {
+            return index;
+        }
+        index = new ConcurrentHashMap<String, State>();
+        index.put(Constants.CONFIGURATION_FILE_NAME, State.STORED);
+        ConcurrentMap<String, State> existing = indexes.putIfAbsent(configId, index);
+        return existing == null ? index : existing;
+    }
+}
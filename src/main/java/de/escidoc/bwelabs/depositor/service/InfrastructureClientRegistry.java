@@ -0,0 +1,213 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.core.client.ItemHandlerClient;
+import de.escidoc.core.client.exceptions.InternalClientException;
+import de.escidoc.core.client.interfaces.ItemHandlerClientInterface;
+
+/**
+ * Registry of infrastructure clients, pooled per infrastructure endpoint and user handle. A client is used by one
+ * thread at a time: it is borrowed for a call and given back afterwards, so the next call with the same endpoint and
+ * handle saves the creation and the handle setup of an {@link ItemHandlerClient}. Only the client objects are pooled;
+ * the HTTP connections are opened by the client library, the registry neither keeps them alive nor pools them. Clients
+ * which were idle for too long are evicted; the clients of a handle, which was rejected by the infrastructure, are
+ * invalidated.
+ * 
+ */
+public class InfrastructureClientRegistry {
+
+    private final int maxIdlePerKey;
+
+    private final long idleTimeoutNanos;
+
+    private final ConcurrentMap<String, ConcurrentLinkedQueue<IdleClient>> idleClients =
+        new ConcurrentHashMap<String, ConcurrentLinkedQueue<IdleClient>>();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong reusedCount = new AtomicLong();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param maxIdlePerKey
+     *            maximal number of idle clients kept per endpoint and handle
+     * @param idleTimeoutMillis
+     *            time after which an idle client is evicted
+     */
+    public InfrastructureClientRegistry(int maxIdlePerKey, long idleTimeoutMillis) {
+        Preconditions.checkArgument(maxIdlePerKey >= 0, "maxIdlePerKey must not be negative: %s", maxIdlePerKey);
+        Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeoutMillis must be positive: %s",
+            idleTimeoutMillis);
+        this.maxIdlePerKey = maxIdlePerKey;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * Method returns an idle client for a provided endpoint and handle or creates a new one.
+     * 
+     * @param endpoint
+     * @param handle
+     * @return the client, it has to be given back by {@link #release(String, String, ItemHandlerClientInterface,
+     *         boolean)}
+     * @throws MalformedURLException
+     * @throws InternalClientException
+     */
+    public ItemHandlerClientInterface borrowItemClient(String endpoint, String handle)
+        throws MalformedURLException, InternalClientException {
+        ConcurrentLinkedQueue<IdleClient> idle = idleClients.get(getKey(endpoint, handle));
+        if (idle != null) {
+            IdleClient client;
+            while ((client = idle.poll()) != null) {
+                idleCount.decrementAndGet();
+                if (!client.isExpired(System.nanoTime())) {
+                    reusedCount.incrementAndGet();
+                    return client.client;
+                }
+            }
+        }
+        ItemHandlerClient client = new ItemHandlerClient(new URL(endpoint));
+        client.setHandle(handle);
+        createdCount.incrementAndGet();
+        return client;
+    }
+
+    /**
+     * Method gives a borrowed client back.
+     * 
+     * @param endpoint
+     * @param handle
+     * @param client
+     * @param isReusable
+     *            false if the call failed in a way, that leaves the client in an unknown state
+     */
+    public void release(String endpoint, String handle, ItemHandlerClientInterface client, boolean isReusable) {
+        if (!isReusable) {
+            return;
+        }
+        String key = getKey(endpoint, handle);
+        ConcurrentLinkedQueue<IdleClient> idle = idleClients.get(key);
+        if (idle == null) {
+            idle = new ConcurrentLinkedQueue<IdleClient>();
+            ConcurrentLinkedQueue<IdleClient> existing = idleClients.putIfAbsent(key, idle);
+            if (existing != null) {
+                idle = existing;
+            }
+        }
+        // the size of the queue is not constant time, the bound is approximate
+        if (idle.size() < maxIdlePerKey) {
+            idle.offer(new IdleClient(client, System.nanoTime() + idleTimeoutNanos));
+            idleCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Method drops all idle clients of a provided endpoint and handle, e.g. because the handle was rejected.
+     * 
+     * @param endpoint
+     * @param handle
+     */
+    public void invalidate(String endpoint, String handle) {
+        ConcurrentLinkedQueue<IdleClient> idle = idleClients.remove(getKey(endpoint, handle));
+        if (idle != null) {
+            idleCount.addAndGet(-idle.size());
+        }
+    }
+
+    /**
+     * Method drops all clients, which were idle longer than the idle timeout.
+     * 
+     * @return number of evicted clients
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Iterator<Map.Entry<String, ConcurrentLinkedQueue<IdleClient>>> entries =
+            idleClients.entrySet().iterator(); entries.hasNext();) {
+            ConcurrentLinkedQueue<IdleClient> idle = entries.next().getValue();
+            for (Iterator<IdleClient> clients = idle.iterator(); clients.hasNext();) {
+                IdleClient client = clients.next();
+                if (client.isExpired(now) && idle.remove(client)) {
+                    idleCount.decrementAndGet();
+                    evicted++;
+                }
+            }
+            if (idle.isEmpty()) {
+                entries.remove();
+            }
+        }
+        return evicted;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private static String getKey(String endpoint, String handle) {
+        return endpoint + '\n' + handle;
+    }
+
+    private static final class IdleClient {
+
+        private final ItemHandlerClientInterface client;
+
+        private final long expiresAt;
+
+        private IdleClient(ItemHandlerClientInterface client, long expiresAt) {
+            this.client = client;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
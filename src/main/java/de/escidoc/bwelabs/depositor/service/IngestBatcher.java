@@ -0,0 +1,302 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.escidoc.core.client.ingest.exceptions.ConfigurationException;
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+import org.escidoc.core.client.ingest.filesystem.FileIngester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Collects content files of the same configuration, which are ingested at the same time, and ingests them with one
+ * {@link FileIngester} call. The first file of a configuration opens a batch, which is ingested when the batch window
+ * is over or the batch holds the maximal number of files or bytes. Every caller waits for the ingest of its batch and
+ * gets the id of the item created for its own file.
+ * 
+ * If the ingest of a batch fails, the files without an item are ingested one by one again, so a failure of one file
+ * does not fail the other files of its batch. If an item was created, but it can not be assigned to a file, no file is
+ * ingested again, because the item might belong to any of the files without an item.
+ * 
+ */
+public class IngestBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestBatcher.class);
+
+    /**
+     * Ingest of content files into the infrastructure.
+     */
+    public interface Ingester {
+
+        /**
+         * @param configuration
+         * @param files
+         *            content files with distinct names
+         * @param itemIds
+         *            receives the id of the created item by the name of its file, even if the ingest fails
+         * @return number of created items, including items, which could not be assigned to a file
+         * @throws ConfigurationException
+         * @throws IngestException
+         */
+        int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+            throws ConfigurationException, IngestException;
+    }
+
+    private final Ingester ingester;
+
+    private final int maxFiles;
+
+    private final long maxBytes;
+
+    private final long windowMillis;
+
+    // the batch of every configuration, which still accepts files
+    private final Map<String, Batch> openBatches = new HashMap<String, Batch>();
+
+    /**
+     * @param ingester
+     * @param maxFiles
+     *            maximal number of files of a batch, 1 disables batching
+     * @param maxBytes
+     *            maximal number of bytes of a batch
+     * @param windowMillis
+     *            time a batch waits for more files
+     */
+    public IngestBatcher(Ingester ingester, int maxFiles, long maxBytes, long windowMillis) {
+        Preconditions.checkNotNull(ingester, "ingester is null: %s", ingester);
+        Preconditions.checkArgument(maxFiles > 0, "maxFiles must be positive: %s", maxFiles);
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+        Preconditions.checkArgument(windowMillis >= 0, "windowMillis must not be negative: %s", windowMillis);
+        this.ingester = ingester;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Method ingests a content file within a batch of the content files of its configuration and waits for the ingest.
+     * 
+     * @param configuration
+     * @param content
+     * @return the id of the item created for the content file
+     * @throws ConfigurationException
+     * @throws IngestException
+     *             if the content file could not be ingested
+     */
+    public String ingest(Properties configuration, File content) throws ConfigurationException, IngestException {
+        if (maxFiles == 1) {
+            return ingestOne(configuration, content);
+        }
+        String configId = configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
+        Batch batch;
+        int index;
+        boolean isLeader = false;
+        synchronized (openBatches) {
+            batch = openBatches.get(configId);
+            if (batch == null) {
+                batch = new Batch(configuration);
+                openBatches.put(configId, batch);
+                isLeader = true;
+            }
+            index = batch.add(content);
+            if (batch.files.size() >= maxFiles || batch.bytes >= maxBytes) {
+                openBatches.remove(configId);
+                openBatches.notifyAll();
+            }
+        }
+        if (isLeader) {
+            awaitWindow(configId, batch);
+            batch.execute();
+        }
+        return batch.getItemId(index);
+    }
+
+    // the first file of a batch waits until the batch is closed by a full batch or the window is over
+    private void awaitWindow(String configId, Batch batch) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        synchronized (openBatches) {
+            try {
+                long remaining;
+                while (openBatches.get(configId) == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(openBatches, remaining);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (openBatches.get(configId) == batch) {
+                openBatches.remove(configId);
+            }
+        }
+    }
+
+    private String ingestOne(Properties configuration, File content) throws ConfigurationException,
+        IngestException {
+        Map<String, String> itemIds = new HashMap<String, String>();
+        ingester.ingest(configuration, Collections.singletonList(content), itemIds);
+        String itemId = itemIds.get(content.getName());
+        if (itemId == null) {
+            throw new IngestException("Can not get ingested item id.");
+        }
+        return itemId;
+    }
+
+    private final class Batch {
+
+        private final Properties configuration;
+
+        private final List<File> files = new ArrayList<File>();
+
+        private long bytes;
+
+        private String[] itemIds;
+
+        private Exception[] failures;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Batch(Properties configuration) {
+            this.configuration = configuration;
+        }
+
+        private int add(File content) {
+            files.add(content);
+            bytes += content.length();
+            return files.size() - 1;
+        }
+
+        // no file is added any more, the batch is closed
+        private void execute() {
+            int size = files.size();
+            itemIds = new String[size];
+            failures = new Exception[size];
+            try {
+                Map<String, String> ids = new HashMap<String, String>();
+                int created = 0;
+                Exception failure = null;
+                try {
+                    created = ingester.ingest(configuration, files, ids);
+                }
+                catch (ConfigurationException e) {
+                    failure = e;
+                }
+                catch (IngestException e) {
+                    failure = e;
+                }
+                int mapped = 0;
+                for (int i = 0; i < size; i++) {
+                    itemIds[i] = ids.get(files.get(i).getName());
+                    if (itemIds[i] != null) {
+                        mapped++;
+                    }
+                }
+                if (mapped == size) {
+                    LOG.debug("Ingested a batch of " + size + " content files, " + bytes + " bytes.");
+                    return;
+                }
+                String configId = configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
+                if (created > mapped) {
+                    // an item of an unknown file exists, ingesting the files again might duplicate it
+                    LOG.error("Created " + created + " items for a batch of " + size + " content files of the"
+                        + " configuration with id " + configId + ", but only " + mapped + " could be assigned."
+                        + " The other content files are not ingested again.");
+                    for (int i = 0; i < size; i++) {
+                        if (itemIds[i] == null) {
+                            failures[i] =
+                                new IngestException("Can not assign an item to the content file "
+                                    + files.get(i).getName() + (failure == null ? "." : ": " + failure.getMessage()));
+                        }
+                    }
+                    return;
+                }
+                LOG.warn("Ingested " + mapped + " of " + size + " content files of a batch for the configuration"
+                    + " with id " + configId + (failure == null ? "." : ": " + failure.getMessage())
+                    + " The other content files are ingested one by one.");
+                for (int i = 0; i < size; i++) {
+                    if (itemIds[i] != null) {
+                        continue;
+                    }
+                    try {
+                        itemIds[i] = ingestOne(configuration, files.get(i));
+                    }
+                    catch (ConfigurationException e) {
+                        failures[i] = e;
+                    }
+                    catch (IngestException e) {
+                        failures[i] = e;
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                for (int i = 0; i < size; i++) {
+                    if (itemIds[i] == null && failures[i] == null) {
+                        failures[i] = e;
+                    }
+                }
+                throw e;
+            }
+            finally {
+                done.countDown();
+            }
+        }
+
+        private String getItemId(int index) throws ConfigurationException, IngestException {
+            try {
+                done.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IngestException("Interrupted while waiting for the ingest of a batch.");
+            }
+            Exception failure = failures[index];
+            if (failure instanceof ConfigurationException) {
+                throw (ConfigurationException) failure;
+            }
+            if (failure instanceof IngestException) {
+                throw (IngestException) failure;
+            }
+            if (failure != null) {
+                throw new IngestException(failure);
+            }
+            return itemIds[index];
+        }
+    }
+}
@@ -29,50 +29,43 @@
 package de.escidoc.bwelabs.depositor.service;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import org.escidoc.core.client.ingest.exceptions.ConfigurationException;
 import org.escidoc.core.client.ingest.exceptions.IngestException;
-import org.escidoc.core.client.ingest.filesystem.FileIngester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
-import de.escidoc.bwelabs.deposit.Configuration;
 import de.escidoc.bwelabs.depositor.error.DepositorException;
-import de.escidoc.bwelabs.depositor.utility.Utility;
-import de.escidoc.core.client.ItemHandlerClient;
 import de.escidoc.core.client.exceptions.EscidocException;
 import de.escidoc.core.client.exceptions.InternalClientException;
 import de.escidoc.core.client.exceptions.TransportException;
+import de.escidoc.core.client.exceptions.application.security.AuthenticationException;
 import de.escidoc.core.client.interfaces.ItemHandlerClientInterface;
-import de.escidoc.core.resources.common.properties.PublicStatus;
 import de.escidoc.core.resources.om.item.component.ChecksumAlgorithm;
 import de.escidoc.core.resources.om.item.component.Component;
 
 /**
- * A class handles a storage of content files into an infrastructure.
+ * A class handles a storage of content files into an infrastructure. Sessions are submitted as tasks to the ingest
+ * worker pool of the {@link SessionManager}.
  * 
  * @author ROF
  * 
  */
-public class ItemSession extends Thread {
-
-    private static final String PREFIX_FAILED = "failed_";
+public class ItemSession implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(ItemSession.class.getName());
 
     private SessionManager manager;
 
-    private String providedCheckSum;
+    private ContentDigests contentDigests;
 
     private File content;
 
@@ -82,14 +75,14 @@ public class ItemSession extends Thread {
 
     private Properties configuration;
 
-    private boolean isThreadWorking;
+    private final CountDownLatch completion = new CountDownLatch(1);
 
-    private boolean isSessionFailed = false;
+    private volatile boolean isSessionFailed = false;
 
-    private ItemHandlerClientInterface itemClient;
+    private URL stagedContent;
 
     public ItemSession(SessionManager manager, Properties configuration, File content, File configDir,
-        String providedCheckSum) throws DepositorException {
+        ContentDigests contentDigests) throws DepositorException {
         Preconditions.checkNotNull(manager, "manager is null: %s", manager);
         Preconditions.checkNotNull(configuration, "configuration is null: %s", configuration);
         Preconditions.checkNotNull(content, "contentFile is null: %s", content);
@@ -100,11 +93,8 @@ public class ItemSession extends Thread {
         this.content = content;
         this.configDir = configDir;
 
-        assignCheckSum(configuration, content, providedCheckSum);
+        assignCheckSum(configuration, content, contentDigests);
         createUniqueKey();
-
-        isThreadWorking = true;
-        setName("Session-" + sessionKey + "-Retriever");
     }
 
     private void createUniqueKey() {
@@ -117,74 +107,45 @@ public class ItemSession extends Thread {
         }
     }
 
-    private void assignCheckSum(Properties configuration, File content, String providedCheckSum)
+    private void assignCheckSum(Properties configuration, File content, ContentDigests contentDigests)
         throws DepositorException {
-        if (providedCheckSum == null) {
-            // if configuration is restoring from a file system, check sum for
-            // content files must be calculated again
-            FileInputStream is = null;
-            try {
-                is = new FileInputStream(content);
-            }
-            catch (FileNotFoundException e) {
-                String message =
-                    "Error on Restoring configurations from last run: "
-                        + "unexpected exception while reading a content file " + content.getName()
-                        + " of the configuration with id "
-                        + configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
-                // _LOG.error(message);
-                throw new DepositorException(message);
-            }
+        if (contentDigests == null) {
+            // if configuration is restoring from a file system, check sums for
+            // content files are read from their sidecar files or calculated again
             String checkSumAlg = configuration.getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM);
-            MessageDigest md = null;
             try {
-                md = MessageDigest.getInstance(checkSumAlg);
+                this.contentDigests = ContentDigests.loadOrCalculate(content, checkSumAlg);
             }
             catch (NoSuchAlgorithmException e) {
                 String message =
                     "Error on Restoring configurations from last run: unexpected exception " + e.getMessage();
-                // _LOG.error(message);
                 throw new DepositorException(message);
             }
-            byte buffer[] = new byte[5000];
-            int numread;
-
-            try {
-                while ((numread = is.read(buffer, 0, 5000)) > 0) {
-                    md.update(buffer, 0, numread);
-                }
-                is.close();
-            }
             catch (IOException e) {
                 String message =
                     "Error on restoring configurations from last run: "
                         + "unexpected exception while calculating a check sum for a content file " + content.getName()
                         + " of the configuration with id "
                         + configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID) + e.getMessage();
-                // _LOG.error(message);
                 throw new DepositorException(message);
             }
-
-            byte[] digest = md.digest();
-            this.providedCheckSum = Utility.byteArraytoHexString(digest);
         }
         else {
-            this.providedCheckSum = providedCheckSum;
+            this.contentDigests = contentDigests;
         }
     }
 
     /**
-     * Content file storage thread.
+     * Content file storage task, executed by a worker of the ingest pool.
      */
     public void run() {
-        LOG.info(sessionKey + " retrieval thread started");
-        String configurationId = getConfigurationId();
-        manager.addSession(this, configurationId);
-        manager.increaseThreadsNumber();
-        storeFileInToInfrastructure();
-        manager.decreaseThreadsNumber();
-        isThreadWorking = false;
-
+        LOG.info(sessionKey + " retrieval task started");
+        try {
+            storeFileInToInfrastructure();
+        }
+        finally {
+            completion.countDown();
+        }
     }
 
     /**
@@ -202,7 +163,7 @@ public class ItemSession extends Thread {
         try {
             String itemId = ingest();
             checkChecksum(itemId);
-            doRenameForSuccessful(itemId);
+            handleSuccessfulIngest(itemId);
         }
         catch (ConfigurationException e) {
             LOG.warn("The ingest is not properperly configured. " + e.getMessage(), e);
@@ -212,51 +173,48 @@ public class ItemSession extends Thread {
             LOG.warn("Fail to ingest " + e.getMessage(), e);
             handleFailedIngest();
         }
+        catch (RuntimeException e) {
+            // the content file must be kept, otherwise it is deleted by the clean up as an ingested one
+            LOG.error("Unexpected failure while ingesting " + getFileName() + ": " + e.getMessage(), e);
+            handleFailedIngest();
+        }
     }
 
     private void handleFailedIngest() {
-        renameFileName(PREFIX_FAILED);
-        isSessionFailed = true;
-        manager.addToFailedConfigurations(getConfigurationId());
-    }
-
-    private void renameFileName(String prefix) {
-        boolean isSuccesfull = renameFile(prefix);
-        if (isSuccesfull) {
-            content = new File(configDir, prefix + getFileName());
+        try {
+            manager.recordContentFileState(getConfigurationId(), getFileName(), FileNameIndex.State.FAILED);
         }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a 'failed_" + getFileName() + "'."
-                + " for a configuration with id " + getConfigurationId());
+        catch (DepositorException e) {
+            // the content file stays stored in the journal, so it is ingested again on restart
+            LOG.error("The failed ingest of " + getFileName() + " is not recorded: " + e.getMessage(), e);
         }
+        isSessionFailed = true;
+        manager.addToFailedConfigurations(getConfigurationId());
     }
 
     private String getFileName() {
         return content.getName();
     }
 
-    private boolean renameFile(String toPrepend) {
-        return content.renameTo(new File(configDir, toPrepend + getFileName()));
-    }
-
-    private void doRenameForSuccessful(String itemId) {
+    private void handleSuccessfulIngest(String itemId) {
         LOG.info("Successfully created an item with id " + itemId + " containing a file with a name " + getFileName()
             + " for a configuration with id " + getConfigurationId() + " belonging to the experiment with id "
             + getContainerId() + ".");
 
         // TODO if unsuccessful item and references must be removed
         // _contentFile.delete();
-        File renamedFile = new File(configDir, "successful_" + getFileName());
-        boolean isRenameSuccesful = content.renameTo(renamedFile);
-        if (isRenameSuccesful) {
-            // workaround because of a bug in Java1.5
-            // TODO check if the workaround still nesesassary
-            content = renamedFile;
+        try {
+            manager.recordContentFileState(getConfigurationId(), getFileName(), FileNameIndex.State.SUCCESSFUL);
         }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a 'successful_" + getFileName()
-                + "'." + " for a configuration with id " + getConfigurationId());
+        catch (DepositorException e) {
+            // an unrecorded ingest would be lost on restart, the content file must be kept for the failed session
+            LOG.error("The successful ingest of " + getFileName() + " as item " + itemId + " is not recorded: "
+                + e.getMessage(), e);
+            handleFailedIngest();
+            return;
         }
+        // the content is verified by the infrastructure, its checksums are not needed any more
+        ContentDigests.deleteSidecar(content);
     }
 
     /**
@@ -266,24 +224,35 @@ public class ItemSession extends Thread {
      *             If checksum of ingested Item is not as expected.
      */
     private void checkChecksum(String itemId) throws IngestException {
+        InfrastructureClientRegistry clients = manager.getClientRegistry();
+        ItemHandlerClientInterface itemClient = null;
+        boolean isReusable = false;
         try {
-            itemClient = new ItemHandlerClient(new URL(getBaseUri()));
-            itemClient.setHandle(getUserHandle());
+            itemClient = clients.borrowItemClient(getBaseUri(), getUserHandle());
             Component comp = itemClient.retrieve(itemId).getComponents().get(0);
+            isReusable = true;
             ChecksumAlgorithm algorithm = comp.getProperties().getChecksumAlgorithm();
-            if (algorithm.equals(ChecksumAlgorithm.MD5)) {
-                String checksum = comp.getProperties().getChecksum();
-                if (providedCheckSum.equalsIgnoreCase(checksum)) {
-                    return;
-                }
-                throw new IngestException(
-                    "The provided checksum is not equals with the from eSciDoc Core calculated one");
+            if (contentDigests.getChecksum(algorithm.name()) == null) {
+                LOG.warn("Can not verify the item " + itemId + ": no " + algorithm + " checksum calculated for "
+                    + getFileName() + ".");
+                return;
+            }
+            String checksum = comp.getProperties().getChecksum();
+            if (contentDigests.matches(algorithm.name(), checksum)) {
+                return;
             }
+            throw new IngestException("The provided checksum is not equals with the from eSciDoc Core calculated one");
         }
         catch (MalformedURLException e) {
             LOG.error("URL not well formed. " + e.getMessage(), e);
             throw new IngestException(e);
         }
+        catch (AuthenticationException e) {
+            // the handle is rejected, clients using it are of no use any more
+            clients.invalidate(getBaseUri(), getUserHandle());
+            LOG.error("The user handle is rejected by eSciDoc Core: " + e.getMessage(), e);
+            throw new IngestException(e);
+        }
         catch (EscidocException e) {
             LOG.error("Something wrong in eSciDoc Core: " + e.getMessage(), e);
             throw new IngestException(e);
@@ -296,6 +265,11 @@ public class ItemSession extends Thread {
             LOG.error("HTTP Transport error: " + e.getMessage(), e);
             throw new IngestException(e);
         }
+        finally {
+            if (itemClient != null) {
+                clients.release(getBaseUri(), getUserHandle(), itemClient, isReusable);
+            }
+        }
     }
 
     private String getConfigurationId() {
@@ -303,49 +277,12 @@ public class ItemSession extends Thread {
     }
 
     private String ingest() throws ConfigurationException, IngestException {
-        FileIngester ingester = buildFileIngester();
-        ingester.setForceCreate(true);
-        ingester.ingest();
-        // FIXME FileIngester might be changed.
-        if (ingester.getItemIDs().isEmpty()) {
-            throw new IngestException("Can not get ingested item id.");
-        }
-        return ingester.getItemIDs().get(0);
-    }
-
-    private FileIngester buildFileIngester() {
-        FileIngester ingester = new FileIngester(getBaseUri(), getUserHandle(), getContainerId());
-        if (content.getName().startsWith(PREFIX_FAILED)) {
-            removePrefix();
-        }
-        ingester.addFile(content.getPath());
-        // FIXME: container content model is not needed here.
-        ingester.setContainerContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
-        ingester.setItemContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
-        ingester.setContext(configuration.getProperty(Configuration.PROPERTY_CONTEXT_ID));
-        ingester.setContentCategory("ORIGINAL");
-        ingester.setInitialLifecycleStatus(PublicStatus.PENDING);
-        ingester.setVisibility("public");
-        ingester.setValidStatus("valid");
-        ingester.setMimeType("text/plain");
-        return ingester;
-    }
-
-    private void removePrefix() {
-        String onlyFileName = content.getName().split("_")[1];
-        Preconditions.checkState(!onlyFileName.startsWith(PREFIX_FAILED), "Removing prefix failed: " + onlyFileName);
-
-        File renamedFile = new File(configDir, onlyFileName);
-        boolean isRenameSuccesful = content.renameTo(renamedFile);
-        if (isRenameSuccesful) {
-            // workaround because of a bug in Java1.5
-            // TODO check if the workaround still nesesassary
-            content = renamedFile;
-        }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a " + getFileName() + "'."
-                + " for a configuration with id " + getConfigurationId());
+        if (stagedContent != null) {
+            // the content was already transfered to the infrastructure while it was uploaded
+            return new StagedContentIngester(configuration).ingest(stagedContent, getFileName());
         }
+        // content files of the configuration, which are ingested at the same time, are ingested together
+        return manager.getIngestBatcher().ingest(configuration, content);
     }
 
     private String getUserHandle() {
@@ -360,218 +297,42 @@ public class ItemSession extends Thread {
         return configuration.getProperty(Constants.PROPERTY_INFRASTRUCTURE_ENDPOINT);
     }
 
+    public boolean isFinished() {
+        return completion.getCount() == 0;
+    }
+
     /**
-     * Method makes two attempts to update an item with a provided id, it checks if a check sum of the item binary
-     * content, calculated by the infrastructure matches a check sum, contained by instance variable. If a check sum
-     * does not matches or any exception occurs, it deletes the item from a container with a provided id.
+     * Method blocks until the session is finished, either by its worker or because it was never executed.
      * 
-     * @param escidocBaseUrl
-     * @param itemId
-     * @param containerId
-     * @param handle
-     * @param itemXml
-     * @return true - if a check sum of the updated item matches the instance check sum, false -otherwise.
+     * @throws InterruptedException
      */
-    // private boolean reloadingContentItemInToInfrastructure(
-    // final String escidocBaseUrl, final String itemId,
-    // final String containerId, final String handle, final String itemXml) {
-    // boolean succesfullyReloaded = false;
-    // PutMethod put = null;
-    // try {
-    // put = EscidocConnector.updateItem(escidocBaseUrl, itemId, handle,
-    // itemXml);
-    // } catch (Throwable e) {
-    //
-    // LOG.error("Error while updating the item with id: " + itemId + " "
-    // + e.getMessage());
-    // LOG.error("Doing a next attempt.");
-    // try {
-    // Thread.sleep(250);
-    // } catch (Exception e1) {
-    //
-    // }
-    // try {
-    // put = EscidocConnector.updateItem(escidocBaseUrl, itemId,
-    // handle, itemXml);
-    // } catch (Throwable e2) {
-    // LOG.error("Error while second attempt to update the item referencing a content file to the container with id "
-    // + containerId + " : " + e2.getMessage());
-    // }
-    //
-    // }
-    // if (put != null) {
-    // InputStream is = null;
-    //
-    // try {
-    // is = put.getResponseBodyAsStream();
-    // } catch (IOException e) {
-    // LOG.error("Error while getting the input stream with a created item: "
-    // + e.getMessage());
-    // }
-    // if (is != null) {
-    // ItemHandler ih = null;
-    // try {
-    // ih = parseCreatedItem(is);
-    // } catch (DepositorException e2) {
-    // LOG.error("Error while parsing the input stream with a created item: "
-    // + e2.getMessage());
-    // }
-    // try {
-    // is.close();
-    // put.releaseConnection();
-    // } catch (IOException e) {
-    // LOG.error("Error while closing the input stream with a created item: "
-    // + e.getMessage());
-    // }
-    // if (ih != null) {
-    // String createdCheckSum = ih.getChecksum();
-    //
-    // if (createdCheckSum.equals(_providedCheckSum)) {
-    // succesfullyReloaded = true;
-    // } else {
-    // String message =
-    // "Error: a checksum of the file changed while updating the binary content of the item "
-    // + itemId
-    // + ". This item will be removed from a container with id "
-    // + containerId + ".";
-    // LOG.error(message);
-    // // Delete the created item from a container, but first
-    // // retrieve properties of the container to
-    // // fetch its last modification date
-    // getContainerLmdAndDeleteItem(escidocBaseUrl,
-    // containerId, handle, itemId);
-    // }
-    // } else {
-    // // Delete the created item from a container, but first
-    // // retrieve properties of the container to
-    // // fetch its last modification date
-    // getContainerLmdAndDeleteItem(escidocBaseUrl, containerId,
-    // handle, itemId);
-    // }
-    //
-    // } else {
-    // // Delete the created item from a container, but first
-    // // retrieve properties of the container to
-    // // fetch its last modification date
-    // getContainerLmdAndDeleteItem(escidocBaseUrl, containerId,
-    // handle, itemId);
-    // }
-    // } else {
-    // // Delete the created item from a container, but first
-    // // retrieve properties of the container to
-    // // fetch its last modification date
-    // getContainerLmdAndDeleteItem(escidocBaseUrl, containerId, handle,
-    // itemId);
-    // }
-    // return succesfullyReloaded;
-    //
-    // }
-
-    // private void getContainerLmdAndDeleteItem(final String escidocBaseUrl,
-    // final String containerId, final String handle, final String itemId) {
-    // GetMethod get = retrieveContainerProperties(escidocBaseUrl,
-    // containerId, handle);
-    // String lmd = null;
-    // if (get != null) {
-    // try {
-    // InputStream getIs = get.getResponseBodyAsStream();
-    // try {
-    // lmd = parseContainer(getIs);
-    // } catch (DepositorException e1) {
-    // LOG.error("Error while parsing container last-modification-date from the input stream with properties of container with id "
-    // + containerId
-    // +
-    // " . Can not delete an item from the container without last-modification-date of the container. "
-    // + e1.getMessage());
-    // }
-    // try {
-    // getIs.close();
-    // get.releaseConnection();
-    // } catch (IOException e) {
-    // LOG.error("Error while closing the input stream with properties of container: "
-    // + e.getMessage());
-    // }
-    //
-    // } catch (IOException e) {
-    // LOG.error("Error while getting the input stream with properties of container with id "
-    // + containerId
-    // +
-    // " . Can not delete an item from the container without last-modification-date of the container. "
-    // + e.getMessage());
-    // }
-    //
-    // if (lmd != null) {
-    // deleteItemFromContainer(escidocBaseUrl, itemId, containerId,
-    // handle, lmd);
-    // } else {
-    // LOG.error("Error while parsing container last-modification-date from the input stream "
-    // +
-    // "with container properties. Can not delete an item from the container without "
-    // + "last-modification-date of the container.");
-    // }
-    // } else {
-    // LOG.error(" Can not delete an item from the container without last-modification-date of the container. ");
-    // }
-    // }
-
-    // private void deleteItemFromContainer(final String escidocBaseUrl,
-    // final String itemId, final String containerId, final String handle,
-    // final String lmd) {
-    // try {
-    // EscidocConnector.deleteItemFromContainer(escidocBaseUrl, itemId,
-    // containerId, handle, lmd);
-    // } catch (Throwable e1) {
-    // LOG.error("Error while deleting item with id " + itemId
-    // + " from the container with id " + containerId + " "
-    // + e1.getMessage());
-    // LOG.error("Doing a next attempt.");
-    // try {
-    // Thread.sleep(250);
-    // } catch (Exception e) {
-    // }
-    // try {
-    // EscidocConnector.deleteItemFromContainer(escidocBaseUrl,
-    // itemId, containerId, handle, lmd);
-    // } catch (Throwable e) {
-    // LOG.error("Error while second attempt to delete item with id "
-    // + itemId + " from the container with id " + containerId
-    // + " " + e.getMessage());
-    // }
-    // }
-    // }
-
-    // private GetMethod retrieveContainerProperties(final String
-    // escidocBaseUrl,
-    // final String containerId, final String handle) {
-    // GetMethod get = null;
-    // try {
-    // get = EscidocConnector.pingContainer(escidocBaseUrl, containerId,
-    // handle);
-    // } catch (Throwable e1) {
-    // LOG.error("Error while retrieving properties of a container container with id: "
-    // + containerId + " " + e1.getMessage());
-    // LOG.error("Doing a next attempt.");
-    // try {
-    // Thread.sleep(250);
-    // } catch (Exception e) {
-    // }
-    // try {
-    // get = EscidocConnector.pingContainer(escidocBaseUrl,
-    // containerId, handle);
-    // } catch (Throwable e) {
-    // LOG.error("Error while second attempt to retrieve properties of the container with id: "
-    // + containerId + " " + e.getMessage());
-    // }
-    // }
-    // return get;
-    // }
+    public void awaitCompletion() throws InterruptedException {
+        completion.await();
+    }
 
-    public boolean isFinished() {
-        return !isThreadWorking;
+    /**
+     * Method marks a session as finished, which will never be executed, e.g. because the ingest pool rejected it.
+     */
+    void cancel() {
+        completion.countDown();
+    }
+
+    /**
+     * @param stagedContent
+     *            location of the content in the staging area of the infrastructure, if it was transfered by a
+     *            {@link PipelinedTransfer}
+     */
+    public void setStagedContent(URL stagedContent) {
+        this.stagedContent = stagedContent;
     }
 
     public String getProvidedCheckSum() {
-        return providedCheckSum;
+        return contentDigests == null ? null : contentDigests.getChecksum(configuration
+            .getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM));
+    }
+
+    public ContentDigests getContentDigests() {
+        return contentDigests;
     }
 
     public File getContentFile() {
@@ -587,6 +348,7 @@ public class ItemSession extends Thread {
     }
 
     public boolean deleteContentFile() {
-        return content.delete();
+        ContentDigests.deleteSidecar(content);
+        return manager.releaseContentFile(content);
     }
 }
\ No newline at end of file
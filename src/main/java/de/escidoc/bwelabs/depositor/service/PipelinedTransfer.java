@@ -0,0 +1,193 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Streams a content file to the staging area of an infrastructure while it is still being received. The transfer is
+ * committed only if the checksum of the whole upload is valid, otherwise it is rolled back. A broken connection to the
+ * infrastructure never fails the upload: the transfer stops silently and the content file is ingested from the local
+ * file system as usual.
+ * 
+ */
+public class PipelinedTransfer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedTransfer.class);
+
+    public static final String STAGING_PATH = "/st/staging-file";
+
+    public static final String COOKIE_NAME = "escidocCookie";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final Pattern HREF = Pattern.compile("xlink:href=\"([^\"]+)\"");
+
+    private final URL infrastructure;
+
+    private final HttpURLConnection connection;
+
+    private final OutputStream os;
+
+    private final WritableByteChannel channel;
+
+    private volatile boolean isBroken;
+
+    /**
+     * Opens a streaming request to the staging area of an infrastructure.
+     * 
+     * @param infrastructureEndpoint
+     * @param userHandle
+     * @throws IOException
+     *             if the infrastructure can not be connected
+     */
+    public PipelinedTransfer(String infrastructureEndpoint, String userHandle) throws IOException {
+        Preconditions.checkNotNull(infrastructureEndpoint, "infrastructureEndpoint is null: %s",
+            infrastructureEndpoint);
+        this.infrastructure = new URL(infrastructureEndpoint);
+        this.connection = openConnection(new URL(infrastructure, STAGING_PATH), userHandle);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+        this.os = connection.getOutputStream();
+        this.channel = new WritableByteChannel() {
+
+            public boolean isOpen() {
+                return !isBroken;
+            }
+
+            public void close() {
+            }
+
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                if (!isBroken) {
+                    try {
+                        if (src.hasArray()) {
+                            os.write(src.array(), src.arrayOffset() + src.position(), length);
+                        }
+                        else {
+                            byte[] bytes = new byte[length];
+                            src.duplicate().get(bytes);
+                            os.write(bytes);
+                        }
+                    }
+                    catch (IOException e) {
+                        LOG.warn("Pipelined transfer to " + infrastructure + " broken, continue without it: "
+                            + e.getMessage());
+                        isBroken = true;
+                    }
+                }
+                src.position(src.limit());
+                return length;
+            }
+        };
+    }
+
+    /**
+     * @return channel to tee the upload into; it never fails, even if the infrastructure connection is broken
+     */
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Method finishes the transfer and returns the location of the staged content in the infrastructure.
+     * 
+     * @return location of the staged content or <code>null</code> if the transfer was broken
+     * @throws IOException
+     *             if the infrastructure did not accept the content
+     */
+    public URL commit() throws IOException {
+        if (isBroken) {
+            rollback();
+            return null;
+        }
+        os.close();
+        String response = readResponse(connection);
+        Matcher matcher = HREF.matcher(response);
+        if (!matcher.find()) {
+            throw new IOException("The infrastructure response does not contain a staging file location.");
+        }
+        return new URL(infrastructure, matcher.group(1));
+    }
+
+    /**
+     * Method aborts the transfer without completing the request, so the infrastructure discards the partial content.
+     */
+    public void rollback() {
+        isBroken = true;
+        connection.disconnect();
+    }
+
+    static HttpURLConnection openConnection(URL url, String userHandle) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("PUT");
+        connection.setRequestProperty("Cookie", COOKIE_NAME + "=" + userHandle);
+        return connection;
+    }
+
+    static String readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream is = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection
+            .getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (is != null) {
+            try {
+                byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) > 0) {
+                    body.write(buf, 0, read);
+                }
+            }
+            finally {
+                is.close();
+            }
+        }
+        if (status / 100 != 2) {
+            throw new IOException("The infrastructure " + connection.getURL() + " responded with " + status + ": "
+                + body.toString("UTF-8"));
+        }
+        return body.toString("UTF-8");
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact snapshot of the configurations registered on the Depositor, so the configuration files do not have to be
+ * parsed again on start up. An entry is only valid for a configuration directory with the same path whose
+ * configuration file was not modified after the snapshot was taken, see {@link #get(String, long)}.
+ * 
+ */
+public class RegistrySnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegistrySnapshot.class);
+
+    private static final int VERSION = 1;
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // modification times of some file systems are only precise to seconds
+    private static final long MODIFICATION_TIME_PRECISION_MILLIS = 2000;
+
+    /**
+     * A configuration of the snapshot.
+     */
+    public static class Entry {
+
+        private final String configId;
+
+        private final String directoryPath;
+
+        private final Properties configuration;
+
+        /**
+         * @param configId
+         * @param directoryPath
+         *            configuration directory relative to the base directory
+         * @param configuration
+         *            properties of the configuration, may be empty for a failed expired configuration
+         */
+        public Entry(String configId, String directoryPath, Properties configuration) {
+            this.configId = configId;
+            this.directoryPath = directoryPath;
+            this.configuration = configuration;
+        }
+
+        public String getConfigurationId() {
+            return configId;
+        }
+
+        public String getDirectoryPath() {
+            return directoryPath;
+        }
+
+        public Properties getConfiguration() {
+            return configuration;
+        }
+    }
+
+    private final long takenAt;
+
+    private final Map<String, Entry> entries;
+
+    private RegistrySnapshot(long takenAt, Map<String, Entry> entries) {
+        this.takenAt = takenAt;
+        this.entries = entries;
+    }
+
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param directoryPath
+     *            configuration directory relative to the base directory
+     * @param lastModified
+     *            modification time of the configuration file in the directory
+     * @return the entry of the directory or <code>null</code> if there is none or it may be stale
+     */
+    public Entry get(String directoryPath, long lastModified) {
+        if (lastModified <= 0 || lastModified + MODIFICATION_TIME_PRECISION_MILLIS > takenAt) {
+            return null;
+        }
+        return entries.get(directoryPath);
+    }
+
+    /**
+     * Method writes a snapshot to a temporary file and moves it over a provided file, so a crash never leaves a
+     * partially written snapshot.
+     * 
+     * @param file
+     * @param takenAt
+     *            time before the entries were collected
+     * @param entries
+     * @throws IOException
+     */
+    public static void write(File file, long takenAt, Collection<Entry> entries) throws IOException {
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(takenAt);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.configId);
+                out.writeUTF(entry.directoryPath);
+                out.writeInt(entry.configuration.size());
+                for (String key : entry.configuration.stringPropertyNames()) {
+                    out.writeUTF(key);
+                    out.writeUTF(entry.configuration.getProperty(key));
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file
+     * @return the snapshot or <code>null</code> if it does not exist or can not be read
+     */
+    public static RegistrySnapshot read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != VERSION) {
+                LOG.warn("Ignoring the registry snapshot " + file + " of an unknown version.");
+                return null;
+            }
+            long takenAt = in.readLong();
+            int size = in.readInt();
+            Map<String, Entry> entries = new HashMap<String, Entry>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                String configId = in.readUTF();
+                String directoryPath = in.readUTF();
+                Properties configuration = new Properties();
+                int properties = in.readInt();
+                for (int j = 0; j < properties; j++) {
+                    String key = in.readUTF();
+                    configuration.setProperty(key, in.readUTF());
+                }
+                entries.put(directoryPath, new Entry(configId, directoryPath, configuration));
+            }
+            return new RegistrySnapshot(takenAt, entries);
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+        catch (IOException e) {
+            LOG.warn("Can not read the registry snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    LOG.warn("Error closing the registry snapshot " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.depositor.error.DepositorException;
+
+/**
+ * Reingests content files, which failed or remained from the last run, on a bounded number of workers. Tasks are
+ * submitted by the session reaper without holding any lock on the configurations; if the queue is full, the reaper
+ * runs the task itself and so slows down the submission. A content file is not reingested again, while its reingest
+ * is pending. The progress is reported by {@link #report()}.
+ * 
+ */
+public class ReingestJob {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReingestJob.class);
+
+    /**
+     * Reingest of one content file, see {@link ReingestTask}.
+     */
+    public interface Task {
+
+        File getContentFile();
+
+        void execute() throws DepositorException;
+
+        boolean isSessionFailed();
+    }
+
+    /**
+     * Is notified about a configuration, whose content file could not be reingested.
+     */
+    public interface Listener {
+
+        void reingestFailed(String configId);
+    }
+
+    private final Listener listener;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, AtomicInteger> pendingTasks = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final Set<File> pendingFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong succeeded = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private long reportedCount;
+
+    private long reportedBytes;
+
+    private long reportedAt = System.nanoTime();
+
+    /**
+     * @param listener
+     * @param poolSize
+     *            number of workers
+     * @param capacity
+     *            how many tasks may be queued
+     */
+    public ReingestJob(Listener listener, int poolSize, int capacity) {
+        Preconditions.checkNotNull(listener, "listener is null: %s", listener);
+        Preconditions.checkArgument(poolSize > 0, "poolSize must be positive: %s", poolSize);
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.listener = listener;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor =
+            new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread worker = new Thread(r, "Reingest-Worker-" + threadNumber.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Method submits a reingest of a content file of a provided configuration.
+     * 
+     * @param configId
+     * @param task
+     * @return false if a reingest of the content file is pending already
+     */
+    public boolean submit(final String configId, final Task task) {
+        if (!pendingFiles.add(task.getContentFile())) {
+            return false;
+        }
+        getPendingTasks(configId).incrementAndGet();
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            public void run() {
+                execute(configId, task);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @param configId
+     * @return number of submitted reingests of a provided configuration, which are not finished yet
+     */
+    public int getPendingCount(String configId) {
+        AtomicInteger count = pendingTasks.get(configId);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Method logs the progress and the throughput since the last report, if there was any reingest.
+     */
+    public synchronized void report() {
+        long count = succeeded.get() + failed.get();
+        long now = System.nanoTime();
+        if (count > reportedCount || pending.get() > 0) {
+            double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - reportedAt)) / 1000.0;
+            LOG.info("Reingest: " + pending.get() + " content files pending, " + (count - reportedCount)
+                + " reingested since the last report (" + String.format("%.1f", (count - reportedCount) / seconds)
+                + " files/s, " + String.format("%.1f", (bytes.get() - reportedBytes) / seconds / 1024 / 1024)
+                + " MB/s), " + succeeded.get() + " succeeded and " + failed.get() + " failed since start up.");
+        }
+        reportedCount = count;
+        reportedBytes = bytes.get();
+        reportedAt = now;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void execute(String configId, Task task) {
+        long length = task.getContentFile().length();
+        try {
+            task.execute();
+            if (task.isSessionFailed()) {
+                failed.incrementAndGet();
+            }
+            else {
+                succeeded.incrementAndGet();
+                bytes.addAndGet(length);
+            }
+        }
+        catch (DepositorException e) {
+            LOG.error("Can not reingest the content file " + task.getContentFile().getName()
+                + " of the configuration with id " + configId + ": " + e.getMessage(), e);
+            failed.incrementAndGet();
+            listener.reingestFailed(configId);
+        }
+        catch (RuntimeException e) {
+            LOG.error("Can not reingest the content file " + task.getContentFile().getName()
+                + " of the configuration with id " + configId + ": " + e.getMessage(), e);
+            failed.incrementAndGet();
+            listener.reingestFailed(configId);
+        }
+        finally {
+            pendingFiles.remove(task.getContentFile());
+            getPendingTasks(configId).decrementAndGet();
+            pending.decrementAndGet();
+        }
+    }
+
+    private AtomicInteger getPendingTasks(String configId) {
+        AtomicInteger count = pendingTasks.get(configId);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger existing = pendingTasks.putIfAbsent(configId, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        return count;
+    }
+}
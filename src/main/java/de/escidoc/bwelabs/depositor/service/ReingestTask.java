@@ -29,41 +29,32 @@
 package de.escidoc.bwelabs.depositor.service;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
 
 import org.escidoc.core.client.ingest.exceptions.ConfigurationException;
 import org.escidoc.core.client.ingest.exceptions.IngestException;
-import org.escidoc.core.client.ingest.filesystem.FileIngester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 
-import de.escidoc.bwelabs.deposit.Configuration;
 import de.escidoc.bwelabs.depositor.error.DepositorException;
-import de.escidoc.bwelabs.depositor.utility.Utility;
-import de.escidoc.core.client.ItemHandlerClient;
 import de.escidoc.core.client.exceptions.EscidocException;
 import de.escidoc.core.client.exceptions.InternalClientException;
 import de.escidoc.core.client.exceptions.TransportException;
-import de.escidoc.core.resources.common.properties.PublicStatus;
+import de.escidoc.core.client.exceptions.application.security.AuthenticationException;
+import de.escidoc.core.client.interfaces.ItemHandlerClientInterface;
 import de.escidoc.core.resources.om.item.component.ChecksumAlgorithm;
 import de.escidoc.core.resources.om.item.component.Component;
 
-public class ReingestTask {
+public class ReingestTask implements ReingestJob.Task {
 
     private static final Logger LOG = LoggerFactory.getLogger(ReingestTask.class);
 
-    private static final String PREFIX_FAILED = "failed_";
-
-    private String providedCheckSum;
+    private ContentDigests contentDigests;
 
     private File configDir;
 
@@ -73,12 +64,10 @@ public class ReingestTask {
 
     private SessionManager sessionManager;
 
-    private ItemHandlerClient itemClient;
-
     private boolean isSessionFailed;
 
     public ReingestTask(SessionManager sessionManager, Properties configuration, File content, File configDir,
-        String providedCheckSum) {
+        ContentDigests contentDigests) {
         Preconditions.checkNotNull(sessionManager, "sessionManager is null: %s", sessionManager);
         Preconditions.checkNotNull(configuration, "configuration is null: %s", configuration);
         Preconditions.checkNotNull(content, "contentFile is null: %s", content);
@@ -88,74 +77,43 @@ public class ReingestTask {
         this.configuration = configuration;
         this.content = content;
         this.configDir = configDir;
-        this.providedCheckSum = providedCheckSum;
+        this.contentDigests = contentDigests;
     }
 
-    private void assignCheckSum(Properties configuration, File content, String providedCheckSum)
-        throws DepositorException {
-        if (providedCheckSum == null) {
-            this.providedCheckSum = calculateCheckSum(configuration, content);
-        }
-        else {
-            this.providedCheckSum = providedCheckSum;
+    private void assignCheckSum(Properties configuration, File content) throws DepositorException {
+        if (contentDigests == null) {
+            this.contentDigests = calculateCheckSum(configuration, content);
         }
     }
 
-    private String calculateCheckSum(Properties configuration, File content) throws DepositorException {
-        // if configuration is restoring from a file system, check sum for
-        // content files must be calculated again
-        FileInputStream is = null;
-        try {
-            is = new FileInputStream(content);
-        }
-        catch (FileNotFoundException e) {
-            String message =
-                "Error on Restoring configurations from last run: "
-                    + "unexpected exception while reading a content file " + content.getName()
-                    + " of the configuration with id " + configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
-            // _LOG.error(message);
-            throw new DepositorException(message);
-        }
+    private ContentDigests calculateCheckSum(Properties configuration, File content) throws DepositorException {
+        // if configuration is restoring from a file system, check sums for
+        // content files are read from their sidecar files or calculated again
         String checkSumAlg = configuration.getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM);
-        MessageDigest md = null;
         try {
-            md = MessageDigest.getInstance(checkSumAlg);
+            return ContentDigests.loadOrCalculate(content, checkSumAlg);
         }
         catch (NoSuchAlgorithmException e) {
             String message = "Error on Restoring configurations from last run: unexpected exception " + e.getMessage();
-            // _LOG.error(message);
             throw new DepositorException(message);
         }
-        byte buffer[] = new byte[5000];
-        int numread;
-
-        try {
-            while ((numread = is.read(buffer, 0, 5000)) > 0) {
-                md.update(buffer, 0, numread);
-            }
-            is.close();
-        }
         catch (IOException e) {
             String message =
                 "Error on restoring configurations from last run: "
                     + "unexpected exception while calculating a check sum for a content file " + content.getName()
                     + " of the configuration with id " + configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID)
                     + e.getMessage();
-            // _LOG.error(message);
             throw new DepositorException(message);
         }
-
-        byte[] digest = md.digest();
-        return Utility.byteArraytoHexString(digest);
     }
 
     public void execute() throws DepositorException {
 
-        assignCheckSum(configuration, content, providedCheckSum);
+        assignCheckSum(configuration, content);
         try {
             String itemId = ingest();
             checkChecksum(itemId);
-            doRenameForSuccessful(itemId);
+            handleSuccessfulIngest(itemId);
         }
         catch (ConfigurationException e) {
             LOG.warn("The ingest is not properperly configured. " + e.getMessage(), e);
@@ -167,55 +125,25 @@ public class ReingestTask {
         }
     }
 
-    private FileIngester buildFileIngester() {
-        FileIngester ingester = new FileIngester(getBaseUri(), getUserHandle(), getContainerId());
-        if (content.getName().startsWith(PREFIX_FAILED)) {
-            removePrefix();
-        }
-        ingester.addFile(content.getPath());
-        // FIXME: container content model is not needed here.
-        ingester.setContainerContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
-        ingester.setItemContentModel(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID));
-        ingester.setContext(configuration.getProperty(Configuration.PROPERTY_CONTEXT_ID));
-        ingester.setContentCategory("ORIGINAL");
-        ingester.setInitialLifecycleStatus(PublicStatus.PENDING);
-        ingester.setVisibility("public");
-        ingester.setValidStatus("valid");
-        ingester.setMimeType("text/plain");
-        return ingester;
-    }
-
-    private void removePrefix() {
-        String onlyFileName = content.getName().split("_")[1];
-        Preconditions.checkState(!onlyFileName.startsWith(PREFIX_FAILED), "Removing prefix failed: " + onlyFileName);
-
-        File renamedFile = new File(configDir, onlyFileName);
-        boolean isRenameSuccesful = content.renameTo(renamedFile);
-        if (isRenameSuccesful) {
-            // workaround because of a bug in Java1.5
-            // TODO check if the workaround still nesesassary
-            content = renamedFile;
-        }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a " + getFileName() + "'."
-                + " for a configuration with id " + getConfigurationId());
-        }
-    }
-
     private String getFileName() {
         return content.getName();
     }
 
-    private boolean renameFile(String toPrepend) {
-        return content.renameTo(new File(configDir, toPrepend + getFileName()));
-    }
-
     private String getConfigurationId() {
         return configuration.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
     }
 
     public String getProvidedCheckSum() {
-        return providedCheckSum;
+        return contentDigests == null ? null : contentDigests.getChecksum(configuration
+            .getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM));
+    }
+
+    public boolean isSessionFailed() {
+        return isSessionFailed;
+    }
+
+    public ContentDigests getContentDigests() {
+        return contentDigests;
     }
 
     public File getContentFile() {
@@ -227,7 +155,8 @@ public class ReingestTask {
     }
 
     public boolean deleteContentFile() {
-        return content.delete();
+        ContentDigests.deleteSidecar(content);
+        return sessionManager.releaseContentFile(content);
     }
 
     private String getUserHandle() {
@@ -243,35 +172,40 @@ public class ReingestTask {
     }
 
     private String ingest() throws ConfigurationException, IngestException {
-        FileIngester ingester = buildFileIngester();
-        ingester.setForceCreate(true);
-        ingester.ingest();
-        // FIXME FileIngester might be changed.
-        if (ingester.getItemIDs().isEmpty()) {
-            throw new IngestException("Can not get ingested item id.");
-        }
-        return ingester.getItemIDs().get(0);
+        // content files of the configuration, which are ingested again at the same time, are ingested together
+        return sessionManager.getIngestBatcher().ingest(configuration, content);
     }
 
     private void checkChecksum(String itemId) throws IngestException {
+        InfrastructureClientRegistry clients = sessionManager.getClientRegistry();
+        ItemHandlerClientInterface itemClient = null;
+        boolean isReusable = false;
         try {
-            itemClient = new ItemHandlerClient(new URL(getBaseUri()));
-            itemClient.setHandle(getUserHandle());
+            itemClient = clients.borrowItemClient(getBaseUri(), getUserHandle());
             Component comp = itemClient.retrieve(itemId).getComponents().get(0);
+            isReusable = true;
             ChecksumAlgorithm algorithm = comp.getProperties().getChecksumAlgorithm();
-            if (algorithm.equals(ChecksumAlgorithm.MD5)) {
-                String checksum = comp.getProperties().getChecksum();
-                if (providedCheckSum.equalsIgnoreCase(checksum)) {
-                    return;
-                }
-                throw new IngestException(
-                    "The provided checksum is not equals with the from eSciDoc Core calculated one");
+            if (contentDigests.getChecksum(algorithm.name()) == null) {
+                LOG.warn("Can not verify the item " + itemId + ": no " + algorithm + " checksum calculated for "
+                    + getFileName() + ".");
+                return;
+            }
+            String checksum = comp.getProperties().getChecksum();
+            if (contentDigests.matches(algorithm.name(), checksum)) {
+                return;
             }
+            throw new IngestException("The provided checksum is not equals with the from eSciDoc Core calculated one");
         }
         catch (MalformedURLException e) {
             LOG.error("URL not well formed. " + e.getMessage(), e);
             throw new IngestException(e);
         }
+        catch (AuthenticationException e) {
+            // the handle is rejected, clients using it are of no use any more
+            clients.invalidate(getBaseUri(), getUserHandle());
+            LOG.error("The user handle is rejected by eSciDoc Core: " + e.getMessage(), e);
+            throw new IngestException(e);
+        }
         catch (EscidocException e) {
             LOG.error("Something wrong in eSciDoc Core: " + e.getMessage(), e);
             throw new IngestException(e);
@@ -284,42 +218,43 @@ public class ReingestTask {
             LOG.error("HTTP Transport error: " + e.getMessage(), e);
             throw new IngestException(e);
         }
+        finally {
+            if (itemClient != null) {
+                clients.release(getBaseUri(), getUserHandle(), itemClient, isReusable);
+            }
+        }
     }
 
-    private void doRenameForSuccessful(String itemId) {
+    private void handleSuccessfulIngest(String itemId) {
         LOG.info("Successfully created an item with id " + itemId + " containing a file with a name " + getFileName()
             + " for a configuration with id " + getConfigurationId() + " belonging to the experiment with id "
             + getContainerId() + ".");
 
         // TODO if unsuccessful item and references must be removed
         // _contentFile.delete();
-        File renamedFile = new File(configDir, "successful_" + getFileName());
-        boolean isRenameSuccesful = content.renameTo(renamedFile);
-        if (isRenameSuccesful) {
-            // workaround because of a bug in Java1.5
-            // TODO check if the workaround still nesesassary
-            content = renamedFile;
+        try {
+            sessionManager.recordContentFileState(getConfigurationId(), getFileName(), FileNameIndex.State.SUCCESSFUL);
         }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a 'successful_" + getFileName()
-                + "'." + " for a configuration with id " + getConfigurationId());
+        catch (DepositorException e) {
+            // an unrecorded ingest would be lost on restart, the content file must be kept for the failed session
+            LOG.error("The successful ingest of " + getFileName() + " as item " + itemId + " is not recorded: "
+                + e.getMessage(), e);
+            handleFailedIngest();
+            return;
         }
+        // the content is verified by the infrastructure, its checksums are not needed any more
+        ContentDigests.deleteSidecar(content);
     }
 
     private void handleFailedIngest() {
-        renameFileName(PREFIX_FAILED);
-        isSessionFailed = true;
-        sessionManager.addToFailedConfigurations(getConfigurationId());
-    }
-
-    private void renameFileName(String prefix) {
-        boolean isSuccesfull = renameFile(prefix);
-        if (isSuccesfull) {
-            content = new File(configDir, prefix + getFileName());
+        try {
+            sessionManager.recordContentFileState(getConfigurationId(), getFileName(), FileNameIndex.State.FAILED);
         }
-        else {
-            LOG.error("A content file " + getFileName() + " could not be renamed to a 'failed_" + getFileName() + "'."
-                + " for a configuration with id " + getConfigurationId());
+        catch (DepositorException e) {
+            // the content file stays stored in the journal, so it is ingested again on restart
+            LOG.error("The failed ingest of " + getFileName() + " is not recorded: " + e.getMessage(), e);
         }
+        isSessionFailed = true;
+        sessionManager.addToFailedConfigurations(getConfigurationId());
     }
 }
@@ -0,0 +1,174 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.depositor.error.WrongFormatException;
+import de.escidoc.bwelabs.depositor.error.WrongOffsetException;
+import de.escidoc.bwelabs.depositor.utility.StagingBufferPool;
+
+/**
+ * State of a content file, which is uploaded in several parts. The parts are appended to a partial file in the
+ * configuration directory and the digests are kept between the parts, so the finished file is never read again. A
+ * part is either appended completely or not at all.
+ * 
+ */
+public class ResumableUpload {
+
+    /**
+     * Prefix of the partial file, which holds the parts of a content file received so far.
+     */
+    public static final String PARTIAL_PREFIX = ".partial_";
+
+    private final File partial;
+
+    private ContentDigests digests;
+
+    private long offset;
+
+    private ResumableUpload(File partial, ContentDigests digests, long offset) {
+        this.partial = partial;
+        this.digests = digests;
+        this.offset = offset;
+    }
+
+    /**
+     * Method starts a resumable upload or continues one, whose state was lost by a restart of the Depositor. In the
+     * latter case the digests are calculated once from the partial file.
+     * 
+     * @param configurationDirectory
+     * @param fileName
+     * @param digests
+     *            new digests for the content file
+     * @return the upload
+     * @throws IOException
+     */
+    public static ResumableUpload open(File configurationDirectory, String fileName, ContentDigests digests)
+        throws IOException {
+        Preconditions.checkNotNull(digests, "digests is null: %s", digests);
+        File partial = getPartialFile(configurationDirectory, fileName);
+        long offset = 0;
+        if (partial.exists()) {
+            digests.update(partial);
+            offset = partial.length();
+        }
+        return new ResumableUpload(partial, digests, offset);
+    }
+
+    public static File getPartialFile(File configurationDirectory, String fileName) {
+        return new File(configurationDirectory, PARTIAL_PREFIX + fileName);
+    }
+
+    /**
+     * @param file
+     * @return true if a provided file is a partial file of a resumable upload and no content file
+     */
+    public static boolean isPartial(File file) {
+        return file.getName().startsWith(PARTIAL_PREFIX);
+    }
+
+    /**
+     * Method appends a part of the content file.
+     * 
+     * @param is
+     * @param range
+     *            range of the part within the content file
+     * @param buffers
+     * @return offset committed after the part
+     * @throws WrongOffsetException
+     *             if the part does not start at the committed offset
+     * @throws WrongFormatException
+     *             if the stream does not contain as many bytes as the range
+     * @throws IOException
+     */
+    public synchronized long append(InputStream is, ContentRange range, StagingBufferPool buffers)
+        throws WrongOffsetException, WrongFormatException, IOException {
+        if (range.getFirst() != offset) {
+            throw new WrongOffsetException("The part " + range + " of " + partial.getName()
+                + " does not start at the committed offset " + offset + ".", offset);
+        }
+        ContentDigests committed;
+        try {
+            committed = digests.copy();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IOException("Can not keep the digest state of a resumable upload: " + e.getMessage());
+        }
+        long appended;
+        try {
+            appended = buffers.append(is, partial, digests.getMessageDigests());
+        }
+        catch (IOException e) {
+            rollback(committed);
+            throw e;
+        }
+        if (appended != range.getLength()) {
+            rollback(committed);
+            throw new WrongFormatException("The part " + range + " of " + partial.getName() + " contains " + appended
+                + " bytes.");
+        }
+        offset += appended;
+        return offset;
+    }
+
+    private void rollback(ContentDigests committed) throws IOException {
+        digests = committed;
+        RandomAccessFile file = new RandomAccessFile(partial, "rw");
+        try {
+            file.setLength(offset);
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Method completes the digests after the last part was appended.
+     * 
+     * @return the completed digests
+     */
+    public synchronized ContentDigests complete() {
+        digests.complete();
+        return digests;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public File getPartialFile() {
+        return partial;
+    }
+}
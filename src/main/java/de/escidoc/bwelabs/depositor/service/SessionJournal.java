@@ -0,0 +1,641 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the processing states of the content files of all configurations, kept in the base
+ * directory. A state transition of a content file is an append to the journal instead of a rename of the content
+ * file. Records appended by concurrent threads are written and forced to the disk together (group commit), so the
+ * threads waiting at the same time share one write and one sync. A record is applied to the states held in memory
+ * only after it was forced to the disk, so the states never show a transition, which would be lost by a crash. A
+ * failed write is retried after the journal is cut back to its last committed length; if it fails again, the journal
+ * refuses further records.
+ * 
+ * On start up the journal is read sequentially and its records are replayed, so the states of the content files are
+ * known without scanning the configuration directories. A record torn by a crash at the end of the journal is
+ * dropped. The journal is compacted to the current states on start up and once it holds many outdated records.
+ * 
+ */
+public class SessionJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionJournal.class);
+
+    private static final int MAGIC = 0x534a524e;
+
+    private static final int VERSION = 1;
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int MAX_RECORD_LENGTH = 256 * 1024;
+
+    private static final int WRITE_ATTEMPTS = 3;
+
+    // the journal is compacted, once it holds this number of outdated records
+    private static final long COMPACTION_THRESHOLD = 10000;
+
+    private static final byte CREATE = 1;
+
+    private static final byte UPDATE = 2;
+
+    private static final byte RELEASE = 3;
+
+    private static final byte REMOVE = 4;
+
+    private static final FileNameIndex.State[] STATES = FileNameIndex.State.values();
+
+    private final File file;
+
+    private final Map<String, Map<String, FileNameIndex.State>> states =
+        new HashMap<String, Map<String, FileNameIndex.State>>();
+
+    private FileOutputStream out;
+
+    private List<byte[]> pending = new ArrayList<byte[]>();
+
+    // sequence numbers of the last appended record and of the last record forced to the disk
+    private long appended;
+
+    private long committed;
+
+    // number of records in the journal file and its length up to the last committed record
+    private long recordCount;
+
+    private long length;
+
+    private boolean isWriting;
+
+    private IOException failure;
+
+    private SessionJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Method replays a journal and compacts it. A missing journal is created.
+     * 
+     * @param file
+     * @return the journal
+     * @throws IOException
+     *             if the compacted journal can not be written
+     */
+    public static SessionJournal open(File file) throws IOException {
+        SessionJournal journal = new SessionJournal(file);
+        long start = System.currentTimeMillis();
+        journal.replay();
+        long replayed = journal.recordCount;
+        journal.compact();
+        LOG.info("Replayed " + replayed + " records of the session journal in " + (System.currentTimeMillis() - start)
+            + " ms, " + journal.recordCount + " records remained after compaction.");
+        return journal;
+    }
+
+    /**
+     * Method records a new configuration, which has no content files yet.
+     * 
+     * @param configId
+     * @throws IOException
+     */
+    public void create(String configId) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = add(CREATE, null, configId, "");
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Method records a new state of a content file.
+     * 
+     * @param configId
+     * @param fileName
+     *            name of the content file as it was sent
+     * @param state
+     * @throws IOException
+     */
+    public void update(String configId, String fileName, FileNameIndex.State state) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = add(UPDATE, state, configId, fileName);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Method records new states of several content files of a configuration at once.
+     * 
+     * @param configId
+     * @param fileStates
+     *            new states by content file names, a name mapped to <code>null</code> is released
+     * @throws IOException
+     */
+    public void update(String configId, Map<String, FileNameIndex.State> fileStates) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = committed;
+            for (Map.Entry<String, FileNameIndex.State> entry : fileStates.entrySet()) {
+                sequence =
+                    entry.getValue() == null ? add(RELEASE, null, configId, entry.getKey()) : add(UPDATE,
+                        entry.getValue(), configId, entry.getKey());
+            }
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Method records that a content file was deleted and its name is free again.
+     * 
+     * @param configId
+     * @param fileName
+     * @throws IOException
+     */
+    public void release(String configId, String fileName) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = add(RELEASE, null, configId, fileName);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Method records that a configuration directory was removed with all its content files.
+     * 
+     * @param configId
+     * @throws IOException
+     */
+    public void remove(String configId) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = add(REMOVE, null, configId, "");
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Method removes all configurations from the journal except provided ones, e.g. because their directories were
+     * removed while the Depositor was stopped.
+     * 
+     * @param configIds
+     * @throws IOException
+     */
+    public void retain(Collection<String> configIds) throws IOException {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = committed;
+            for (String configId : new ArrayList<String>(states.keySet())) {
+                if (!configIds.contains(configId)) {
+                    sequence = add(REMOVE, null, configId, "");
+                }
+            }
+        }
+        commit(sequence);
+    }
+
+    /**
+     * @param configId
+     * @return true if the journal holds the states of the content files of a configuration
+     */
+    public synchronized boolean contains(String configId) {
+        return states.containsKey(configId);
+    }
+
+    /**
+     * @param configId
+     * @return a copy of the states of the content files of a configuration by their names, empty if the configuration
+     *         is unknown
+     */
+    public synchronized Map<String, FileNameIndex.State> getStates(String configId) {
+        Map<String, FileNameIndex.State> fileStates = states.get(configId);
+        return fileStates == null ? new HashMap<String, FileNameIndex.State>()
+            : new HashMap<String, FileNameIndex.State>(fileStates);
+    }
+
+    /**
+     * Method compacts the journal, if it holds more than {@link #COMPACTION_THRESHOLD} outdated records.
+     * 
+     * @throws IOException
+     */
+    public void compactIfNeeded() throws IOException {
+        synchronized (this) {
+            if (recordCount - getCurrentRecordCount() < COMPACTION_THRESHOLD) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Method replaces the journal by a journal, which holds only the current states of the content files. The new
+     * journal is written to a temporary file and moved over the journal, so a crash never leaves a partially written
+     * journal.
+     * 
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        List<byte[]> batch;
+        long upTo;
+        boolean isInterrupted;
+        synchronized (this) {
+            isInterrupted = waitWhileWriting(Long.MAX_VALUE);
+            checkWritable();
+            for (Map.Entry<String, Map<String, FileNameIndex.State>> configuration : states.entrySet()) {
+                records.add(encode(CREATE, null, configuration.getKey(), ""));
+                for (Map.Entry<String, FileNameIndex.State> entry : configuration.getValue().entrySet()) {
+                    records.add(encode(UPDATE, entry.getValue(), configuration.getKey(), entry.getKey()));
+                }
+            }
+            // the records waiting for a commit follow the current states
+            batch = pending;
+            records.addAll(batch);
+            pending = new ArrayList<byte[]>();
+            upTo = appended;
+            isWriting = true;
+        }
+        IOException error = null;
+        try {
+            rewrite(records);
+        }
+        catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            isWriting = false;
+            if (error == null) {
+                applyAll(batch);
+                committed = upTo;
+                recordCount = records.size();
+            }
+            else {
+                pending.addAll(0, batch);
+            }
+            notifyAll();
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Method writes the records waiting for a commit and closes the journal. Further records are refused.
+     */
+    public synchronized void close() {
+        boolean isInterrupted = waitWhileWriting(Long.MAX_VALUE);
+        if (failure == null && !pending.isEmpty()) {
+            try {
+                write(pending);
+                applyAll(pending);
+                committed = appended;
+            }
+            catch (IOException e) {
+                LOG.warn("Can not write the session journal " + file + ": " + e.getMessage());
+            }
+        }
+        pending = new ArrayList<byte[]>();
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Error closing the session journal " + file, e);
+            }
+        }
+        if (failure == null) {
+            failure = new IOException("The session journal is closed.");
+        }
+        notifyAll();
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (failure != null) {
+            throw new IOException("The session journal " + file + " can not be written: " + failure.getMessage(),
+                failure);
+        }
+    }
+
+    // queues a record for the next commit, the caller holds the lock
+    private long add(byte type, FileNameIndex.State state, String configId, String fileName) throws IOException {
+        pending.add(encode(type, state, configId, fileName));
+        return ++appended;
+    }
+
+    // applies committed records to the current states, the caller holds the lock
+    private void applyAll(List<byte[]> records) {
+        for (byte[] record : records) {
+            try {
+                apply(record, 4, record.length - 8);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Invalid record in the session journal " + file + ".", e);
+            }
+        }
+    }
+
+    // the first waiting thread writes the records of all waiting threads and forces them to the disk at once
+    private void commit(long sequence) throws IOException {
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                List<byte[]> batch;
+                long upTo;
+                synchronized (this) {
+                    isInterrupted |= waitWhileWriting(sequence);
+                    if (committed >= sequence) {
+                        return;
+                    }
+                    checkWritable();
+                    batch = pending;
+                    pending = new ArrayList<byte[]>();
+                    upTo = appended;
+                    isWriting = true;
+                }
+                IOException error = null;
+                try {
+                    write(batch);
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    isWriting = false;
+                    if (error == null) {
+                        applyAll(batch);
+                        committed = upTo;
+                        recordCount += batch.size();
+                    }
+                    else {
+                        LOG.error("Can not write the session journal " + file + ", further records are refused: "
+                            + error.getMessage());
+                        failure = error;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+        finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // waits while another thread writes the journal, an interrupt is returned instead of stopping the waiting
+    private boolean waitWhileWriting(long sequence) {
+        boolean isInterrupted = false;
+        while (isWriting && committed < sequence) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        return isInterrupted;
+    }
+
+    // a partially written batch is cut off before the batch is written again, so no torn record is followed by others
+    private void write(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            bytes.put(record);
+        }
+        IOException error = null;
+        for (int attempt = 1; attempt <= WRITE_ATTEMPTS; attempt++) {
+            try {
+                if (error != null) {
+                    reopen();
+                }
+                out.write(bytes.array());
+                out.getFD().sync();
+                length += size;
+                return;
+            }
+            catch (IOException e) {
+                LOG.warn("Can not write the session journal " + file + " (attempt " + attempt + " of "
+                    + WRITE_ATTEMPTS + "): " + e.getMessage());
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private void reopen() throws IOException {
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Error closing the session journal " + file, e);
+        }
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        try {
+            truncated.setLength(length);
+        }
+        finally {
+            truncated.close();
+        }
+        out = new FileOutputStream(file, true);
+    }
+
+    private void rewrite(List<byte[]> records) throws IOException {
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        FileOutputStream tmpOut = new FileOutputStream(tmp);
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(tmpOut));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            for (byte[] record : records) {
+                data.write(record);
+            }
+            data.flush();
+            tmpOut.getFD().sync();
+        }
+        finally {
+            tmpOut.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        length = file.length();
+        if (out != null) {
+            out.close();
+        }
+        out = new FileOutputStream(file, true);
+    }
+
+    private void replay() {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring the session journal " + file + " of an unknown version.");
+                return;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    throw new IOException("invalid record length " + length);
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                if (in.readInt() != checksum(record, 0, length)) {
+                    throw new IOException("invalid record checksum");
+                }
+                apply(record, 0, length);
+                recordCount++;
+            }
+        }
+        catch (IOException e) {
+            // a crash while the last records were written
+            LOG.warn("Dropped the end of the session journal " + file + " after " + recordCount + " records: "
+                + e.getMessage());
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Error closing the session journal " + file, e);
+            }
+        }
+    }
+
+    private void apply(byte[] record, int offset, int length) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record, offset, length));
+        byte type = data.readByte();
+        int state = data.readByte();
+        String configId = data.readUTF();
+        String fileName = data.readUTF();
+        if (type < CREATE || type > REMOVE || state >= STATES.length || (type == UPDATE && state < 0)) {
+            throw new IOException("invalid record type " + type + " or state " + state);
+        }
+        apply(type, state < 0 ? null : STATES[state], configId, fileName);
+    }
+
+    private void apply(byte type, FileNameIndex.State state, String configId, String fileName) {
+        if (type == REMOVE) {
+            states.remove(configId);
+            return;
+        }
+        Map<String, FileNameIndex.State> fileStates = states.get(configId);
+        if (fileStates == null) {
+            if (type == RELEASE) {
+                return;
+            }
+            fileStates = new HashMap<String, FileNameIndex.State>();
+            states.put(configId, fileStates);
+        }
+        if (type == UPDATE) {
+            fileStates.put(fileName, state);
+        }
+        else if (type == RELEASE) {
+            fileStates.remove(fileName);
+        }
+    }
+
+    // a record is framed by its length and its checksum, so a torn record is recognized on replay
+    private static byte[] encode(byte type, FileNameIndex.State state, String configId, String fileName)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0);
+        data.writeByte(type);
+        data.writeByte(state == null ? -1 : state.ordinal());
+        data.writeUTF(configId);
+        data.writeUTF(fileName);
+        data.writeInt(0);
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        ByteBuffer.wrap(record).putInt(0, length).putInt(record.length - 4, checksum(record, 4, length));
+        return record;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private long getCurrentRecordCount() {
+        long count = 0;
+        for (Map<String, FileNameIndex.State> fileStates : states.values()) {
+            count += 1 + fileStates.size();
+        }
+        return count;
+    }
+}
@@ -29,29 +29,36 @@
 package de.escidoc.bwelabs.depositor.service;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
+import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.InvalidPropertiesFormatException;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import javax.help.UnsupportedOperationException;
 
 import org.escidoc.core.client.ingest.exceptions.ConfigurationException;
 import org.escidoc.core.client.ingest.exceptions.IngestException;
 import org.escidoc.core.client.ingest.filesystem.FileIngester;
-import org.jfree.util.Log;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
@@ -68,7 +75,12 @@ import de.escidoc.bwelabs.depositor.error.ApplicationException;
 import de.escidoc.bwelabs.depositor.error.ConnectionException;
 import de.escidoc.bwelabs.depositor.error.DepositorException;
 import de.escidoc.bwelabs.depositor.error.InfrastructureException;
-import de.escidoc.bwelabs.depositor.utility.Utility;
+import de.escidoc.bwelabs.depositor.error.InsufficientStorageException;
+import de.escidoc.bwelabs.depositor.error.ServiceUnavailableException;
+import de.escidoc.bwelabs.depositor.error.WrongChecksumException;
+import de.escidoc.bwelabs.depositor.utility.AdmissionController;
+import de.escidoc.bwelabs.depositor.utility.StagingBufferPool;
+import de.escidoc.bwelabs.depositor.utility.StagingSpaceGuard;
 import de.escidoc.core.resources.common.properties.PublicStatus;
 
 /**
@@ -87,6 +99,78 @@ public class SessionManager extends Thread {
 
     public static final String PROP_PING_INTERVAL = "depositor.pingIntervalSeconds";
 
+    public static final String PROP_INGEST_QUEUE_CAPACITY = "depositor.ingestQueueCapacity";
+
+    private static final int DEFAULT_INGEST_QUEUE_CAPACITY = 1000;
+
+    private static final long INGEST_POOL_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private static final long EXPIRY_RETRY_MILLIS = 10 * 1000;
+
+    public static final String PROP_REINGEST_THREAD_NUMBER = "depositor.reingestThreadNumber";
+
+    private static final int DEFAULT_REINGEST_THREAD_NUMBER = 4;
+
+    public static final String PROP_DELETION_THREAD_NUMBER = "depositor.deletionThreadNumber";
+
+    private static final int DEFAULT_DELETION_THREAD_NUMBER = 2;
+
+    private static final long DELETION_RETENTION_MILLIS = 60 * 60 * 1000;
+
+    public static final String PROP_RESTORE_THREAD_NUMBER = "depositor.restoreThreadNumber";
+
+    public static final String PROP_INGEST_BATCH_SIZE = "depositor.ingestBatchSize";
+
+    public static final String PROP_INGEST_BATCH_BYTES = "depositor.ingestBatchBytes";
+
+    public static final String PROP_INGEST_BATCH_WINDOW_MILLIS = "depositor.ingestBatchWindowMillis";
+
+    private static final int DEFAULT_INGEST_BATCH_SIZE = 16;
+
+    private static final long DEFAULT_INGEST_BATCH_BYTES = 64 * 1024 * 1024;
+
+    private static final long DEFAULT_INGEST_BATCH_WINDOW_MILLIS = 100;
+
+    public static final String PROP_STAGING_BUFFER_SIZE = "depositor.stagingBufferSize";
+
+    public static final String PROP_REVERIFY_STAGED_FILES = "depositor.reverifyStagedFiles";
+
+    public static final String PROP_PIPELINED_INGEST = "depositor.pipelinedIngest";
+
+    public static final String PROP_ASYNC_UPLOAD = "depositor.asyncUpload";
+
+    public static final String PROP_ADMISSION_QUEUE_LENGTH = "depositor.admissionQueueLength";
+
+    public static final String PROP_ADMISSION_WAIT_MILLIS = "depositor.admissionWaitMillis";
+
+    private static final long DEFAULT_ADMISSION_WAIT_MILLIS = 2000;
+
+    public static final String PROP_CLIENT_IDLE_TIMEOUT_MILLIS = "depositor.clientIdleTimeoutMillis";
+
+    private static final long DEFAULT_CLIENT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    public static final String PROP_CONTENT_ADDRESSED_STAGING = "depositor.contentAddressedStaging";
+
+    public static final String PROP_DISK_HIGH_WATERMARK = "depositor.diskHighWatermark";
+
+    public static final String PROP_DISK_LOW_WATERMARK = "depositor.diskLowWatermark";
+
+    public static final String PROP_DEFAULT_UPLOAD_RESERVATION = "depositor.defaultUploadReservation";
+
+    private static final double DEFAULT_DISK_HIGH_WATERMARK = 0.9;
+
+    private static final double DEFAULT_DISK_LOW_WATERMARK = 0.8;
+
+    private static final long DEFAULT_UPLOAD_RESERVATION = 16 * 1024 * 1024;
+
+    private static final long DISK_FULL_RETRY_AFTER_SECONDS = 60;
+
+    /**
+     * Name of the archive entry with check sums of all other entries of a batch upload. It must precede the entries it
+     * describes, so the archive can be processed as a stream.
+     */
+    public static final String ARCHIVE_CHECKSUMS_ENTRY = "META-INF/checksums.properties";
+
     public static final String ERR_MAX_THREADS_ =
         "The depositor service is unavalible. The maximal number of threads is reached. Please try later.";
 
@@ -98,39 +182,98 @@ public class SessionManager extends Thread {
 
     private int maxThreadNumber;
 
-    private int threadNumber;
+    private int admissionQueueLength;
+
+    private long admissionWaitMillis;
+
+    private AdmissionController admissionController;
+
+    private long reportedRejections;
+
+    private double diskHighWatermark;
+
+    private double diskLowWatermark;
+
+    private long defaultUploadReservation;
+
+    private StagingSpaceGuard stagingSpaceGuard;
+
+    private boolean isContentAddressedStaging;
+
+    private ContentStore contentStore;
+
+    private long clientIdleTimeoutMillis;
+
+    private InfrastructureClientRegistry clientRegistry;
 
     private int pingInterval;
 
-    private Map<String, Properties> configurations;
+    private int ingestQueueCapacity;
 
-    private Map<String, String> configurationDirPathes;
+    private int ingestBatchSize;
 
-    private Map<String, Properties> failedConfigurations;
+    private long ingestBatchBytes;
 
-    private Map<String, Properties> expiredSuccessfulConfigurations;
+    private long ingestBatchWindowMillis;
 
-    private Map<String, Vector<ItemSession>> sessions;
+    private IngestBatcher ingestBatcher;
 
-    private Map<String, String> failedExpiredConfDir;
+    private int reingestThreadNumber;
 
-    private Vector<String> expiredConfigurationsSinceLastRun;
+    private ReingestJob reingestJob;
 
-    private Map<String, File> dirsFromLastRunToProcess;
+    private int deletionThreadNumber;
 
-    private Vector<String> isCleaning;
+    private DeletionJob deletionJob;
+
+    private int restoreThreadNumber;
+
+    private long snapshotModifications = -1;
+
+    private ExpiryScheduler expiryScheduler;
+
+    private FairIngestScheduler ingestScheduler;
+
+    private int stagingBufferSize;
+
+    private StagingBufferPool stagingBuffers;
+
+    private boolean isReverifyStagedFiles;
+
+    private ExecutorService verificationExecutor;
+
+    private boolean isPipelinedIngest;
+
+    private ConcurrentMap<String, ResumableUpload> resumableUploads;
+
+    private FileNameIndex fileNameIndex;
+
+    private SessionJournal journal;
+
+    private ConfigurationRegistry configurations;
+
+    private Map<String, File> dirsFromLastRunToProcess;
 
     private boolean isThreadNeedsToFinish;
 
-    private boolean isThreadFinished;
+    private final CountDownLatch threadFinished = new CountDownLatch(1);
 
     public SessionManager(Properties props) throws DepositorException {
+        this(props, null);
+    }
+
+    /**
+     * @param props
+     * @param ingester
+     *            ingest of content files or <code>null</code> for a {@link ContentFileIngester}
+     * @throws DepositorException
+     */
+    SessionManager(Properties props, IngestBatcher.Ingester ingester) throws DepositorException {
         Preconditions.checkNotNull(props, "props is null: %s", props);
 
-        threadNumber = 0;
         int threadNumber = loadConfigurationAndGetThreadNumber(props);
 
-        init(new File(props.getProperty(PROP_BASEDIR)), threadNumber);
+        init(new File(props.getProperty(PROP_BASEDIR)), threadNumber, ingester);
     }
 
     private int loadConfigurationAndGetThreadNumber(Properties props) throws DepositorException {
@@ -169,336 +312,767 @@ public class SessionManager extends Thread {
             LOG.error(message);
             throw new DepositorException(message);
         }
-        return threadNumber;
-    }
 
-    private void init(File baseDir, int maxThreadNumber) throws DepositorException {
-        this.baseDir = baseDir;
-        dirsFromLastRunToProcess = new HashMap<String, File>();
-        sessions = new HashMap<String, Vector<ItemSession>>();
-        failedExpiredConfDir = new HashMap<String, String>();
-        configurations = new HashMap<String, Properties>();
-        failedConfigurations = new HashMap<String, Properties>();
-        expiredSuccessfulConfigurations = new HashMap<String, Properties>();
-        configurationDirPathes = new HashMap<String, String>();
-        isCleaning = new Vector<String>();
-        expiredConfigurationsSinceLastRun = new Vector<String>();
+        this.ingestQueueCapacity = DEFAULT_INGEST_QUEUE_CAPACITY;
+        if (props.getProperty(PROP_INGEST_QUEUE_CAPACITY) != null) {
+            try {
+                this.ingestQueueCapacity = Integer.parseInt(props.getProperty(PROP_INGEST_QUEUE_CAPACITY));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_INGEST_QUEUE_CAPACITY;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+        if (ingestQueueCapacity <= 0) {
+            String message = "Property must be a positive integer: " + PROP_INGEST_QUEUE_CAPACITY;
+            LOG.error(message);
+            throw new DepositorException(message);
+        }
 
-        if (!baseDir.exists()) {
-            baseDir.mkdirs();
+        this.reingestThreadNumber = DEFAULT_REINGEST_THREAD_NUMBER;
+        if (props.getProperty(PROP_REINGEST_THREAD_NUMBER) != null) {
+            try {
+                this.reingestThreadNumber = Integer.parseInt(props.getProperty(PROP_REINGEST_THREAD_NUMBER));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_REINGEST_THREAD_NUMBER;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        this.deletionThreadNumber = DEFAULT_DELETION_THREAD_NUMBER;
+        if (props.getProperty(PROP_DELETION_THREAD_NUMBER) != null) {
+            try {
+                this.deletionThreadNumber = Integer.parseInt(props.getProperty(PROP_DELETION_THREAD_NUMBER));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_DELETION_THREAD_NUMBER;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        // restoring is bound by the file system rather than the processors
+        this.restoreThreadNumber = 2 * Runtime.getRuntime().availableProcessors();
+        if (props.getProperty(PROP_RESTORE_THREAD_NUMBER) != null) {
+            try {
+                this.restoreThreadNumber = Integer.parseInt(props.getProperty(PROP_RESTORE_THREAD_NUMBER));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_RESTORE_THREAD_NUMBER;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+        if (restoreThreadNumber <= 0) {
+            String message = "Property must be a positive integer: " + PROP_RESTORE_THREAD_NUMBER;
+            LOG.error(message);
+            throw new DepositorException(message);
+        }
+
+        this.ingestBatchSize = DEFAULT_INGEST_BATCH_SIZE;
+        this.ingestBatchBytes = DEFAULT_INGEST_BATCH_BYTES;
+        this.ingestBatchWindowMillis = DEFAULT_INGEST_BATCH_WINDOW_MILLIS;
+        try {
+            if (props.getProperty(PROP_INGEST_BATCH_SIZE) != null) {
+                this.ingestBatchSize = Integer.parseInt(props.getProperty(PROP_INGEST_BATCH_SIZE));
+            }
+            if (props.getProperty(PROP_INGEST_BATCH_BYTES) != null) {
+                this.ingestBatchBytes = Long.parseLong(props.getProperty(PROP_INGEST_BATCH_BYTES));
+            }
+            if (props.getProperty(PROP_INGEST_BATCH_WINDOW_MILLIS) != null) {
+                this.ingestBatchWindowMillis = Long.parseLong(props.getProperty(PROP_INGEST_BATCH_WINDOW_MILLIS));
+            }
+        }
+        catch (NumberFormatException e) {
+            String message =
+                "Properties must be integers: " + PROP_INGEST_BATCH_SIZE + ", " + PROP_INGEST_BATCH_BYTES + ", "
+                    + PROP_INGEST_BATCH_WINDOW_MILLIS;
+            LOG.error(message);
+            throw new DepositorException(message);
+        }
+
+        this.stagingBufferSize = StagingBufferPool.DEFAULT_BUFFER_SIZE;
+        if (props.getProperty(PROP_STAGING_BUFFER_SIZE) != null) {
+            try {
+                this.stagingBufferSize = Integer.parseInt(props.getProperty(PROP_STAGING_BUFFER_SIZE));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_STAGING_BUFFER_SIZE;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        this.admissionQueueLength = threadNumber;
+        if (props.getProperty(PROP_ADMISSION_QUEUE_LENGTH) != null) {
+            try {
+                this.admissionQueueLength = Integer.parseInt(props.getProperty(PROP_ADMISSION_QUEUE_LENGTH));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_ADMISSION_QUEUE_LENGTH;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        this.admissionWaitMillis = DEFAULT_ADMISSION_WAIT_MILLIS;
+        if (props.getProperty(PROP_ADMISSION_WAIT_MILLIS) != null) {
+            try {
+                this.admissionWaitMillis = Long.parseLong(props.getProperty(PROP_ADMISSION_WAIT_MILLIS));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_ADMISSION_WAIT_MILLIS;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        this.clientIdleTimeoutMillis = DEFAULT_CLIENT_IDLE_TIMEOUT_MILLIS;
+        if (props.getProperty(PROP_CLIENT_IDLE_TIMEOUT_MILLIS) != null) {
+            try {
+                this.clientIdleTimeoutMillis = Long.parseLong(props.getProperty(PROP_CLIENT_IDLE_TIMEOUT_MILLIS));
+            }
+            catch (Exception e) {
+                String message = "Property must an integer: " + PROP_CLIENT_IDLE_TIMEOUT_MILLIS;
+                LOG.error(message);
+                throw new DepositorException(message);
+            }
+        }
+
+        this.diskHighWatermark = DEFAULT_DISK_HIGH_WATERMARK;
+        this.diskLowWatermark = DEFAULT_DISK_LOW_WATERMARK;
+        this.defaultUploadReservation = DEFAULT_UPLOAD_RESERVATION;
+        try {
+            if (props.getProperty(PROP_DISK_HIGH_WATERMARK) != null) {
+                this.diskHighWatermark = Double.parseDouble(props.getProperty(PROP_DISK_HIGH_WATERMARK));
+            }
+            if (props.getProperty(PROP_DISK_LOW_WATERMARK) != null) {
+                this.diskLowWatermark = Double.parseDouble(props.getProperty(PROP_DISK_LOW_WATERMARK));
+            }
+            if (props.getProperty(PROP_DEFAULT_UPLOAD_RESERVATION) != null) {
+                this.defaultUploadReservation = Long.parseLong(props.getProperty(PROP_DEFAULT_UPLOAD_RESERVATION));
+            }
+        }
+        catch (NumberFormatException e) {
+            String message =
+                "Properties must be numbers: " + PROP_DISK_HIGH_WATERMARK + ", " + PROP_DISK_LOW_WATERMARK + ", "
+                    + PROP_DEFAULT_UPLOAD_RESERVATION;
+            LOG.error(message);
+            throw new DepositorException(message);
         }
 
-        File[] dirs = baseDir.listFiles();
+        this.isContentAddressedStaging = Boolean.parseBoolean(props.getProperty(PROP_CONTENT_ADDRESSED_STAGING));
+        this.isReverifyStagedFiles = Boolean.parseBoolean(props.getProperty(PROP_REVERIFY_STAGED_FILES));
+        this.isPipelinedIngest = Boolean.parseBoolean(props.getProperty(PROP_PIPELINED_INGEST));
+        return threadNumber;
+    }
+
+    /**
+     * Method restores the configurations from the configuration directories of the last run, see
+     * {@link ConfigurationRestorer}. Their content files are processed later by the session reaper.
+     * 
+     * @throws DepositorException
+     */
+    private void restoreConfigurations() throws DepositorException {
+        List<File> dirs = DirectoryLayout.listConfigurationDirectories(baseDir);
         if (dirs == null)
             throw new DepositorException("Unable to restore configuration directories within a base directory: "
                 + baseDir.getPath());
+        if (dirs.isEmpty()) {
+            return;
+        }
 
-        if (dirs.length > 0) {
-            LOG.info("Restoring configurations from last run...");
-
-            for (int i = 0; i < dirs.length; i++) {
-                if (dirs[i].isDirectory()) {
-                    String dirName = dirs[i].getName();
-                    File configurationFile = new File(dirs[i], Constants.CONFIGURATION_FILE_NAME);
-                    if (!configurationFile.exists()) {
-                        String message =
-                            "Can not restore the configuration from the directory "
-                                + baseDir
-                                + "/"
-                                + dirName
-                                + " on start up of the Depositor: a configuration file does not exist in the directory.";
-                        LOG.error(message);
-                        continue;
-                    }
-
-                    FileInputStream fis = null;
-                    Properties configProperties = null;
-                    String configId = null;
-                    try {
-                        fis = new FileInputStream(configurationFile);
-                        configProperties = new Properties();
-
-                        try {
-                            configProperties.loadFromXML(fis);
-                            configId = configProperties.getProperty(Constants.PROPERTY_CONFIGURATION_ID);
-                            if (dirName.startsWith("failed_expired_")) {
-                                failedExpiredConfDir.put(configId, dirName);
-                                continue;
-                            }
-                            if (isMonitoringTimeOver(configProperties)) {
-                                expiredConfigurationsSinceLastRun.add(configId);
-                            }
-                            this.configurations.put(configId, configProperties);
-                            this.configurationDirPathes.put(configId, dirName);
-                        }
-                        catch (InvalidPropertiesFormatException e) {
-                            String message =
-                                "Can not restore the configuration data from the directory " + baseDir + "/" + dirName
-                                    + " on start up of the Depositor:";
-                            LOG.error(message + e.getMessage());
-                            continue;
-                        }
-                        catch (IOException e) {
-                            String message =
-                                "Can not restore the configuration from the directory " + baseDir + "/" + dirName
-                                    + " on start up of the Depositor:";
-                            LOG.error(message + e.getMessage());
-                            continue;
-                        }
+        LOG.info("Restoring configurations from last run...");
+        long start = System.currentTimeMillis();
+        RegistrySnapshot snapshot = RegistrySnapshot.read(getRegistrySnapshotFile());
+        List<ConfigurationRestorer.Restored> restored;
+        try {
+            restored = new ConfigurationRestorer(baseDir, snapshot, restoreThreadNumber).restore(dirs);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DepositorException("Interrupted while restoring configurations from last run.");
+        }
+        int fromSnapshot = 0;
+        for (ConfigurationRestorer.Restored configuration : restored) {
+            if (configuration.isFromSnapshot()) {
+                fromSnapshot++;
+            }
+            String configId = configuration.getConfigurationId();
+            ConfigurationState state = configurations.getOrCreate(configId);
+            if (configuration.isFailedExpired()) {
+                state.restoreFailedExpired(configuration.getDirectoryPath());
+                continue;
+            }
+            long expiry = ExpiryScheduler.getExpiry(configuration.getConfiguration());
+            state.setDirectoryPath(configuration.getDirectoryPath());
+            state.register(configuration.getConfiguration());
+            state.setExpiredSinceLastRun(expiry <= System.currentTimeMillis());
+            expiryScheduler.schedule(configId, expiry);
+            recoverContentFiles(configId, configuration.getDirectory());
+            // save configuration directory from last run to
+            // process it later
+            dirsFromLastRunToProcess.put(configId, configuration.getDirectory());
+        }
+        LOG.info("Restored " + restored.size() + " configurations, " + fromSnapshot + " of them from the snapshot "
+            + (snapshot == null ? "(missing)" : "of " + snapshot.size() + " configurations") + ", in "
+            + (System.currentTimeMillis() - start) + " ms.");
+    }
 
-                    }
-                    catch (FileNotFoundException e) {
-                        String message =
-                            "Can not restore the configuration data from the directory " + baseDir + "/" + dirName
-                                + " on start up of the Depositor:";
-                        LOG.error(message + e.getMessage());
-                        continue;
-                    }
-                    // save configuration directory from last run to
-                    // process it later
-                    dirsFromLastRunToProcess.put(configId, dirs[i]);
+    /**
+     * Method recovers the states of the content files of a configuration from the journal. The content files of a
+     * configuration directory of an earlier version, which is not in the journal yet, are renamed back to the names
+     * they were sent with and their states, encoded in the prefixes of their names, are written to the journal. A
+     * content file, whose upload was interrupted by the stop of the Depositor, is deleted, so it can be sent again.
+     * 
+     * @param configId
+     * @param configurationDirectory
+     * @throws DepositorException
+     */
+    private void recoverContentFiles(final String configId, final File configurationDirectory)
+        throws DepositorException {
+        try {
+            if (!journal.contains(configId)) {
+                journal.create(configId);
+                journal.update(configId, DirectoryLayout.stripStatePrefixes(configurationDirectory));
+            }
+            Map<String, FileNameIndex.State> recovered = new HashMap<String, FileNameIndex.State>();
+            for (Map.Entry<String, FileNameIndex.State> entry : journal.getStates(configId).entrySet()) {
+                String fileName = entry.getKey();
+                File contentDirectory = DirectoryLayout.getContentDirectory(configurationDirectory, fileName);
+                if (entry.getValue() != FileNameIndex.State.RESERVED
+                    || ResumableUpload.getPartialFile(contentDirectory, fileName).exists()) {
+                    // a partial file is completed by the next part of its upload
+                    continue;
+                }
+                File content = new File(contentDirectory, fileName);
+                if (content.exists() && ContentDigests.hasSidecar(content)) {
+                    // the content file was verified, but its session was not started any more
+                    recovered.put(fileName, FileNameIndex.State.STORED);
                 }
                 else {
-                    dirs[i].delete();
+                    content.delete();
+                    recovered.put(fileName, null);
+                }
+            }
+            journal.update(configId, recovered);
+            Map<String, FileNameIndex.State> states = journal.getStates(configId);
+            fileNameIndex.load(configId, states);
+            for (Map.Entry<String, FileNameIndex.State> entry : states.entrySet()) {
+                accountContentFile(configId, entry.getKey(), null, entry.getValue());
+            }
+        }
+        catch (IOException e) {
+            throw new DepositorException("Can not recover the content files of the configuration with id " + configId
+                + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method removes the configurations, whose directories were removed while the Depositor was stopped, from the
+     * journal.
+     * 
+     * @throws DepositorException
+     */
+    private void retainRestoredConfigurationsInJournal() throws DepositorException {
+        Set<String> configIds = new HashSet<String>();
+        for (ConfigurationState state : configurations.getAll()) {
+            configIds.add(state.getConfigurationId());
+        }
+        try {
+            journal.retain(configIds);
+        }
+        catch (IOException e) {
+            throw new DepositorException("Can not write the session journal: " + e.getMessage(), e);
+        }
+    }
+
+    private File getRegistrySnapshotFile() {
+        return new File(baseDir, DirectoryLayout.REGISTRY_SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Method writes a snapshot of the registered and failed expired configurations, if they changed since the last
+     * snapshot, so the configuration files do not have to be parsed on the next start up.
+     */
+    private void writeRegistrySnapshot() {
+        long modifications = configurations.getModificationCount();
+        if (modifications == snapshotModifications) {
+            return;
+        }
+        long takenAt = System.currentTimeMillis();
+        List<RegistrySnapshot.Entry> entries = new ArrayList<RegistrySnapshot.Entry>();
+        for (ConfigurationState state : configurations.getAll()) {
+            String directoryPath = state.getDirectoryPath();
+            Properties configuration = state.getConfiguration();
+            ConfigurationState.Phase phase = state.getPhase();
+            if (directoryPath == null) {
+                continue;
+            }
+            if (phase == ConfigurationState.Phase.FAILED_EXPIRED) {
+                entries.add(new RegistrySnapshot.Entry(state.getConfigurationId(), directoryPath, new Properties()));
+            }
+            else if (phase == ConfigurationState.Phase.ACTIVE && configuration != null) {
+                Properties copy = new Properties();
+                synchronized (state) {
+                    copy.putAll(configuration);
                 }
+                entries.add(new RegistrySnapshot.Entry(state.getConfigurationId(), directoryPath, copy));
             }
         }
-        threadNumber = 0;
+        try {
+            RegistrySnapshot.write(getRegistrySnapshotFile(), takenAt, entries);
+            snapshotModifications = modifications;
+            LOG.debug("Wrote a registry snapshot of " + entries.size() + " configurations in "
+                + (System.currentTimeMillis() - takenAt) + " ms.");
+        }
+        catch (IOException e) {
+            LOG.warn("Can not write the registry snapshot: " + e.getMessage());
+        }
+    }
+
+    private void init(File baseDir, int maxThreadNumber, IngestBatcher.Ingester ingester) throws DepositorException {
+        this.baseDir = baseDir;
+        dirsFromLastRunToProcess = new HashMap<String, File>();
+        configurations = new ConfigurationRegistry();
+        resumableUploads = new ConcurrentHashMap<String, ResumableUpload>();
+        fileNameIndex = new FileNameIndex();
+        expiryScheduler = new ExpiryScheduler();
+
+        if (!baseDir.exists()) {
+            baseDir.mkdirs();
+        }
+        try {
+            journal = SessionJournal.open(new File(baseDir, DirectoryLayout.JOURNAL_FILE_NAME));
+        }
+        catch (IOException e) {
+            throw new DepositorException("Can not open the session journal within a base directory "
+                + baseDir.getPath() + ": " + e.getMessage(), e);
+        }
+        stagingSpaceGuard =
+            new StagingSpaceGuard(baseDir, diskHighWatermark, diskLowWatermark, defaultUploadReservation);
+        contentStore =
+            new ContentStore(new File(baseDir, DirectoryLayout.CONTENT_STORE_DIRECTORY_NAME),
+                isContentAddressedStaging);
+
+        restoreConfigurations();
+        retainRestoredConfigurationsInJournal();
         this.maxThreadNumber = maxThreadNumber;
+        this.admissionController = new AdmissionController(maxThreadNumber, admissionQueueLength, admissionWaitMillis);
+        // every ingest worker holds at most one client at a time
+        this.clientRegistry = new InfrastructureClientRegistry(maxThreadNumber, clientIdleTimeoutMillis);
+        this.ingestScheduler = new FairIngestScheduler(maxThreadNumber, ingestQueueCapacity, "Ingest-Worker-");
+        this.reingestJob = new ReingestJob(new ReingestJob.Listener() {
+            public void reingestFailed(String configId) {
+                addToFailedConfigurations(configId);
+            }
+        }, reingestThreadNumber, ingestQueueCapacity);
+        this.deletionJob = new DeletionJob(new DeletionJob.Deleter() {
+            public void delete(String configId) throws ApplicationException, DepositorException {
+                deleteConfiguration(configId);
+            }
+        }, deletionThreadNumber);
+        // every file of a batch is held by an ingest worker, a batch can not be larger than the pool
+        this.ingestBatcher =
+            new IngestBatcher(ingester == null ? new ContentFileIngester(clientRegistry) : ingester, Math.max(1,
+                Math.min(ingestBatchSize, maxThreadNumber)), ingestBatchBytes, ingestBatchWindowMillis);
+        this.stagingBuffers = new StagingBufferPool(stagingBufferSize, maxThreadNumber);
+        if (isReverifyStagedFiles) {
+            this.verificationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread verifier = new Thread(r, "Checksum-Verifier");
+                    verifier.setDaemon(true);
+                    verifier.setPriority(Thread.MIN_PRIORITY);
+                    return verifier;
+                }
+            });
+        }
         setName("Session-Reaper");
         start();
     }
 
     /**
-     * Method processes not successful content files, remained from a last run of a Depositor service.
+     * Method processes not successful content files, remained from a last run of a Depositor service. The content
+     * files are taken from the journal instead of the configuration directory.
      * 
      * @param directoryToProcess
      * @param configId
      */
     void processContentFiles(final File directoryToProcess, final String configId) {
-        File[] files = directoryToProcess.listFiles();
-        for (int fileIndex = 0; fileIndex < files.length; fileIndex++) {
-            if (!(files[fileIndex].getName().equals(Constants.CONFIGURATION_FILE_NAME) || files[fileIndex]
-                .getName().startsWith("successful_"))) {
-                try {
-                    storeContentToInfrastructure(directoryToProcess, configId, files, fileIndex);
+        for (Map.Entry<String, FileNameIndex.State> entry : journal.getStates(configId).entrySet()) {
+            if (isToProcess(entry.getValue())) {
+                File file = getContentFile(directoryToProcess, entry.getKey());
+                if (!file.exists()) {
+                    LOG.warn("The content file " + entry.getKey() + " of the configuration with id " + configId
+                        + " is missing.");
+                    continue;
                 }
-                catch (DepositorException e) {
-                    // FIXME give a message
-                    LOG.error(e.getMessage(), e);
-                    addToFailedConfigurations(configId);
+                if (isReverifyStagedFiles) {
+                    verifyStagedFileInBackground(configId, file);
                 }
+                storeContentToInfrastructure(directoryToProcess, configId, file);
             }
         }
     }
 
-    private void storeContentToInfrastructure(final File directoryToProcess, final String configId, File[] files, int j)
-        throws DepositorException {
-        new ReingestTask(this, configurations.get(configId), files[j], directoryToProcess, null).execute();
+    private static boolean isToProcess(FileNameIndex.State state) {
+        return state == FileNameIndex.State.STORED || state == FileNameIndex.State.FAILED;
     }
 
-    // ////////////////////////////////////////////////////////////////////////
-    /**
-     * Method increases counter holding the number of currently running threads.
-     */
-    protected synchronized void increaseThreadsNumber() {
-        threadNumber++;
+    private static File getContentFile(final File configurationDirectory, final String fileName) {
+        return new File(DirectoryLayout.getContentDirectory(configurationDirectory, fileName), fileName);
     }
 
-    /**
-     * Method decreases counter holding the number of currently running threads.
-     */
-    protected synchronized void decreaseThreadsNumber() {
-        threadNumber--;
+    private void verifyStagedFileInBackground(final String configId, final File content) {
+        final Properties configuration = getConfiguration(configId);
+        verificationExecutor.execute(new Runnable() {
+            public void run() {
+                verifyStagedFile(configId, configuration, content);
+            }
+        });
     }
 
     /**
-     * Sessions administrator thread.
+     * Method calculates the checksum of a staged content file again and compares it with the checksum stored in its
+     * sidecar file on upload. If they differ, the configuration is marked as failed.
+     * 
+     * @param configId
+     * @param configuration
+     * @param content
      */
-    public void run() {
-        while (!isThreadNeedsToFinish) {
-            processFromLastRun();
-            // iterate thru configurations, find expired configurations -->
-            // clean sessions, find
-            // failed configurations --> try to repair failed configurations
-            if (configurations.size() > 0) {
-                synchronized (configurations) {
-                    // FIXME containerId is _always_ empty
-                    Vector<String> containerIds = new Vector<String>();
-
-                    for (String configId : configurations.keySet()) {
-                        Properties configuration = configurations.get(configId);
-                        if (isReingestNotNeeded(configId, configuration)) {
-                            cleanUpExpiredConfiguration(configId);
-                        }
-                        else {
-                            sendPingToCore(containerIds, configuration);
-                            reingestFailedIngest(configId, configuration);
-                        }
-                    }
-
-                }
+    private void verifyStagedFile(final String configId, final Properties configuration, final File content) {
+        String algorithm = configuration.getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM);
+        try {
+            ContentDigests stored = ContentDigests.load(content);
+            if (stored == null) {
+                return;
             }
-            int waitedSeconds = 0;
-            while (!isThreadNeedsToFinish && (waitedSeconds < pingInterval / 2)) {
-                try {
-                    Thread.sleep(1000);
-                }
-                catch (Exception e) {
-                    LOG.error("Something wrong: " + e.getMessage());
-                }
-                waitedSeconds++;
+            ContentDigests actual = ContentDigests.calculate(content, algorithm);
+            if (!actual.getChecksum(algorithm).equals(stored.getChecksum(algorithm))) {
+                LOG.error("The staged content file " + content.getName() + " of the configuration with id "
+                    + configId + " does not match the checksum stored on upload.");
+                addToFailedConfigurations(configId);
             }
         }
+        catch (FileNotFoundException e) {
+            // the content file was deleted in the meantime
+            LOG.debug("Skipped verification of " + content.getName() + ": " + e.getMessage());
+        }
+        catch (IOException e) {
+            LOG.warn("Can not verify the staged content file " + content.getName() + ": " + e.getMessage());
+        }
+        catch (NoSuchAlgorithmException e) {
+            LOG.warn("Can not verify the staged content file " + content.getName() + ": " + e.getMessage());
+        }
+    }
 
-        isThreadFinished = true;
+    private void storeContentToInfrastructure(final File directoryToProcess, final String configId, File content) {
+        reingestJob.submit(configId, new ReingestTask(this, getConfiguration(configId), content,
+            directoryToProcess, null));
     }
 
-    private boolean isReingestNotNeeded(String configId, Properties configuration) {
-        return expiredConfigurationsSinceLastRun.contains(configId) || isMonitoringTimeOver(configuration);
+    // ////////////////////////////////////////////////////////////////////////
+    /**
+     * Method admits a request to be processed. The returned permit has to be released once the request is processed.
+     * 
+     * @return the permit
+     * @throws ServiceUnavailableException
+     *             if the maximal number of requests is processed and the wait queue is full or no permit becomes free
+     *             in time
+     */
+    public AdmissionController.Permit admit() throws ServiceUnavailableException {
+        AdmissionController.Permit permit = admissionController.tryAcquire();
+        if (permit == null) {
+            LOG.debug(ERR_MAX_THREADS_);
+            throw new ServiceUnavailableException(ERR_MAX_THREADS_, admissionController.getRetryAfterSeconds());
+        }
+        return permit;
     }
 
-    // if the configuration was already expired to restart
-    // time of Depositor or if a monitoring time for the
-    // configuration is over, clean up sessions for the
-    // configuration
-    private void cleanUpExpiredConfiguration(String configId) {
-        cleanupSessions(configId);
-        expiredConfigurationsSinceLastRun.remove(configId);
+    /**
+     * Method admits a request to be processed, only if a permit is free at the moment. It is used by threads of the
+     * container, which must not wait for a permit.
+     * 
+     * @return the permit
+     * @throws ServiceUnavailableException
+     *             if the maximal number of requests is processed
+     */
+    public AdmissionController.Permit admitNow() throws ServiceUnavailableException {
+        AdmissionController.Permit permit = admissionController.tryAcquireNow();
+        if (permit == null) {
+            LOG.debug(ERR_MAX_THREADS_);
+            throw new ServiceUnavailableException(ERR_MAX_THREADS_, admissionController.getRetryAfterSeconds());
+        }
+        return permit;
     }
 
-    private void processFromLastRun() {
-        // processing content files from last run of a Deposit service,
-        // happens only once after restart of the Deposit service
-        for (String configId : dirsFromLastRunToProcess.keySet()) {
-            File dirToProcess = dirsFromLastRunToProcess.get(configId);
-            processContentFiles(dirToProcess, configId);
+    /**
+     * Method rejects a request, which is admitted only after its body is read, already before the body is read, if no
+     * permit is free at the moment. A free permit is not taken, so the request has to be admitted again once its body
+     * is read.
+     * 
+     * @throws ServiceUnavailableException
+     *             if the maximal number of requests is processed
+     */
+    public void checkAdmission() throws ServiceUnavailableException {
+        if (admissionController.getAvailablePermits() == 0) {
+            LOG.debug(ERR_MAX_THREADS_);
+            throw new ServiceUnavailableException(ERR_MAX_THREADS_, admissionController.getRetryAfterSeconds());
         }
-
-        dirsFromLastRunToProcess = new HashMap<String, File>();
     }
 
-    private void reingestFailedIngest(String configId, Properties configuration) {
-        // try to store failed content files of failed configurations into infrastructure
-        if (isFailed(configId)) {
-            boolean stillFailed = false;
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
 
-            // this list contains #n item sessions. Item session is a File Ingest Thread.
-            Vector<ItemSession> sessionsForConfiguration = sessions.get(configId);
+    /**
+     * Method reserves disk space for an upload before its content is read. The returned reservation has to be
+     * released once the upload is staged or failed.
+     * 
+     * @param contentLength
+     *            size of the upload or a negative value if it is unknown
+     * @return the reservation
+     * @throws InsufficientStorageException
+     *             if the upload can not be stored, even if the client tries again later
+     * @throws ServiceUnavailableException
+     *             if the disk is filled up to the high watermark at the moment
+     */
+    public StagingSpaceGuard.Reservation reserveStagingSpace(long contentLength) throws InsufficientStorageException,
+        ServiceUnavailableException {
+        boolean wasSaturated = stagingSpaceGuard.isSaturated();
+        StagingSpaceGuard.Reservation reservation = stagingSpaceGuard.tryReserve(contentLength);
+        if (wasSaturated != stagingSpaceGuard.isSaturated()) {
+            logStagingSpace();
+        }
+        if (reservation != null) {
+            return reservation;
+        }
+        String message =
+            "The depositor service has not enough disk space to store a content file of "
+                + (contentLength < 0 ? "unknown size" : contentLength + " bytes") + ". Free space: "
+                + stagingSpaceGuard.getFreeBytes() + " bytes.";
+        if (stagingSpaceGuard.isTooLarge(contentLength)
+            || (stagingSpaceGuard.getStagedBytes() == 0 && stagingSpaceGuard.getReclaimableBytes() == 0)) {
+            // neither running uploads nor expiring configurations will free space for the content file
+            LOG.error(message);
+            throw new InsufficientStorageException(message);
+        }
+        LOG.warn(message);
+        throw new ServiceUnavailableException(message, DISK_FULL_RETRY_AFTER_SECONDS);
+    }
 
-            Vector<ItemSession> oldSessionsForConfiguration = new Vector<ItemSession>();
+    // logged only when a watermark is crossed
+    private void logStagingSpace() {
+        LOG.info("Session base directory: " + stagingSpaceGuard.getFreeBytes() + " bytes free, "
+            + stagingSpaceGuard.getStagedBytes() + " bytes staged, " + stagingSpaceGuard.getPendingIngestBytes()
+            + " bytes pending ingest, " + stagingSpaceGuard.getReclaimableBytes() + " bytes reclaimable"
+            + (stagingSpaceGuard.isSaturated() ? ", uploads are refused." : ", uploads are accepted again."));
+    }
 
-            List<ReingestTask> list = new ArrayList<ReingestTask>();
+    public StagingSpaceGuard getStagingSpaceGuard() {
+        return stagingSpaceGuard;
+    }
 
-            synchronized (sessionsForConfiguration) {
-                for (ItemSession itemSession : sessionsForConfiguration) {
-                    if (isFinishedAndStillFailed(itemSession)) {
-                        stillFailed = true;
-                        // Gather failed files
-                        // insert in a list
-                        // ingest them sync
-                        // list.add(new ReingestTask());
-                        addTask(list, configuration, oldSessionsForConfiguration, itemSession);
-                    }
-                }
-                sessionsForConfiguration.removeAll(oldSessionsForConfiguration);
-            }
+    /**
+     * Sessions administrator thread.
+     */
+    public void run() {
+        try {
+            runMaintenance();
+        }
+        finally {
+            threadFinished.countDown();
+        }
+    }
 
-            for (ReingestTask reingestTask : list) {
+    private void runMaintenance() {
+        while (!isThreadNeedsToFinish) {
+            processFromLastRun();
+            // clean up expired configurations, try to repair failed configurations; the configurations are
+            // processed without holding their lock, so new configurations can be registered and deleted meanwhile
+            processExpiredConfigurations();
+            reingestFailedConfigurations();
+            reingestJob.report();
+            deletionJob.evictFinished(DELETION_RETENTION_MILLIS);
+            writeRegistrySnapshot();
+            compactJournal();
+            reportRejections();
+            evictIdleClients();
+            // sleep until the next maintenance, but clean up configurations as soon as they expire
+            long nextMaintenance = System.currentTimeMillis() + Math.max(1, pingInterval / 2) * 1000L;
+            while (!isThreadNeedsToFinish && System.currentTimeMillis() < nextMaintenance) {
                 try {
-                    reingestTask.execute();
-                }
-                catch (DepositorException e) {
-                    Log.error("Can not reingest...", e);
+                    expiryScheduler.awaitExpiry(nextMaintenance);
                 }
-            }
-
-            // if all currently finished sessions of the configuration was repaired in a meantime,
-            // the configuration is not 'failed' any more
-            // and deposit service can accept new content files for the configuration
-            if (!stillFailed) {
-                synchronized (failedConfigurations) {
-                    failedConfigurations.remove(configId);
+                catch (InterruptedException e) {
+                    LOG.error("Something wrong: " + e.getMessage());
                 }
+                processExpiredConfigurations();
             }
         }
     }
 
-    private void addTask(
-        List<ReingestTask> list, Properties configuration, Vector<ItemSession> oldSessionsForConfiguration,
-        ItemSession is) {
-        list.add(new ReingestTask(this, configuration, is.getContentFile(), is.getConfigurationDirectory(), is
-            .getProvidedCheckSum()));
-        oldSessionsForConfiguration.add(is);
-    }
-
-    private boolean isFinishedAndStillFailed(ItemSession is) {
-        return is.isFinished() && is.isSessionFailed();
+    private void compactJournal() {
+        try {
+            journal.compactIfNeeded();
+        }
+        catch (IOException e) {
+            LOG.warn("Can not compact the session journal: " + e.getMessage());
+        }
     }
 
-    private boolean isFailed(String configId) {
-        return failedConfigurations.containsKey(configId);
+    private void reportRejections() {
+        long rejections = admissionController.getRejectedCount();
+        if (rejections > reportedRejections) {
+            LOG.warn((rejections - reportedRejections) + " requests were rejected since the last check, "
+                + admissionController.getAdmittedCount() + " requests were admitted and " + rejections
+                + " were rejected since start up. Consider to increase " + PROP_MAX_THREAD_NUMBER + ".");
+            reportedRejections = rejections;
+        }
     }
 
-    // FIXME this method does nothing
-    private void sendPingToCore(Vector<String> containerIds, Properties configuration) {
-        // monitoring time is not over, ping a container for
-        // the configuration
-        String containerId = configuration.getProperty(Constants.PROPERTY_EXPERIMENT_ID);
-        if (!containerIds.contains(containerId)) {
-            containerIds.add(containerId);
+    private void evictIdleClients() {
+        int evicted = clientRegistry.evictIdle();
+        if (evicted > 0) {
+            LOG.debug("Evicted " + evicted + " idle infrastructure clients, " + clientRegistry.getIdleCount()
+                + " are idle, " + clientRegistry.getCreatedCount() + " were created and "
+                + clientRegistry.getReusedCount() + " reused since start up.");
         }
     }
 
     /**
-     * Method checks if the monitoring time of a provided configuration is over.
+     * Method keeps the running totals of the staging space up to date, when a content file changes its state.
      * 
-     * @param configuration
-     * @return
+     * @param configId
+     * @param from
+     *            the state before or <code>null</code> if the content file is new
+     * @param to
+     *            the state after or <code>null</code> if the content file is deleted
+     * @param bytes
+     *            size of the content file
      */
-    private static boolean isMonitoringTimeOver(Properties configuration) {
-        String monitoringStartTime = configuration.getProperty(Constants.PROPERTY_MONITORING_START_TIME);
-        if (monitoringStartTime == null) {
-            return false;
+    private void accountContentFile(
+        final String configId, FileNameIndex.State from, FileNameIndex.State to, long bytes) {
+        long pendingIngest = (isToProcess(to) ? bytes : 0) - (isToProcess(from) ? bytes : 0);
+        long reclaimable =
+            (to == FileNameIndex.State.SUCCESSFUL ? bytes : 0) - (from == FileNameIndex.State.SUCCESSFUL ? bytes : 0);
+        if (pendingIngest == 0 && reclaimable == 0) {
+            return;
         }
-        DateTimeZone.setDefault(DateTimeZone.UTC);
+        ConfigurationState state = configurations.get(configId);
+        if (state != null && state.addContentFileBytes(pendingIngest, reclaimable)) {
+            stagingSpaceGuard.addContentFileBytes(pendingIngest, reclaimable);
+        }
+    }
 
-        DateTime startTime = new DateTime(monitoringStartTime);
-        String monitoringDuration = configuration.getProperty(Constants.PROPERTY_TIME_MONITORING_DURATION);
+    // the size of a content file is looked up only, if it is counted differently after the change of its state
+    private void accountContentFile(
+        final String configId, final String fileName, FileNameIndex.State from, FileNameIndex.State to) {
+        if (isToProcess(from) == isToProcess(to)
+            && (from == FileNameIndex.State.SUCCESSFUL) == (to == FileNameIndex.State.SUCCESSFUL)) {
+            return;
+        }
+        ConfigurationState state = configurations.get(configId);
+        String dirName = state == null ? null : state.getDirectoryPath();
+        if (dirName != null) {
+            accountContentFile(configId, from, to, getContentFile(new File(baseDir, dirName), fileName).length());
+        }
+    }
 
-        int monitoringDurationMinutes = Integer.parseInt(monitoringDuration);
-        DateTime endTime = startTime.plusMinutes(monitoringDurationMinutes);
+    private void processExpiredConfigurations() {
+        long now = System.currentTimeMillis();
+        for (String configId : expiryScheduler.pollExpired(now)) {
+            if (reingestJob.getPendingCount(configId) > 0) {
+                // content files being reingested must not be removed, try again later
+                expiryScheduler.schedule(configId, now + EXPIRY_RETRY_MILLIS);
+            }
+            else {
+                cleanUpExpiredConfiguration(configId);
+            }
+        }
+    }
 
-        return endTime.isBeforeNow();
+    private void reingestFailedConfigurations() {
+        long now = System.currentTimeMillis();
+        for (ConfigurationState state : configurations.getFailed()) {
+            if (!isExpired(state, now)) {
+                reingestFailedIngest(state);
+            }
+        }
     }
 
-    // ////////////////////////////////////////////////////////////////////////
+    private boolean isExpired(ConfigurationState state, long now) {
+        return state.isExpiredSinceLastRun() || expiryScheduler.isExpired(state.getConfigurationId(), now);
+    }
 
-    /**
-     * Method adds a session to the map of tracked sessions of a configuration with a provided id.
-     */
-    protected void addSession(ItemSession session, String configurationId) {
-        synchronized (sessions) {
-            Vector<ItemSession> configurationSessions = sessions.get(configurationId);
-            if (configurationSessions == null) {
-                configurationSessions = new Vector<ItemSession>();
+    // if the configuration was already expired to restart
+    // time of Depositor or if a monitoring time for the
+    // configuration is over, clean up sessions for the
+    // configuration
+    private void cleanUpExpiredConfiguration(String configId) {
+        cleanupSessions(configId);
+    }
 
-            }
-            configurationSessions.add(session);
-            sessions.put(configurationId, configurationSessions);
+    private void processFromLastRun() {
+        // processing content files from last run of a Deposit service,
+        // happens only once after restart of the Deposit service
+        for (String configId : dirsFromLastRunToProcess.keySet()) {
+            File dirToProcess = dirsFromLastRunToProcess.get(configId);
+            processContentFiles(dirToProcess, configId);
+        }
+
+        dirsFromLastRunToProcess = new HashMap<String, File>();
+    }
+
+    private void reingestFailedIngest(ConfigurationState state) {
+        // try to store failed content files of failed configurations into infrastructure
+        String configId = state.getConfigurationId();
+        List<ItemSession> failedSessions = state.removeFailedSessions();
+        if (failedSessions == null) {
+            // content files restored from the last run have no sessions, they are reingested by the reingest job
+            return;
+        }
+        for (ItemSession itemSession : failedSessions) {
+            reingestJob.submit(configId, new ReingestTask(this, state.getConfiguration(), itemSession.getContentFile(),
+                itemSession.getConfigurationDirectory(), itemSession.getContentDigests()));
         }
+
+        // if all currently finished sessions of the configuration was repaired in a meantime,
+        // the configuration is not 'failed' any more
+        // and deposit service can accept new content files for the configuration
+        if (failedSessions.isEmpty() && reingestJob.getPendingCount(configId) == 0) {
+            state.setFailed(false);
+        }
+    }
+
+    private boolean isFailed(String configId) {
+        ConfigurationState state = configurations.get(configId);
+        return state != null && state.isFailed();
+    }
+
+    /**
+     * @param configId
+     * @return the properties of a registered configuration with a provided id or <code>null</code>
+     */
+    private Properties getConfiguration(String configId) {
+        ConfigurationState state = configurations.get(configId);
+        return state == null ? null : state.getConfiguration();
     }
 
+    // ////////////////////////////////////////////////////////////////////////
+
     /**
      * Method adds a configuration to a map with failed configurations.
      * 
      * @param configurationId
      */
     public void addToFailedConfigurations(final String configurationId) {
-        synchronized (failedConfigurations) {
-            if (!isFailed(configurationId)) {
-                failedConfigurations.put(configurationId, configurations.get(configurationId));
-            }
+        ConfigurationState state = configurations.get(configurationId);
+        if (state != null) {
+            state.setFailed(true);
         }
     }
 
@@ -524,7 +1098,8 @@ public class SessionManager extends Thread {
         IngestException {
         FileIngester ingester =
             buildFileIngester(configProperties, configFile,
-                configurationDirPathes.get(configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID)));
+                configurations.get(configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID))
+                    .getDirectoryPath());
 
         LOG.debug("ingesting configuration");
         ingester.setForceCreate(true);
@@ -557,14 +1132,21 @@ public class SessionManager extends Thread {
     }
 
     public void registerConfiguration(Configuration configProperties) {
-        synchronized (configurations) {
-            configurations.put(configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID), configProperties);
-        }
+        configurations.getOrCreate(configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID)).register(
+            configProperties);
+        expiryScheduler.schedule(configProperties.getProperty(Configuration.PROPERTY_CONFIGURATION_ID),
+            ExpiryScheduler.getExpiry(configProperties));
     }
 
-    public void checkIfAlreadyExists(String configurationId) throws AlreadyExistException {
-        if (configurations.containsKey(configurationId) || expiredSuccessfulConfigurations.containsKey(configurationId)
-            || failedExpiredConfDir.containsKey(configurationId)) {
+    /**
+     * Method reserves the id of a new configuration, so a configuration with the same id is rejected until the
+     * registration is finished or cancelled.
+     * 
+     * @param configurationId
+     * @throws AlreadyExistException
+     */
+    public void beginRegistration(String configurationId) throws AlreadyExistException {
+        if (!configurations.beginRegistration(configurationId)) {
             String message = "Configuration " + configurationId + " already exists.";
             LOG.error(message);
             throw new AlreadyExistException(message);
@@ -572,165 +1154,717 @@ public class SessionManager extends Thread {
     }
 
     /**
-     * Removes a configuration file and configuration directory from a file system.
+     * Method forgets a configuration, whose registration failed after {@link #beginRegistration(String)}.
+     * 
+     * @param configurationId
+     */
+    public void cancelRegistration(String configurationId) {
+        fileNameIndex.remove(configurationId);
+        if (journal.contains(configurationId)) {
+            removeFromJournal(configurationId);
+        }
+        configurations.cancelRegistration(configurationId);
+    }
+
+    /**
+     * Removes a configuration file and configuration directory from a file system.
+     * 
+     * @param configFile
+     */
+    private void deleteConfigFile(File configFile) {
+        String confDirectoryName = configFile.getParent();
+        configFile.delete();
+        File parentDirectory = new File(confDirectoryName);
+        if (parentDirectory.exists()) {
+            parentDirectory.delete();
+        }
+    }
+
+    /**
+     * Method creates a new configuration directory for a provided configuration with a currently time stamp as a name
+     * and save a configuration file within it.
+     * 
+     * @param configuration
+     * @param configurationId
+     * @return File with a created configuration directory.
+     * @throws DepositorException
+     */
+    public File saveInLocalFileSystem(Properties configuration) throws DepositorException {
+
+        LOG.debug("saving configuration in local file system");
+        DateTimeZone.setDefault(DateTimeZone.UTC);
+        DateTime currentTime = new DateTime();
+        DateTimeFormatter fmt = DateTimeFormat.forPattern(PATH_FORMAT);
+        String configurationDirectoryName;
+        try {
+            configurationDirectoryName =
+                DirectoryLayout.createConfigurationDirectory(baseDir,
+                    configuration.getProperty(Configuration.PROPERTY_CONFIGURATION_ID), currentTime.toString(fmt));
+        }
+        catch (IOException e) {
+            LOG.error(e.getMessage());
+            throw new DepositorException(e.getMessage());
+        }
+        File configurationDirectory = new File(baseDir, configurationDirectoryName);
+        File configurationFile = new File(configurationDirectory, Constants.CONFIGURATION_FILE_NAME);
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(configurationFile);
+        }
+        catch (FileNotFoundException e) {
+            LOG.error(e.getMessage());
+            throw new DepositorException(e.getMessage());
+        }
+        try {
+            configuration.storeToXML(os, null);
+            os.flush();
+            os.close();
+            String configId = configuration.getProperty(Configuration.PROPERTY_CONFIGURATION_ID);
+            configurations.getOrCreate(configId).setDirectoryPath(configurationDirectoryName);
+            journal.create(configId);
+            fileNameIndex.load(configId, journal.getStates(configId));
+
+        }
+        catch (IOException e) {
+            LOG.error(e.getMessage());
+            throw new DepositorException(e.getMessage());
+        }
+        return configurationFile;
+    }
+
+    /**
+     * Method checks if a configuration-session is being cleaned at the moment by another thread. In this case it waits
+     * before the other thread finished. If a configuration-session is not being cleaned by another thread and did not
+     * expire yet, method calls a clean method cleanupSessions(). Then it removes the registration of the
+     * configuration.
+     * 
+     * @param configId
+     * @throws ApplicationException
+     * @throws DepositorException
+     */
+    public void deleteConfiguration(final String configId) throws ApplicationException, DepositorException {
+        ConfigurationState state = getDeletableConfiguration(configId);
+        // cleanup session for the configuration, unless it already expired
+        while (!cleanupSessions(configId)) {
+            CountDownLatch cleaning = state.getCleaning();
+            if (cleaning == null) {
+                break;
+            }
+            // wait until the thread cleaning this configuration is
+            // finished
+            awaitUninterruptibly(cleaning);
+        }
+        state.unregister();
+    }
+
+    /**
+     * Method submits a deletion of a configuration with a provided id to the deletion job, which calls
+     * deleteConfiguration() in the background. If the configuration is being deleted already, the running deletion is
+     * returned, so concurrent requests are collapsed into one deletion.
+     * 
+     * @param configId
+     * @return the deletion, its state can be requested by getDeletion()
+     * @throws ApplicationException
+     *             if the configuration is not registered
+     * @throws DepositorException
+     */
+    public DeletionJob.Deletion deleteConfigurationAsync(final String configId) throws ApplicationException,
+        DepositorException {
+        DeletionJob.Deletion deletion = deletionJob.getDeletion(configId);
+        if (deletion != null && !deletion.isFinished()) {
+            return deletion;
+        }
+        ConfigurationState state = getDeletableConfiguration(configId);
+        // content files are rejected from now on, not only once a worker starts the deletion
+        boolean isClosed = state.beginDeletion();
+        try {
+            return deletionJob.submit(configId);
+        }
+        catch (ServiceUnavailableException e) {
+            if (isClosed) {
+                state.cancelDeletion();
+            }
+            throw e;
+        }
+    }
+
+    private ConfigurationState getDeletableConfiguration(final String configId) throws ApplicationException,
+        DepositorException {
+        ConfigurationState state = configurations.get(configId);
+        if (state != null && state.getPhase() == ConfigurationState.Phase.FAILED_EXPIRED) {
+            String message =
+                "Can not delete the configuration: depositor could not store some content "
+                    + "files for this configuration into the infrastracture.";
+            LOG.error(message);
+            throw new DepositorException(message);
+        }
+        if (state == null || !state.isRegistered()) {
+            String message = "Depositor can not find a configuration with the id " + configId + ".";
+            LOG.error(message);
+            throw new ApplicationException(message);
+        }
+        return state;
+    }
+
+    /**
+     * @param configId
+     * @return the last deletion of a configuration with a provided id, submitted by deleteConfigurationAsync(), or
+     *         <code>null</code> if there is none or it is finished for a long time
+     */
+    public DeletionJob.Deletion getDeletion(final String configId) {
+        return deletionJob.getDeletion(configId);
+    }
+
+    /**
+     * Method calls a method putMonitoringStartTimeIntoConfigurationIfMissing() to check if a configuration with a
+     * provided id contains a property Monitoring Start Time and put it into a configuration if it is missing. Then it
+     * reads a provided input stream, checks if a provided check sum is valid and save a content into a configuration
+     * directory for a configuration with a provided id. If a check sum is valid, it starts a new thread to store a
+     * content as an item into a container in the infrastructure for the configuration.
+     * 
+     * @param configId
+     * @param checkSumValue
+     * @param is
+     * @param fileName
+     * @return true - if a check sum is valid, false - otherwise
+     * @throws ApplicationException
+     * @throws DepositorException
+     */
+    public boolean refactorNameOfThisMethod(
+        final String configId, final String checkSumValue, final InputStream is, final String fileName)
+        throws ApplicationException, DepositorException {
+
+        File content = prepareContentFile(configId, fileName);
+        PipelinedTransfer transfer = openPipelinedTransfer(configId);
+        ContentDigests digests;
+        try {
+            digests = storeFileAndCalculateChecksum(configId, is, content, transfer);
+        }
+        catch (DepositorException e) {
+            rollback(transfer);
+            discardContentFile(configId, content);
+            throw e;
+        }
+        if (isCheckSumEquals(configId, digests, checkSumValue)) {
+            storeChecksums(digests, content);
+            ingestFileAsync(configId, digests, content.getParentFile(), content, commit(transfer));
+            return true;
+        }
+
+        rollback(transfer);
+        discardContentFile(configId, content);
+        return false;
+    }
+
+    /**
+     * Method checks if a content file with a provided name may be stored for a configuration with a provided id.
+     * 
+     * @param configId
+     * @param fileName
+     * @return the content file to store
+     * @throws ApplicationException
+     * @throws DepositorException
+     */
+    public File prepareContentFile(final String configId, final String fileName) throws ApplicationException,
+        DepositorException {
+        checkPreconditions(configId);
+        File configurationDirectory = new File(baseDir, configurations.get(configId).getDirectoryPath());
+        checkIfExists(configId, configurationDirectory);
+        reserveFileName(configId, fileName);
+        putMonitoringStartTimeIntoConfigurationIfMissing(configId);
+        return DirectoryLayout.createContentFile(configurationDirectory, fileName);
+    }
+
+    /**
+     * Method deletes a content file, which is referred to by the content store, and its blob if it is not referred
+     * to any more.
+     * 
+     * @param content
+     * @return true if the content file was deleted
+     */
+    public boolean releaseContentFile(File content) {
+        return contentStore.release(content);
+    }
+
+    public StagingBufferPool getStagingBuffers() {
+        return stagingBuffers;
+    }
+
+    public IngestBatcher getIngestBatcher() {
+        return ingestBatcher;
+    }
+
+    public InfrastructureClientRegistry getClientRegistry() {
+        return clientRegistry;
+    }
+
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+    /**
+     * Method deletes a content file, which was not accepted, and frees its name.
+     * 
+     * @param configId
+     * @param content
+     */
+    public void discardContentFile(final String configId, File content) {
+        FileNameIndex.State state = fileNameIndex.getState(configId, content.getName());
+        long bytes = content.length();
+        content.delete();
+        releaseFileName(configId, content.getName());
+        accountContentFile(configId, state, null, bytes);
+    }
+
+    /**
+     * Method records a new processing state of a content file in the journal and in the file name index. If the
+     * journal can not be written, the state is not changed, because it would be lost on restart.
+     * 
+     * @param configId
+     * @param fileName
+     *            name of the content file as it was sent
+     * @param state
+     * @throws DepositorException
+     *             if the state can not be made durable
+     */
+    public void recordContentFileState(final String configId, final String fileName, FileNameIndex.State state)
+        throws DepositorException {
+        FileNameIndex.State from = fileNameIndex.getState(configId, fileName);
+        try {
+            journal.update(configId, fileName, state);
+        }
+        catch (IOException e) {
+            String message =
+                "Can not record the state " + state + " of the content file " + fileName
+                    + " for a configuration with id " + configId + ": " + e.getMessage();
+            LOG.error(message);
+            throw new DepositorException(message, e);
+        }
+        fileNameIndex.update(configId, fileName, state);
+        accountContentFile(configId, fileName, from, state);
+    }
+
+    // the name of a deleted content file is free again
+    private void releaseFileName(final String configId, final String fileName) {
+        try {
+            journal.release(configId, fileName);
+        }
+        catch (IOException e) {
+            LOG.error("Can not release the content file " + fileName + " for a configuration with id " + configId
+                + ": " + e.getMessage());
+        }
+        fileNameIndex.release(configId, fileName);
+    }
+
+    /**
+     * Method checks if a provided check sum matches the digests of a content file, which was staged outside of this
+     * class. In this case a new session stores the content file into the infrastructure, otherwise the content file is
+     * deleted.
+     * 
+     * @param configId
+     * @param checkSumValue
+     * @param content
+     *            content file prepared by {@link #prepareContentFile(String, String)}
+     * @param digests
+     *            completed digests of the content file
+     * @param transfer
+     *            transfer opened by {@link #openPipelinedTransfer(String)}, which received the content file while it
+     *            was staged, or <code>null</code>
+     * @return true - if a check sum is valid, false - otherwise
+     * @throws DepositorException
+     */
+    public boolean storeStagedContent(
+        final String configId, final String checkSumValue, File content, ContentDigests digests,
+        PipelinedTransfer transfer) throws DepositorException {
+        if (isCheckSumEquals(configId, digests, checkSumValue)) {
+            storeChecksums(digests, content);
+            ingestFileAsync(configId, digests, content.getParentFile(), content, commit(transfer));
+            return true;
+        }
+        rollback(transfer);
+        discardContentFile(configId, content);
+        return false;
+    }
+
+    /**
+     * Method opens a transfer of a content file to the infrastructure of a configuration, if the pipelined ingest is
+     * enabled.
      * 
-     * @param configFile
+     * @param configId
+     * @return the transfer or <code>null</code> if pipelined ingest is disabled or the infrastructure can not be
+     *         connected
      */
-    private void deleteConfigFile(File configFile) {
-        String confDirectoryName = configFile.getParent();
-        configFile.delete();
-        File parentDirectory = new File(confDirectoryName);
-        if (parentDirectory.exists()) {
-            parentDirectory.delete();
+    public PipelinedTransfer openPipelinedTransfer(final String configId) {
+        if (!isPipelinedIngest) {
+            return null;
+        }
+        Properties configuration = getConfiguration(configId);
+        try {
+            return new PipelinedTransfer(configuration.getProperty(Constants.PROPERTY_INFRASTRUCTURE_ENDPOINT),
+                configuration.getProperty(Constants.PROPERTY_USER_HANDLE));
+        }
+        catch (IOException e) {
+            LOG.warn("Can not open a pipelined transfer for the configuration with id " + configId + ": "
+                + e.getMessage());
+            return null;
+        }
+    }
+
+    private static URL commit(PipelinedTransfer transfer) {
+        if (transfer == null) {
+            return null;
+        }
+        try {
+            return transfer.commit();
+        }
+        catch (IOException e) {
+            LOG.warn("Pipelined transfer failed, the content file will be ingested from the file system: "
+                + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void rollback(PipelinedTransfer transfer) {
+        if (transfer != null) {
+            transfer.rollback();
         }
     }
 
     /**
-     * Method creates a new configuration directory for a provided configuration with a currently time stamp as a name
-     * and save a configuration file within it.
+     * Method appends a part of a content file, sent in several parts, to the partial file in the configuration
+     * directory. If the part is the last one, it checks if a provided check sum is valid. In this case the partial file
+     * becomes the content file and a new session stores it into the infrastructure, otherwise the partial file is
+     * deleted.
      * 
-     * @param configuration
-     * @param configurationId
-     * @return File with a created configuration directory.
+     * @param configId
+     * @param fileName
+     * @param range
+     * @param checkSumValue
+     *            required with the last part only
+     * @param is
+     * @return offset committed after the part
+     * @throws ApplicationException
      * @throws DepositorException
      */
-    public File saveInLocalFileSystem(Properties configuration) throws DepositorException {
+    public long storeContentRange(
+        final String configId, final String fileName, final ContentRange range, final String checkSumValue,
+        final InputStream is) throws ApplicationException, DepositorException {
 
-        LOG.debug("saving configuration in local file system");
-        DateTimeZone.setDefault(DateTimeZone.UTC);
-        DateTime currentTime = new DateTime();
-        DateTimeFormatter fmt = DateTimeFormat.forPattern(PATH_FORMAT);
-        String configurationDirectoryName = currentTime.toString(fmt);
-        File configurationDirectory = new File(baseDir, configurationDirectoryName);
-        configurationDirectory.mkdirs();
-        File configurationFile = new File(configurationDirectory, Constants.CONFIGURATION_FILE_NAME);
-        FileOutputStream os = null;
+        checkPreconditions(configId);
+        File configurationDirectory = new File(baseDir, configurations.get(configId).getDirectoryPath());
+        checkIfExists(configId, configurationDirectory);
+        ResumableUpload upload = getResumableUpload(configId, fileName, configurationDirectory);
+        putMonitoringStartTimeIntoConfigurationIfMissing(configId);
+
+        long offset;
         try {
-            os = new FileOutputStream(configurationFile);
+            offset = upload.append(is, range, stagingBuffers);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             LOG.error(e.getMessage());
-            throw new DepositorException(e.getMessage());
+            throw new DepositorException(e.getMessage(), e);
+        }
+        if (!range.isLast()) {
+            return offset;
         }
-        try {
-            configuration.storeToXML(os, null);
-            os.flush();
-            os.close();
-            synchronized (configurationDirPathes) {
-                configurationDirPathes.put(configuration.getProperty(Configuration.PROPERTY_CONFIGURATION_ID),
-                    configurationDirectoryName);
-            }
 
+        resumableUploads.remove(getResumableUploadKey(configId, fileName));
+        ContentDigests digests = upload.complete();
+        File partial = upload.getPartialFile();
+        if (!isCheckSumEquals(configId, digests, checkSumValue)) {
+            partial.delete();
+            releaseFileName(configId, fileName);
+            String message =
+                "A calculated check sum of the content file " + fileName + " does not match the provided check sum.";
+            LOG.error(message);
+            throw new WrongChecksumException(message);
         }
-        catch (IOException e) {
-            LOG.error(e.getMessage());
-            throw new DepositorException(e.getMessage());
+        File content = DirectoryLayout.createContentFile(configurationDirectory, fileName);
+        if (!partial.renameTo(content)) {
+            String message = "Can not rename the partial file " + partial.getName() + " to " + fileName + ".";
+            LOG.error(message);
+            throw new DepositorException(message);
         }
-        return configurationFile;
+        storeChecksums(digests, content);
+        ingestFileAsync(configId, digests, configurationDirectory, content, null);
+        return offset;
     }
 
     /**
-     * Method checks if a configuration-session is being cleaned at the moment by another thread. In this case it waits
-     * before the other thread finished, reads the result of the clean operation and throws an exception if the clean
-     * operation could not be successful performed. If a configuration-session is not being cleaned by another thread,
-     * method calls a clean method cleanupSessions() and then removes a configuration from a map with registered
-     * configurations.
+     * Method returns the number of bytes of a content file, sent in several parts, which are stored so far.
      * 
      * @param configId
+     * @param fileName
+     * @return committed offset, 0 if no part was stored so far
      * @throws ApplicationException
-     * @throws DepositorException
      */
-    public void deleteConfiguration(final String configId) throws ApplicationException, DepositorException {
-
-        if (failedExpiredConfDir.containsKey(configId)) {
-            String message =
-                "Can not delete the configuration: depositor could not store some content "
-                    + "files for this configuration into the infrastracture.";
+    public long getCommittedOffset(final String configId, final String fileName) throws ApplicationException {
+        ConfigurationState state = configurations.get(configId);
+        String confDirectoryName = state == null ? null : state.getDirectoryPath();
+        if (state == null || !state.isRegistered() || confDirectoryName == null) {
+            String message = "Can not find a configuration with the id " + configId + ".";
             LOG.error(message);
-            throw new DepositorException(message);
+            throw new ApplicationException(message);
+        }
+        ResumableUpload upload = resumableUploads.get(getResumableUploadKey(configId, fileName));
+        if (upload != null) {
+            return upload.getOffset();
         }
+        return ResumableUpload.getPartialFile(
+            DirectoryLayout.getContentDirectory(new File(baseDir, confDirectoryName), fileName), fileName).length();
+    }
 
-        if (!isCleaning.contains(configId)) {
-            synchronized (configurations) {
-                if (!configurations.containsKey(configId)) {
-                    String message = "Depositor can not find a configuration with the id " + configId + ".";
-                    LOG.error(message);
-                    throw new ApplicationException(message);
-                }
-                // the configuration is not deleting at the moment by any
-                // different thread and the configuration is registered,
-                // cleanup session for the configuration
-                cleanupSessions(configId);
-                configurations.remove(configId);
-            }
+    private ResumableUpload getResumableUpload(
+        final String configId, final String fileName, final File configurationDirectory)
+        throws AlreadyExistException, DepositorException {
+        String key = getResumableUploadKey(configId, fileName);
+        ResumableUpload upload = resumableUploads.get(key);
+        if (upload != null) {
+            return upload;
+        }
+        ContentDigests digests = createContentDigests(configId);
+        File contentDirectory = DirectoryLayout.getContentDirectory(configurationDirectory, fileName);
+        boolean isReserved = false;
+        if (!ResumableUpload.getPartialFile(contentDirectory, fileName).exists()) {
+            reserveFileName(configId, fileName);
+            isReserved = true;
         }
         else {
-            // wait until the thread cleaning this configuration is
-            // finished
-            while (isCleaning.contains(configId)) {
-                try {
-                    Thread.sleep(250);
-                }
-                catch (Exception e) {
-                }
+            checkReservedFileName(configId, fileName);
+        }
+        try {
+            contentDirectory.mkdirs();
+            upload = ResumableUpload.open(contentDirectory, fileName, digests);
+        }
+        catch (IOException e) {
+            if (isReserved) {
+                releaseFileName(configId, fileName);
             }
+            LOG.error(e.getMessage());
+            throw new DepositorException(e.getMessage(), e);
         }
+        ResumableUpload existing = resumableUploads.putIfAbsent(key, upload);
+        return existing == null ? upload : existing;
+    }
+
+    private static String getResumableUploadKey(final String configId, final String fileName) {
+        return configId + "/" + fileName;
     }
 
     /**
-     * Method calls a method putMonitoringStartTimeIntoConfigurationIfMissing() to check if a configuration with a
-     * provided id contains a property Monitoring Start Time and put it into a configuration if it is missing. Then it
-     * reads a provided input stream, checks if a provided check sum is valid and save a content into a configuration
-     * directory for a configuration with a provided id. If a check sum is valid, it starts a new thread to store a
-     * content as an item into a container in the infrastructure for the configuration.
+     * Method stores all content files of a ZIP archive, sent in one request. The archive is unpacked while it is
+     * read; every entry is validated against its check sum from the {@link #ARCHIVE_CHECKSUMS_ENTRY} and a new session
+     * stores every valid content file into the infrastructure. An invalid entry does not affect the other entries.
+     * The entries are written decompressed, so the reservation is extended as they grow; if it can not be extended,
+     * the remaining entries are not stored.
      * 
      * @param configId
-     * @param checkSumValue
      * @param is
-     * @param fileName
-     * @return true - if a check sum is valid, false - otherwise
+     *            stream with the archive, it is closed by this method
+     * @param reservation
+     *            staging space reserved for the archive, it is consumed by the decompressed entries
+     * @return result for every entry of the archive
      * @throws ApplicationException
      * @throws DepositorException
      */
-    public boolean refactorNameOfThisMethod(
-        final String configId, final String checkSumValue, final InputStream is, final String fileName)
+    public BatchResult storeArchive(
+        final String configId, final InputStream is, final StagingSpaceGuard.Reservation reservation)
         throws ApplicationException, DepositorException {
 
         checkPreconditions(configId);
-        File configurationDirectory = new File(baseDir, configurationDirPathes.get(configId));
+        File configurationDirectory = new File(baseDir, configurations.get(configId).getDirectoryPath());
         checkIfExists(configId, configurationDirectory);
-        checkFileName(configId, fileName, configurationDirectory);
         putMonitoringStartTimeIntoConfigurationIfMissing(configId);
 
-        File content = new File(configurationDirectory, fileName);
-        MessageDigest digest = storeFileAndCalculateChecksum(configId, is, content);
-        if (isCheckSumEquals(digest, checkSumValue)) {
-            ingestFileAsync(configId, checkSumValue, configurationDirectory, content);
-            return true;
+        Properties checksums = new Properties();
+        BatchResult result = new BatchResult(configId);
+        ZipInputStream zis = new ZipInputStream(is);
+        // reads the current entry of the archive
+        InputStream entryStream = reservation.trackExtending(zis);
+        String fileName = null;
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                fileName = entry.getName();
+                if (ARCHIVE_CHECKSUMS_ENTRY.equals(fileName)) {
+                    checksums.load(zis);
+                }
+                else if (!entry.isDirectory()) {
+                    storeArchiveEntry(configId, configurationDirectory, fileName, checksums.getProperty(fileName),
+                        entryStream, result);
+                }
+            }
+        }
+        catch (IOException e) {
+            LOG.error("Can not read the archive for the configuration with id " + configId + ": " + e.getMessage());
+            result.add(fileName, BatchResult.Status.FAILED, e.getMessage());
+            result.setIncomplete();
+        }
+        finally {
+            try {
+                zis.close();
+            }
+            catch (IOException e) {
+                LOG.error(e.getMessage());
+            }
         }
+        LOG.info("Stored " + result.getStoredCount() + " of " + result.getEntries().size()
+            + " content files from an archive for the configuration with id " + configId + ".");
+        return result;
+    }
 
-        content.delete();
-        return false;
+    private void storeArchiveEntry(
+        final String configId, File configurationDirectory, String fileName, String checkSumValue, InputStream is,
+        BatchResult result) throws IOException {
+        // such an entry can not be stored as a content file, but the other entries of the archive are stored
+        if (fileName.indexOf('/') >= 0 || fileName.indexOf('\\') >= 0) {
+            result.add(fileName, BatchResult.Status.FAILED, "Directories are not supported.");
+            return;
+        }
+        if (fileName.length() == 0 || ".".equals(fileName) || "..".equals(fileName)) {
+            result.add(fileName, BatchResult.Status.FAILED, "The file name is not valid.");
+            return;
+        }
+        if (checkSumValue == null) {
+            result.add(fileName, BatchResult.Status.MISSING_CHECKSUM, null);
+            return;
+        }
+        try {
+            checkReservedFileName(configId, fileName);
+        }
+        catch (AlreadyExistException e) {
+            result.add(fileName, BatchResult.Status.REJECTED, e.getMessage());
+            return;
+        }
+        if (!fileNameIndex.reserve(configId, fileName)) {
+            result.add(fileName, BatchResult.Status.ALREADY_EXISTS, null);
+            return;
+        }
+        try {
+            recordContentFileState(configId, fileName, FileNameIndex.State.RESERVED);
+        }
+        catch (DepositorException e) {
+            fileNameIndex.release(configId, fileName);
+            result.add(fileName, BatchResult.Status.FAILED, e.getMessage());
+            return;
+        }
+
+        File content = DirectoryLayout.createContentFile(configurationDirectory, fileName);
+        ContentDigests digests;
+        try {
+            digests = createContentDigests(configId);
+        }
+        catch (DepositorException e) {
+            releaseFileName(configId, fileName);
+            result.add(fileName, BatchResult.Status.FAILED, e.getMessage());
+            return;
+        }
+        try {
+            stagingBuffers.transfer(is, content, digests.getMessageDigests());
+        }
+        catch (IOException e) {
+            discardContentFile(configId, content);
+            throw e;
+        }
+        digests.complete();
+        if (!isCheckSumEquals(configId, digests, checkSumValue.trim())) {
+            discardContentFile(configId, content);
+            result.add(fileName, BatchResult.Status.CHECKSUM_MISMATCH, null);
+            return;
+        }
+        storeChecksums(digests, content);
+        try {
+            ingestFileAsync(configId, digests, configurationDirectory, content, null);
+            result.add(fileName, BatchResult.Status.STORED, null);
+        }
+        catch (DepositorException e) {
+            // the content file is deleted, if the ingest pool is exhausted
+            result.add(fileName, BatchResult.Status.FAILED, e.getMessage());
+        }
+    }
+
+    private static void storeChecksums(ContentDigests digests, File content) {
+        try {
+            digests.store(content);
+        }
+        catch (IOException e) {
+            // without a sidecar the content file is hashed again after a restart
+            LOG.warn("Can not store checksums of the content file " + content.getName() + ": " + e.getMessage());
+        }
     }
 
     private void ingestFileAsync(
-        final String configId, final String checkSumValue, File configurationDirectory, File content)
-        throws DepositorException {
+        final String configId, final ContentDigests digests, File configurationDirectory, File content,
+        URL stagedContent) throws DepositorException {
         // now, content from the request is stored and validated.
-        // create a session and start it. The session computed all additional
+        // create a session and submit it to the ingest pool. The session computed all additional
         // information and stores the content as component content in an item in
         // the eSciDoc Infrastructure.
-        new ItemSession(this, configurations.get(configId), content, configurationDirectory, checkSumValue).start();
+        try {
+            recordContentFileState(configId, content.getName(), FileNameIndex.State.STORED);
+        }
+        catch (DepositorException e) {
+            ContentDigests.deleteSidecar(content);
+            discardContentFile(configId, content);
+            throw e;
+        }
+        String algorithm = getChecksumAlgorithm(configId);
+        contentStore.deduplicate(content, algorithm, digests.getChecksum(algorithm));
+        ItemSession session =
+            new ItemSession(this, getConfiguration(configId), content, configurationDirectory, digests);
+        session.setStagedContent(stagedContent);
+        submitSession(session, configId);
+    }
+
+    /**
+     * Method registers a provided session for a configuration with a provided id and submits it to the ingest pool.
+     * If the pool and its queue are exhausted, the session is unregistered again and an exception is thrown.
+     * 
+     * @param session
+     * @param configId
+     * @throws DepositorException
+     */
+    private void submitSession(ItemSession session, String configId) throws DepositorException {
+        ConfigurationState state = configurations.get(configId);
+        if (!state.addSession(session)) {
+            // the configuration expired or was deleted while the content file was stored
+            session.cancel();
+            discardContentFile(configId, session);
+            String message = "A session for the configuration with " + configId + " is expired.";
+            LOG.error(message);
+            throw new DepositorException(message);
+        }
+        try {
+            ingestScheduler.execute(configId, getIngestWeight(configId), session);
+        }
+        catch (RejectedExecutionException e) {
+            state.removeSession(session);
+            session.cancel();
+            discardContentFile(configId, session);
+            LOG.error(ERR_MAX_THREADS_);
+            throw new ServiceUnavailableException(ERR_MAX_THREADS_, admissionController.getRetryAfterSeconds(), e);
+        }
+    }
+
+    // the content file of a session, which was not submitted, is released in the content store
+    private void discardContentFile(final String configId, ItemSession session) {
+        File content = session.getContentFile();
+        FileNameIndex.State state = fileNameIndex.getState(configId, content.getName());
+        long bytes = content.length();
+        session.deleteContentFile();
+        releaseFileName(configId, content.getName());
+        accountContentFile(configId, state, null, bytes);
     }
 
-    private boolean isCheckSumEquals(MessageDigest md, String checkSumValue) {
+    private boolean isCheckSumEquals(String configId, ContentDigests digests, String checkSumValue) {
 
         // compare computed digest with the one send with the request
-        byte[] digest = md.digest();
-        String checksum = Utility.byteArraytoHexString(digest);
-        LOG.debug("Checksums: send[" + checkSumValue + "] file[" + checksum + "]");
+        String algorithm = getChecksumAlgorithm(configId);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Checksums: send[" + checkSumValue + "] file[" + digests.getChecksum(algorithm) + "]");
+        }
 
-        return checksum.equals(checkSumValue);
+        return digests.matches(algorithm, checkSumValue);
     }
 
     private static void checkIfExists(final String configId, File configurationDirectory) throws DepositorException {
@@ -742,18 +1876,13 @@ public class SessionManager extends Thread {
         }
     }
 
-    private MessageDigest storeFileAndCalculateChecksum(final String configId, final InputStream is, File contentFile)
+    private ContentDigests storeFileAndCalculateChecksum(
+        final String configId, final InputStream is, File contentFile, PipelinedTransfer transfer)
         throws DepositorException {
-        MessageDigest md = getMessageDigest(configId);
-        DigestInputStream dis = null;
+        ContentDigests digests = createContentDigests(configId);
         try {
-            FileOutputStream fos = new FileOutputStream(contentFile);
-            dis = new DigestInputStream(is, md);
-            byte[] buf = new byte[5000];
-            int readByte;
-            while ((readByte = dis.read(buf)) > 0) {
-                fos.write(buf, 0, readByte);
-            }
+            stagingBuffers.transfer(is, contentFile, transfer == null ? null : transfer.getChannel(),
+                digests.getMessageDigests());
         }
         catch (FileNotFoundException e) {
             LOG.error(e.getMessage());
@@ -764,66 +1893,91 @@ public class SessionManager extends Thread {
             throw new DepositorException(e.getMessage());
         }
         finally {
-            if (dis != null) {
-                try {
-                    dis.close();
-                }
-                catch (IOException e) {
-                    LOG.error(e.getMessage());
-                }
+            try {
+                is.close();
+            }
+            catch (IOException e) {
+                LOG.error(e.getMessage());
             }
         }
-        return md;
+        digests.complete();
+        return digests;
     }
 
-    private MessageDigest getMessageDigest(final String configId) throws DepositorException {
-        MessageDigest md = null;
+    public ContentDigests createContentDigests(final String configId) throws DepositorException {
         try {
-            md =
-                MessageDigest.getInstance(configurations.get(configId).getProperty(
-                    Constants.PROPERTY_CHECKSUM_ALGORITHM));
+            return new ContentDigests(getChecksumAlgorithm(configId));
         }
         catch (NoSuchAlgorithmException e) {
             LOG.error(e.getMessage());
             throw new DepositorException(e.getMessage());
         }
-        return md;
     }
 
-    // check if filename is already sent for this configuration
-    private static void checkFileName(final String configId, final String fileName, File configurationDirectory)
+    // share of the ingest workers of a configuration relative to other configurations with queued content files
+    private int getIngestWeight(final String configId) {
+        String weight = getConfiguration(configId).getProperty(Constants.PROPERTY_INGEST_WEIGHT);
+        if (weight == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(weight.trim()));
+        }
+        catch (NumberFormatException e) {
+            LOG.warn("Invalid " + Constants.PROPERTY_INGEST_WEIGHT + " of the configuration with id " + configId + ": "
+                + weight);
+            return 1;
+        }
+    }
+
+    private String getChecksumAlgorithm(final String configId) {
+        return getConfiguration(configId).getProperty(Constants.PROPERTY_CHECKSUM_ALGORITHM);
+    }
+
+    // reserve the file name, so it can not be sent again for this configuration
+    private void reserveFileName(final String configId, final String fileName) throws AlreadyExistException,
+        DepositorException {
+        checkReservedFileName(configId, fileName);
+        if (!fileNameIndex.reserve(configId, fileName)) {
+            String message =
+                "A content file '" + fileName + "' for the configuration with id " + configId
+                    + " already exists on Depositor.";
+            LOG.error(message);
+            throw new AlreadyExistException(message);
+        }
+        try {
+            recordContentFileState(configId, fileName, FileNameIndex.State.RESERVED);
+        }
+        catch (DepositorException e) {
+            fileNameIndex.release(configId, fileName);
+            throw e;
+        }
+    }
+
+    // names of sidecar and partial files must not be used for content files
+    private static void checkReservedFileName(final String configId, final String fileName)
         throws AlreadyExistException {
-        File[] files = configurationDirectory.listFiles();
-        for (int i = 0; i < files.length; i++) {
-            String name = files[i].getName();
-            if (name.endsWith(fileName)) {
-                if (name.equals("successful_" + fileName) || name.equals("failed_" + fileName)
-                    || name.equals("successful_failed_" + fileName) || name.equals(fileName)) {
-                    String message =
-                        "A content file '" + fileName + "' for the configuration with id " + configId
-                            + " already exists on Depositor.";
-                    LOG.error(message);
-                    throw new AlreadyExistException(message);
-                }
-            }
+        if (fileName.startsWith(ContentDigests.SIDECAR_PREFIX) || fileName.startsWith(ResumableUpload.PARTIAL_PREFIX)) {
+            String message =
+                "A content file name '" + fileName + "' for the configuration with id " + configId
+                    + " is reserved for the Depositor.";
+            LOG.error(message);
+            throw new AlreadyExistException(message);
         }
     }
 
     private void checkPreconditions(final String configId) throws DepositorException, AlreadyExpiredException,
         ApplicationException {
-        if (threadNumber == maxThreadNumber) {
-            LOG.error(ERR_MAX_THREADS_);
-            throw new DepositorException(ERR_MAX_THREADS_);
-        }
-
-        if (expiredSuccessfulConfigurations.containsKey(configId)
-            || expiredConfigurationsSinceLastRun.contains(configId) || isCleaning.contains(configId)) {
+        ConfigurationState state = configurations.get(configId);
+        ConfigurationState.Phase phase = state == null ? null : state.getPhase();
+        if (phase == ConfigurationState.Phase.EXPIRED || phase == ConfigurationState.Phase.CLEANING
+            || (state != null && state.isExpiredSinceLastRun())) {
             String message = "A session for the configuration with " + configId + " is expired.";
             LOG.error(message);
             throw new AlreadyExpiredException(message);
         }
 
-        if (failedExpiredConfDir.containsKey(configId)) {
+        if (phase == ConfigurationState.Phase.FAILED_EXPIRED) {
             String message =
                 "A configuration with id  "
                     + configId
@@ -832,7 +1986,7 @@ public class SessionManager extends Thread {
             throw new DepositorException(message);
         }
 
-        if (isFailed(configId)) {
+        if (state != null && state.isFailed()) {
             String message =
                 "Error on Depositor: can not temporary accept content files for the configuration with the id "
                     + configId + " due to an internal failure on a deposit service or on an infrastructure.";
@@ -840,7 +1994,7 @@ public class SessionManager extends Thread {
             throw new DepositorException(message);
         }
 
-        if (!configurations.containsKey(configId)) {
+        if (state == null || !state.isRegistered()) {
             String message = "Can not find a configuration with the id " + configId + ".";
             LOG.error(message);
             throw new ApplicationException(message);
@@ -857,22 +2011,24 @@ public class SessionManager extends Thread {
      */
     @Deprecated
     private void putMonitoringStartTimeIntoConfigurationIfMissing(String configId) {
-        File configurationDirectory = new File(baseDir, configurationDirPathes.get(configId));
+        ConfigurationState state = configurations.get(configId);
+        File configurationDirectory = new File(baseDir, state.getDirectoryPath());
         Properties configuration = null;
         // if a configuration does not contain a calculated monitoring start
         // time,
         // put a calculated monitoring start time in to the configuration and
         // store the
         // configuration into a configuration file
-        synchronized (configurations) {
-            configuration = configurations.get(configId);
+        synchronized (state) {
+            configuration = state.getConfiguration();
             String monitoringStartTime = configuration.getProperty(Constants.PROPERTY_MONITORING_START_TIME);
             if (monitoringStartTime == null) {
-                DateTimeZone.setDefault(DateTimeZone.UTC);
-                DateTime currentTime = new DateTime();
+                DateTime currentTime = new DateTime(DateTimeZone.UTC);
                 DateTimeFormatter fmt = DateTimeFormat.forPattern(DATE_TIME_FORMAT);
                 String timeStamp = currentTime.toString(fmt);
                 configuration.put(Constants.PROPERTY_MONITORING_START_TIME, timeStamp);
+                configurations.touch();
+                expiryScheduler.schedule(configId, ExpiryScheduler.getExpiry(configuration));
 
                 File configurationFile = new File(configurationDirectory, Constants.CONFIGURATION_FILE_NAME);
                 configurationFile.delete();
@@ -903,13 +2059,24 @@ public class SessionManager extends Thread {
 
     public void close() {
         isThreadNeedsToFinish = true;
-        while (!isThreadFinished) {
-            try {
-                Thread.sleep(250);
-            }
-            catch (Exception e) {
+        expiryScheduler.wakeUp();
+        awaitUninterruptibly(threadFinished);
+        writeRegistrySnapshot();
+        ingestScheduler.shutdown();
+        reingestJob.shutdown();
+        deletionJob.shutdown();
+        if (verificationExecutor != null) {
+            verificationExecutor.shutdownNow();
+        }
+        try {
+            if (!ingestScheduler.awaitTermination(INGEST_POOL_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Ingest workers did not finish within " + INGEST_POOL_SHUTDOWN_TIMEOUT_SECONDS + " seconds.");
             }
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
     }
 
     public void finalize() {
@@ -917,137 +2084,160 @@ public class SessionManager extends Thread {
     }
 
     /**
-     * Method puts a provided configuration id into a set with configurations, which are being cleaned at the moment, to
-     * prevent another threads from the cleaning of the configuration. It checks if all of the configuration sessions
-     * finished successful or a configuration has no sessions and is not contained in a map with a failed
-     * configurations. In this case it removes a configuration directory and a configuration file from a file system and
-     * put the configuration id into a map with successful finished configurations. Otherwise it calls a method
-     * renameConfigDirectoryToFailedExpired() to mark a configuration directory as expired and failed. A fact, that a
-     * configuration has no sessions and is contained in a map with failed configurations means that content files of
-     * the configuration could not be restored from a file system on restart of Demon service. Finally method removes
-     * the configuration id from a set with configurations, which are being cleaned at the moment.
+     * Method waits until a provided latch is released. An interrupt does not stop the waiting, but is restored
+     * afterwards.
+     * 
+     * @param latch
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean isInterrupted = false;
+        while (latch.getCount() > 0) {
+            try {
+                latch.await();
+            }
+            catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method waits until a provided session is finished, see {@link #awaitUninterruptibly(CountDownLatch)}.
+     * 
+     * @param session
+     */
+    private static void awaitCompletion(ItemSession session) {
+        boolean isInterrupted = false;
+        while (!session.isFinished()) {
+            try {
+                session.awaitCompletion();
+            }
+            catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method starts the clean up of an active configuration with a provided id, so no more sessions are added to it
+     * and another threads can not clean it up too. It waits until all of the configuration sessions are finished. If
+     * all of them finished successful and the configuration is not failed, it removes a configuration directory and a
+     * configuration file from a file system and the configuration expires. Otherwise it calls a method
+     * renameConfigDirectoryToFailedExpired() to mark a configuration directory as expired and failed. A configuration,
+     * which is failed without failed sessions, has content files which could not be restored from a file system on
+     * restart of Demon service. Finally threads waiting for the clean up are released.
      * 
      * @param configurationId
+     * @return false if the configuration is not active, e.g. it is being cleaned by another thread
      */
-    public void cleanupSessions(final String configurationId) {
-        // add the configuration to a set of configurations, which are being
-        // cleaned at the moment
-        synchronized (isCleaning) {
-            isCleaning.add(configurationId);
-        }
-        Vector<ItemSession> sessionsForConfiguration = null;
-        Properties configuration = configurations.get(configurationId);
-        synchronized (sessions) {
-            sessionsForConfiguration = sessions.get(configurationId);
-            sessions.remove(configurationId);
-        }
-        if (sessionsForConfiguration != null) {
-            boolean configurationFailed = false;
-            Iterator<ItemSession> iter = sessionsForConfiguration.iterator();
-            File configurationDirectory = null;
+    public boolean cleanupSessions(final String configurationId) {
+        ConfigurationState state = configurations.get(configurationId);
+        List<ItemSession> sessionsForConfiguration = state == null ? null : state.beginCleaning();
+        if (sessionsForConfiguration == null) {
+            return false;
+        }
+        ConfigurationState.Phase result = ConfigurationState.Phase.ACTIVE;
+        try {
+            expiryScheduler.cancel(configurationId);
+            boolean configurationFailed = state.isFailed();
             // check if some sessions of the configuration failed
-            while (iter.hasNext()) {
-                ItemSession session = iter.next();
-                configurationDirectory = session.getConfigurationDirectory();
-                while (!session.isFinished()) {
-                    try {
-                        Thread.sleep(250);
-                    }
-                    catch (Exception e) {
-                    }
-                }
+            for (ItemSession session : sessionsForConfiguration) {
+                awaitCompletion(session);
                 if (!session.isSessionFailed()) {
                     session.deleteContentFile();
-                    iter.remove();
                 }
                 else {
                     configurationFailed = true;
                 }
-
             }
+            File configurationDirectory = new File(baseDir, state.getDirectoryPath());
             if (configurationFailed) {
-                // some sessions of the configuration failed (some content files
-                // could not be stored into an infrastructure)
-                renameConfigDirectoryToFailedExpired(configurationDirectory, configurationId);
+                // some content files of the configuration could not be stored into an infrastructure
+                result = renameConfigDirectoryToFailedExpired(configurationDirectory, state);
             }
             else {
-                // all sessions of the configuration finished successful (all
-                // content files were stored into an infrastructure)
-                removeSuccessfulConfiguration(configurationDirectory, configurationId, configuration);
+                // all content files of the configuration were stored into an infrastructure
+                result = removeSuccessfulConfiguration(configurationDirectory);
             }
-        }
-        else {
-            // There are no sessions for the configuration
-            String confDirectoryName = configurationDirPathes.get(configurationId);
-            File configurationDirectory = new File(baseDir, confDirectoryName);
-            if (configurationDirectory.exists()) {
-                if (isFailed(configurationId)) {
-                    // content files for the configuration could not be restored
-                    // from a file system after restart of a Depositor
-                    renameConfigDirectoryToFailedExpired(configurationDirectory, configurationId);
-                }
-                else {
-                    removeSuccessfulConfiguration(configurationDirectory, configurationId, configuration);
+            for (Iterator<String> keys = resumableUploads.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().startsWith(configurationId + "/")) {
+                    keys.remove();
                 }
             }
+            fileNameIndex.remove(configurationId);
+            if (result == ConfigurationState.Phase.EXPIRED) {
+                removeFromJournal(configurationId);
+            }
         }
-        synchronized (failedConfigurations) {
-            failedConfigurations.remove(configurationId);
-        }
-        synchronized (isCleaning) {
-            // remove the configuration from a set of configurations, which
-            // are being cleaned at the moment
-            isCleaning.remove(configurationId);
+        finally {
+            // release threads waiting for the end of the cleaning
+            state.endCleaning(result);
+            if (result != ConfigurationState.Phase.ACTIVE) {
+                // the content files of an expired configuration are not counted any more
+                stagingSpaceGuard.addContentFileBytes(-state.getPendingIngestBytes(), -state.getReclaimableBytes());
+            }
         }
+        return true;
     }
 
     /**
-     * Method removes a provided configuration file and a provided configuration directory from a file system. It puts a
-     * provided configuration id and a provided configuration into a map with successful finished configurations.
+     * Method removes a provided configuration directory with its configuration file and content files from a file
+     * system.
      * 
-     * @param configurationFile
      * @param configurationDirectory
-     * @param configurationId
-     * @param configuration
+     * @return the phase of the configuration after the clean up
      */
-    private void removeSuccessfulConfiguration(
-        final File configurationDirectory, final String configurationId, final Properties configuration) {
-        File[] files = configurationDirectory.listFiles();
-        for (int i = 0; i < files.length; i++) {
-            files[i].delete();
+    private ConfigurationState.Phase removeSuccessfulConfiguration(final File configurationDirectory) {
+        for (File file : DirectoryLayout.listContentFiles(configurationDirectory)) {
+            contentStore.release(file);
+        }
+        DirectoryLayout.deleteConfigurationDirectory(configurationDirectory);
+        return ConfigurationState.Phase.EXPIRED;
+    }
+
+    private void removeFromJournal(final String configurationId) {
+        try {
+            journal.remove(configurationId);
         }
-        configurationDirectory.delete();
-        synchronized (expiredSuccessfulConfigurations) {
-            expiredSuccessfulConfigurations.put(configurationId, configuration);
+        catch (IOException e) {
+            LOG.error("Can not remove the configuration with id " + configurationId + " from the session journal: "
+                + e.getMessage());
         }
     }
 
     /**
-     * Method adds a a prefix 'failed_expired_' to a configuration directory name and put the configuration id into a
-     * map, containing ids of failed expired configurations and configuration directory names.
+     * Method adds a a prefix 'failed_expired_' to a configuration directory name and remembers the renamed directory
+     * in the state of the configuration.
      * 
      * @param configurationDirectory
-     * @param configurationId
+     * @param state
+     * @return the phase of the configuration after the clean up
      */
-    private void renameConfigDirectoryToFailedExpired(final File configurationDirectory, final String configurationId) {
-        File[] files = configurationDirectory.listFiles();
-        for (int i = 0; i < files.length; i++) {
-            if (files[i].getName().startsWith("successful_")) {
-                files[i].delete();
+    private ConfigurationState.Phase renameConfigDirectoryToFailedExpired(
+        final File configurationDirectory, final ConfigurationState state) {
+        for (Map.Entry<String, FileNameIndex.State> entry : journal.getStates(state.getConfigurationId()).entrySet()) {
+            if (entry.getValue() == FileNameIndex.State.SUCCESSFUL) {
+                contentStore.release(getContentFile(configurationDirectory, entry.getKey()));
             }
         }
         String configDirName = configurationDirectory.getName();
-        synchronized (failedExpiredConfDir) {
-            boolean success = configurationDirectory.renameTo(new File(baseDir, "failed_expired_" + configDirName));
-            if (!success) {
-                failedExpiredConfDir.put(configurationId, configDirName);
-                LOG.error("Error while cleaning up sessions for the configuration with id " + configurationId
-                    + " : can not rename a configuration directory to 'failed_expired_" + configDirName + "'.");
-            }
-            else {
-                failedExpiredConfDir.put(configurationId, "failed_expired_" + configDirName);
-            }
+        File failedExpiredDirectory =
+            new File(configurationDirectory.getParentFile(), "failed_expired_" + configDirName);
+        boolean success = configurationDirectory.renameTo(failedExpiredDirectory);
+        if (!success) {
+            LOG.error("Error while cleaning up sessions for the configuration with id " + state.getConfigurationId()
+                + " : can not rename a configuration directory to 'failed_expired_" + configDirName + "'.");
+        }
+        else {
+            state.setDirectoryPath(DirectoryLayout.getRelativePath(baseDir, failedExpiredDirectory));
         }
+        return ConfigurationState.Phase.FAILED_EXPIRED;
     }
 
 }
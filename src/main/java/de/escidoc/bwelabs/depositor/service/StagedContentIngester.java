@@ -0,0 +1,150 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+
+import com.google.common.base.Preconditions;
+
+import de.escidoc.bwelabs.deposit.Configuration;
+
+/**
+ * Creates an item in the container of a configuration, whose component content is already in the staging area of the
+ * infrastructure. Counterpart of the FileIngester for content files transfered by a {@link PipelinedTransfer}.
+ * 
+ */
+public class StagedContentIngester {
+
+    private static final Pattern ITEM_HREF = Pattern.compile("xlink:href=\"[^\"]*/ir/item/([^\"/]+)\"");
+
+    private static final Pattern OBJID = Pattern.compile("objid=\"([^\"]+)\"");
+
+    private final Properties configuration;
+
+    public StagedContentIngester(Properties configuration) {
+        Preconditions.checkNotNull(configuration, "configuration is null: %s", configuration);
+        this.configuration = configuration;
+    }
+
+    /**
+     * Method creates an item as a member of the container of the configuration.
+     * 
+     * @param stagedContent
+     *            location of the content in the staging area of the infrastructure
+     * @param fileName
+     * @return id of the created item
+     * @throws IngestException
+     */
+    public String ingest(URL stagedContent, String fileName) throws IngestException {
+        try {
+            URL createItem =
+                new URL(new URL(configuration.getProperty(Configuration.PROPERTY_INFRASTRUCTURE_ENDPOINT)),
+                    "/ir/container/" + configuration.getProperty(Configuration.PROPERTY_EXPERIMENT_ID)
+                        + "/create-item");
+            HttpURLConnection connection =
+                PipelinedTransfer.openConnection(createItem,
+                    configuration.getProperty(Configuration.PROPERTY_USER_HANDLE));
+            connection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(createItemXml(stagedContent, fileName).getBytes("UTF-8"));
+            }
+            finally {
+                os.close();
+            }
+            return parseItemId(PipelinedTransfer.readResponse(connection));
+        }
+        catch (IOException e) {
+            throw new IngestException("Can not create an item for the staged content " + stagedContent + ": "
+                + e.getMessage(), e);
+        }
+    }
+
+    private static String parseItemId(String itemXml) throws IngestException {
+        Matcher matcher = ITEM_HREF.matcher(itemXml);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        matcher = OBJID.matcher(itemXml);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        throw new IngestException("Can not get ingested item id.");
+    }
+
+    String createItemXml(URL stagedContent, String fileName) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<escidocItem:item xmlns:escidocItem=\"").append(Constants.ITEM_NAMESPACE_URI).append('"');
+        xml.append(" xmlns:escidocMetadataRecords=\"").append(Constants.METADATARECORDS_NAMESPACE_URI).append('"');
+        xml.append(" xmlns:escidocComponents=\"").append(Constants.COMPONENTS_NAMESPACE_URI).append('"');
+        xml.append(" xmlns:prop=\"").append(Constants.PROPERTIES_NS_URI).append('"');
+        xml.append(" xmlns:srel=\"").append(Constants.STRUCTURAL_RELATIONS_NS_URI).append('"');
+        xml.append(" xmlns:xlink=\"").append(Constants.XLINK_NS_URI).append("\">");
+        xml.append("<escidocItem:properties>");
+        xml.append("<srel:context xlink:href=\"/ir/context/")
+            .append(escape(configuration.getProperty(Configuration.PROPERTY_CONTEXT_ID))).append("\"/>");
+        xml.append("<srel:content-model xlink:href=\"/cmm/content-model/")
+            .append(escape(configuration.getProperty(Configuration.PROPERTY_CONTENT_MODEL_ID))).append("\"/>");
+        xml.append("</escidocItem:properties>");
+        xml.append("<escidocMetadataRecords:md-records>");
+        xml.append("<escidocMetadataRecords:md-record name=\"escidoc\">");
+        xml.append("<file xmlns=\"\"><name>").append(escape(fileName)).append("</name></file>");
+        xml.append("</escidocMetadataRecords:md-record>");
+        xml.append("</escidocMetadataRecords:md-records>");
+        xml.append("<escidocComponents:components><escidocComponents:component>");
+        xml.append("<escidocComponents:properties>");
+        xml.append("<prop:visibility>public</prop:visibility>");
+        xml.append("<prop:content-category>ORIGINAL</prop:content-category>");
+        xml.append("<prop:file-name>").append(escape(fileName)).append("</prop:file-name>");
+        xml.append("<prop:mime-type>text/plain</prop:mime-type>");
+        xml.append("<prop:valid-status>valid</prop:valid-status>");
+        xml.append("</escidocComponents:properties>");
+        xml.append("<escidocComponents:content xlink:href=\"").append(escape(stagedContent.toString()))
+            .append("\" storage=\"internal-managed\"/>");
+        xml.append("</escidocComponents:component></escidocComponents:components>");
+        xml.append("</escidocItem:item>");
+        return xml.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits the number of requests processed at the same time. A request has to hold a {@link Permit} while it is
+ * processed. If all permits are taken, a few requests may wait a short time for a permit; all other requests are
+ * rejected and should be retried after {@link #getRetryAfterSeconds()}.
+ * 
+ */
+public class AdmissionController {
+
+    public static final long MIN_RETRY_AFTER_SECONDS = 1;
+
+    public static final long MAX_RETRY_AFTER_SECONDS = 120;
+
+    // weight of a new sample in the moving average of the processing time: 1/8
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final int permits;
+
+    private final int maxWaiting;
+
+    private final long maxWaitMillis;
+
+    private final Semaphore semaphore;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong averageHoldNanos = new AtomicLong();
+
+    /**
+     * @param permits
+     *            how many requests are processed at the same time
+     * @param maxWaiting
+     *            how many requests may wait for a permit
+     * @param maxWaitMillis
+     *            how long a request waits for a permit at most
+     */
+    public AdmissionController(int permits, int maxWaiting, long maxWaitMillis) {
+        Preconditions.checkArgument(permits > 0, "permits must be positive: %s", permits);
+        Preconditions.checkArgument(maxWaiting >= 0, "maxWaiting must not be negative: %s", maxWaiting);
+        Preconditions.checkArgument(maxWaitMillis >= 0, "maxWaitMillis must not be negative: %s", maxWaitMillis);
+        this.permits = permits;
+        this.maxWaiting = maxWaiting;
+        this.maxWaitMillis = maxWaitMillis;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * Method returns a permit if one is free or becomes free in time. A request is not queued, if the wait queue is
+     * full.
+     * 
+     * @return the permit or <code>null</code> if the request is rejected
+     */
+    public Permit tryAcquire() {
+        if (semaphore.tryAcquire()) {
+            return admit();
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return reject();
+        }
+        try {
+            if (semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return admit();
+            }
+            return reject();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return reject();
+        }
+        finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Method returns a permit only if one is free at the moment, so a thread, which must not block, never waits.
+     * 
+     * @return the permit or <code>null</code> if the request is rejected
+     */
+    public Permit tryAcquireNow() {
+        if (semaphore.tryAcquire()) {
+            return admit();
+        }
+        return reject();
+    }
+
+    private Permit admit() {
+        admitted.incrementAndGet();
+        return new Permit();
+    }
+
+    private Permit reject() {
+        rejected.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Method estimates when a rejected request should be retried, from the average processing time of a request and
+     * the number of requests in front of it.
+     * 
+     * @return seconds to wait before a retry
+     */
+    public long getRetryAfterSeconds() {
+        long queued = waiting.get() + 1;
+        long nanos = averageHoldNanos.get() * queued / permits;
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos) + 1;
+        return Math.max(MIN_RETRY_AFTER_SECONDS, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    public int getAvailablePermits() {
+        return semaphore.availablePermits();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void updateAverageHoldNanos(long sample) {
+        while (true) {
+            long average = averageHoldNanos.get();
+            long updated = average + ((sample - average) >> AVERAGE_SHIFT);
+            if (average == 0) {
+                updated = sample;
+            }
+            if (averageHoldNanos.compareAndSet(average, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Permit to process one request. It has to be released once the request is processed; releasing it more than
+     * once has no effect.
+     */
+    public class Permit {
+
+        private final long acquiredAt = System.nanoTime();
+
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                updateAverageHoldNanos(System.nanoTime() - acquiredAt);
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hands out reset {@link MessageDigest} instances per algorithm. An algorithm name is resolved by the security
+ * providers only once; afterwards new instances are cloned from a prototype and released instances are reused.
+ * 
+ */
+public final class MessageDigestFactory {
+
+    /**
+     * How many released instances are kept per algorithm.
+     */
+    public static final int MAX_POOLED_DIGESTS = 64;
+
+    private static final ConcurrentMap<String, Algorithm> ALGORITHMS = new ConcurrentHashMap<String, Algorithm>();
+
+    private MessageDigestFactory() {
+    }
+
+    /**
+     * Method checks if an algorithm is supported. The result is cached, so it can be called on every request.
+     * 
+     * @param algorithm
+     *            e.g. <code>MD5</code> or <code>SHA-1</code>
+     * @throws NoSuchAlgorithmException
+     *             if no provider supports the algorithm
+     */
+    public static void resolve(String algorithm) throws NoSuchAlgorithmException {
+        getAlgorithm(algorithm);
+    }
+
+    /**
+     * @param algorithm
+     * @return a reset digest, it should be given back with {@link #release(MessageDigest)} after its last use
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest acquire(String algorithm) throws NoSuchAlgorithmException {
+        return getAlgorithm(algorithm).acquire();
+    }
+
+    /**
+     * Method resets a digest and keeps it for reuse. The digest must not be used by the caller any more.
+     * 
+     * @param digest
+     */
+    public static void release(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        Algorithm algorithm = ALGORITHMS.get(digest.getAlgorithm());
+        if (algorithm != null) {
+            digest.reset();
+            algorithm.pool.offer(digest);
+        }
+    }
+
+    private static Algorithm getAlgorithm(String name) throws NoSuchAlgorithmException {
+        Preconditions.checkNotNull(name, "algorithm is null: %s", name);
+        Algorithm algorithm = ALGORITHMS.get(name);
+        if (algorithm != null) {
+            return algorithm;
+        }
+        MessageDigest prototype = MessageDigest.getInstance(name);
+        algorithm = new Algorithm(prototype);
+        Algorithm existing = ALGORITHMS.putIfAbsent(name, algorithm);
+        // released digests are found by the name they report
+        ALGORITHMS.putIfAbsent(prototype.getAlgorithm(), existing == null ? algorithm : existing);
+        return existing == null ? algorithm : existing;
+    }
+
+    private static final class Algorithm {
+
+        private final MessageDigest prototype;
+
+        private final boolean isCloneable;
+
+        private final BlockingQueue<MessageDigest> pool = new ArrayBlockingQueue<MessageDigest>(MAX_POOLED_DIGESTS);
+
+        Algorithm(MessageDigest prototype) {
+            this.prototype = prototype;
+            this.isCloneable = prototype instanceof Cloneable;
+        }
+
+        MessageDigest acquire() throws NoSuchAlgorithmException {
+            MessageDigest digest = pool.poll();
+            if (digest != null) {
+                return digest;
+            }
+            if (isCloneable) {
+                try {
+                    // the prototype is never updated, so a clone is a reset digest
+                    return (MessageDigest) prototype.clone();
+                }
+                catch (CloneNotSupportedException e) {
+                    // fall through to a provider lookup
+                }
+            }
+            return MessageDigest.getInstance(prototype.getAlgorithm(), prototype.getProvider());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Pool of large, reusable direct buffers used to stage uploaded content files. A staged stream is read into one
+ * buffer, the digest is updated from the same buffer and the buffer is written to the target file with a
+ * {@link FileChannel}, so a multi-GB upload costs a few thousand large writes instead of many small ones. The number
+ * of direct buffers is bounded, so a burst of uploads can not exhaust the memory outside of the heap; uploads beyond
+ * the bound are staged with heap buffers, which are not pooled.
+ * 
+ */
+public class StagingBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final int bufferSize;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    private final int maxDirectBuffers;
+
+    private final AtomicInteger directBuffers = new AtomicInteger();
+
+    /**
+     * @param bufferSize
+     *            size of every buffer in bytes
+     * @param maxPooledBuffers
+     *            how many direct buffers are allocated at most, they are kept for reuse
+     */
+    public StagingBufferPool(int bufferSize, int maxPooledBuffers) {
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive: %s", bufferSize);
+        Preconditions.checkArgument(maxPooledBuffers > 0, "maxPooledBuffers must be positive: %s", maxPooledBuffers);
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(maxPooledBuffers);
+        this.maxDirectBuffers = maxPooledBuffers;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Method returns a cleared buffer from the pool or allocates a new one if the pool is empty. A heap buffer is
+     * allocated, if all direct buffers are in use.
+     * 
+     * @return a cleared buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = allocate();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private ByteBuffer allocate() {
+        while (true) {
+            int allocated = directBuffers.get();
+            if (allocated >= maxDirectBuffers) {
+                return ByteBuffer.allocate(bufferSize);
+            }
+            if (directBuffers.compareAndSet(allocated, allocated + 1)) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+    }
+
+    /**
+     * Method gives a buffer back to the pool. A heap buffer is dropped.
+     * 
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Method copies a provided stream into a target file and updates all provided digests with every copied byte, so
+     * several checksums are calculated in the same pass.
+     * 
+     * @param is
+     *            stream to stage, it is not closed by this method
+     * @param target
+     * @param digests
+     * @return number of copied bytes
+     * @throws IOException
+     */
+    public long transfer(InputStream is, File target, MessageDigest... digests) throws IOException {
+        return transfer(is, target, null, digests);
+    }
+
+    /**
+     * Method copies a provided stream into a target file and, in the same pass, into a provided sink. All provided
+     * digests are updated with every copied byte.
+     * 
+     * @param is
+     *            stream to stage, it is not closed by this method
+     * @param target
+     * @param sink
+     *            additional receiver of the stream or <code>null</code>, it is not closed by this method
+     * @param digests
+     * @return number of copied bytes
+     * @throws IOException
+     */
+    public long transfer(InputStream is, File target, WritableByteChannel sink, MessageDigest... digests)
+        throws IOException {
+        return copy(is, new FileOutputStream(target), sink, digests);
+    }
+
+    /**
+     * Method appends a provided stream to a target file and updates all provided digests with every appended byte.
+     * 
+     * @param is
+     *            stream to stage, it is not closed by this method
+     * @param target
+     * @param digests
+     * @return number of appended bytes
+     * @throws IOException
+     */
+    public long append(InputStream is, File target, MessageDigest... digests) throws IOException {
+        return copy(is, new FileOutputStream(target, true), null, digests);
+    }
+
+    private long copy(InputStream is, FileOutputStream fos, WritableByteChannel sink, MessageDigest... digests)
+        throws IOException {
+        ReadableByteChannel in = Channels.newChannel(is);
+        FileChannel out = fos.getChannel();
+        ByteBuffer buffer = acquire();
+        long total = 0;
+        try {
+            boolean eof = false;
+            while (!eof) {
+                // fill the whole buffer before writing, so every write is as large as possible
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.duplicate());
+                }
+                ByteBuffer forSink = buffer.duplicate();
+                while (buffer.hasRemaining()) {
+                    total += out.write(buffer);
+                }
+                if (sink != null) {
+                    while (forSink.hasRemaining()) {
+                        sink.write(forSink);
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        finally {
+            release(buffer);
+            fos.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the disk of the session base directory from filling up. Every upload reserves its expected size before its
+ * content is read. A reservation is refused once the used space plus all reservations reaches the high watermark;
+ * reservations are accepted again after the usage fell below the low watermark. Bytes of an upload, which are
+ * already on the disk, are counted by the used space, so they are consumed from its reservation.
+ * 
+ * The sizes of the content files waiting for the ingest and of the stored ones are kept as running totals, which are
+ * updated whenever a content file changes its state; the session base directory is not scanned for them.
+ * 
+ */
+public class StagingSpaceGuard {
+
+    private final File baseDir;
+
+    private final double highWatermark;
+
+    private final double lowWatermark;
+
+    private final long defaultReservation;
+
+    private final AtomicLong stagedBytes = new AtomicLong();
+
+    private final AtomicLong pendingIngestBytes = new AtomicLong();
+
+    private final AtomicLong reclaimableBytes = new AtomicLong();
+
+    private final AtomicBoolean isSaturated = new AtomicBoolean();
+
+    /**
+     * @param baseDir
+     *            the session base directory
+     * @param highWatermark
+     *            share of the disk, e.g. <code>0.9</code>, from which on reservations are refused
+     * @param lowWatermark
+     *            share of the disk, below which reservations are accepted again
+     * @param defaultReservation
+     *            bytes reserved for an upload of unknown size
+     */
+    public StagingSpaceGuard(File baseDir, double highWatermark, double lowWatermark, long defaultReservation) {
+        Preconditions.checkNotNull(baseDir, "baseDir is null: %s", baseDir);
+        Preconditions.checkArgument(highWatermark > 0 && highWatermark <= 1,
+            "highWatermark must be in (0, 1]: %s", highWatermark);
+        Preconditions.checkArgument(lowWatermark > 0 && lowWatermark <= highWatermark,
+            "lowWatermark must be in (0, highWatermark]: %s", lowWatermark);
+        Preconditions.checkArgument(defaultReservation >= 0, "defaultReservation must not be negative: %s",
+            defaultReservation);
+        this.baseDir = baseDir;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.defaultReservation = defaultReservation;
+    }
+
+    /**
+     * Method reserves space for an upload.
+     * 
+     * @param contentLength
+     *            size of the upload or a negative value if it is unknown
+     * @return the reservation or <code>null</code> if the space is not available
+     */
+    public Reservation tryReserve(long contentLength) {
+        long bytes = contentLength < 0 ? defaultReservation : contentLength;
+        return tryStage(bytes, false) ? new Reservation(bytes) : null;
+    }
+
+    // bytes of a running upload are checked against the high watermark only
+    private boolean tryStage(long bytes, boolean isRunning) {
+        long staged = stagedBytes.addAndGet(bytes);
+        long total = baseDir.getTotalSpace();
+        if (total <= 0) {
+            // the file system does not report its size
+            return true;
+        }
+        double usage = (double) (total - baseDir.getUsableSpace() + staged) / total;
+        boolean isAccepted = !isRunning && isSaturated.get() ? usage <= lowWatermark : usage < highWatermark;
+        if (isAccepted) {
+            if (!isRunning) {
+                isSaturated.set(false);
+            }
+            return true;
+        }
+        isSaturated.set(true);
+        stagedBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    /**
+     * @param contentLength
+     *            size of an upload or a negative value if it is unknown
+     * @return true if the upload does not fit below the high watermark, even if the disk was empty
+     */
+    public boolean isTooLarge(long contentLength) {
+        long total = baseDir.getTotalSpace();
+        return total > 0 && contentLength > total * highWatermark;
+    }
+
+    public boolean isSaturated() {
+        return isSaturated.get();
+    }
+
+    public long getFreeBytes() {
+        return baseDir.getUsableSpace();
+    }
+
+    /**
+     * @return bytes reserved by uploads, which are received at the moment
+     */
+    public long getStagedBytes() {
+        return stagedBytes.get();
+    }
+
+    /**
+     * @return bytes of content files, which are not yet stored into the infrastructure
+     */
+    public long getPendingIngestBytes() {
+        return pendingIngestBytes.get();
+    }
+
+    /**
+     * @return bytes of content files, which are stored into the infrastructure and are deleted once their
+     *         configuration expires
+     */
+    public long getReclaimableBytes() {
+        return reclaimableBytes.get();
+    }
+
+    /**
+     * Method updates the sizes of the content files in the session base directory by the changes of a content file or
+     * a configuration.
+     * 
+     * @param pendingIngest
+     *            bytes added to or, if negative, removed from the content files waiting for the ingest
+     * @param reclaimable
+     *            bytes added to or, if negative, removed from the content files stored into the infrastructure
+     */
+    public void addContentFileBytes(long pendingIngest, long reclaimable) {
+        pendingIngestBytes.addAndGet(pendingIngest);
+        reclaimableBytes.addAndGet(reclaimable);
+    }
+
+    /**
+     * Reserved space of one upload. It has to be released once the upload is staged or failed; releasing it more
+     * than once has no effect.
+     */
+    public class Reservation {
+
+        private final AtomicLong bytes;
+
+        // bytes of the reservation, which are not written to the disk yet
+        private final AtomicLong remaining;
+
+        private Reservation(long bytes) {
+            this.bytes = new AtomicLong(bytes);
+            this.remaining = new AtomicLong(bytes);
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Method reserves more space for an upload, which writes more bytes than it reserved, e.g. an archive, whose
+         * entries are decompressed. A running upload may grow up to the high watermark.
+         * 
+         * @param more
+         * @return false if the space is not available, the reservation is not changed then
+         */
+        public boolean tryExtend(long more) {
+            if (!tryStage(more, true)) {
+                return false;
+            }
+            bytes.addAndGet(more);
+            remaining.addAndGet(more);
+            return true;
+        }
+
+        /**
+         * Method consumes bytes of the reservation, which were written to the disk and are counted by its used space
+         * from now on.
+         * 
+         * @param written
+         */
+        public void consume(long written) {
+            while (true) {
+                long current = remaining.get();
+                long consumed = Math.min(current, written);
+                if (consumed <= 0) {
+                    return;
+                }
+                if (remaining.compareAndSet(current, current - consumed)) {
+                    stagedBytes.addAndGet(-consumed);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @param is
+         *            stream with the upload
+         * @return a stream, which consumes the reservation by the bytes read from the upload
+         */
+        public InputStream track(InputStream is) {
+            return new FilterInputStream(is) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        consume(1);
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        consume(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * @param is
+         *            stream, whose bytes are written to the disk
+         * @return a stream, which consumes the reservation by the bytes read and extends the reservation before it is
+         *         exhausted; a read fails, if the reservation can not be extended
+         */
+        public InputStream trackExtending(InputStream is) {
+            return new FilterInputStream(is) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        reserve(1);
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        reserve(read);
+                    }
+                    return read;
+                }
+
+                // the bytes are read, but they are not written yet
+                private void reserve(int read) throws IOException {
+                    long missing = read - remaining.get();
+                    if (missing > 0 && !tryExtend(Math.max(missing, defaultReservation))) {
+                        throw new IOException("The depositor service has not enough disk space, "
+                            + getBytes() + " bytes of the upload are stored. Free space: " + getFreeBytes()
+                            + " bytes.");
+                    }
+                    consume(read);
+                }
+            };
+        }
+
+        public void release() {
+            stagedBytes.addAndGet(-remaining.getAndSet(0));
+        }
+    }
+}
@@ -41,16 +41,76 @@ package de.escidoc.bwelabs.depositor.utility;
  * 
  */
 public class Utility {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static String byteArraytoHexString(byte[] array) {
-        final String hexByte = "0123456789abcdef";
-        StringBuffer buf = new StringBuffer();
-        for (byte val : array) {
-            int v1 = val >>> 4 & 0x0f;
-            int v2 = val & 0x0f;
-            buf.append(hexByte.substring(v1, v1 + 1)).append(hexByte.substring(v2, v2 + 1));
+        char[] hex = new char[array.length * 2];
+        for (int i = 0, j = 0; i < array.length; i++) {
+            int val = array[i] & 0xff;
+            hex[j++] = HEX_DIGITS[val >>> 4];
+            hex[j++] = HEX_DIGITS[val & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Decodes a hex string, upper and lower case digits are accepted.
+     * 
+     * @param hex
+     *            The hex string
+     * @return The decoded bytes or <code>null</code> if the string is not a valid hex string.
+     */
+    public static byte[] hexStringToByteArray(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] array = new byte[hex.length() / 2];
+        for (int i = 0, j = 0; i < array.length; i++) {
+            int high = hexValue(hex.charAt(j++));
+            int low = hexValue(hex.charAt(j++));
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            array[i] = (byte) (high << 4 | low);
+        }
+        return array;
+    }
+
+    /**
+     * Compares bytes with a hex string without encoding the bytes, upper and lower case digits are accepted.
+     * 
+     * @param array
+     *            The bytes, e.g. a digest
+     * @param hex
+     *            The hex string, e.g. a checksum sent by a client
+     * @return true if the hex string is the encoding of the bytes.
+     */
+    public static boolean isHexEqual(byte[] array, String hex) {
+        if (array == null || hex == null || hex.length() != array.length * 2) {
+            return false;
         }
-        return buf.toString();
+        for (int i = 0, j = 0; i < array.length; i++) {
+            int high = hexValue(hex.charAt(j++));
+            int low = hexValue(hex.charAt(j++));
+            if (high < 0 || low < 0 || (byte) (high << 4 | low) != array[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 
     /**
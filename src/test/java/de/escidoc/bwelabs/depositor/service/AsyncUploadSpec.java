@@ -0,0 +1,284 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.escidoc.bwelabs.deposit.Configuration;
+import de.escidoc.bwelabs.depositor.utility.Utility;
+
+public class AsyncUploadSpec {
+
+    private static final String CONFIG_ID = "escidoc:1";
+
+    private static final byte[] CONTENT = "content of an uploaded file".getBytes();
+
+    private File baseDir;
+
+    private SessionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("depositor", "");
+        baseDir.delete();
+        Properties props = new Properties();
+        props.setProperty(SessionManager.PROP_BASEDIR, baseDir.getPath());
+        props.setProperty(SessionManager.PROP_MAX_THREAD_NUMBER, "1");
+        props.setProperty(SessionManager.PROP_PING_INTERVAL, "60");
+        // the body is larger than a buffer, so it is written in several parts
+        props.setProperty(SessionManager.PROP_STAGING_BUFFER_SIZE, "8");
+        manager = new SessionManager(props, new IngestBatcher.Ingester() {
+            public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+                throws IngestException {
+                throw new IngestException("not ingested");
+            }
+        });
+        register(manager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.close();
+        delete(baseDir);
+    }
+
+    @Test
+    public void shouldStageBodyReadInChunksAndAnswerOk() throws Exception {
+        // Given X0 && ...Xn
+        File content = manager.prepareContentFile(CONFIG_ID, "a.txt");
+        StubInput input = new StubInput(CONTENT, 5);
+        StubExchange exchange = new StubExchange(input);
+        AsyncUpload upload = newUpload(exchange, content, md5(CONTENT));
+        upload.start();
+
+        // When
+        input.listener.onDataAvailable();
+        input.listener.onAllDataRead();
+
+        // Then ensure that
+        assertEquals(HttpServletResponse.SC_OK, exchange.status);
+        assertTrue(exchange.isCompleted);
+        assertArrayEquals(CONTENT, read(content));
+    }
+
+    @Test
+    public void shouldDiscardContentFileIfChecksumDoesNotMatch() throws Exception {
+        // Given X0 && ...Xn
+        File content = manager.prepareContentFile(CONFIG_ID, "a.txt");
+        StubInput input = new StubInput(CONTENT, 5);
+        StubExchange exchange = new StubExchange(input);
+        AsyncUpload upload = newUpload(exchange, content, md5("other content".getBytes()));
+        upload.start();
+
+        // When
+        input.listener.onDataAvailable();
+        input.listener.onAllDataRead();
+
+        // Then ensure that
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, exchange.status);
+        assertTrue(exchange.isCompleted);
+        assertFalse(content.exists());
+        // the name of the discarded content file is free again
+        manager.prepareContentFile(CONFIG_ID, "a.txt");
+    }
+
+    private AsyncUpload newUpload(StubExchange exchange, File content, String checkSumValue) throws Exception {
+        return new AsyncUpload(manager, manager.reserveStagingSpace(CONTENT.length), exchange.asyncContext,
+            CONFIG_ID, checkSumValue, content, manager.createContentDigests(CONFIG_ID), null);
+    }
+
+    private static void register(SessionManager manager) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setProperty(Configuration.PROPERTY_CONFIGURATION_ID, CONFIG_ID);
+        configuration.setProperty(Configuration.PROPERTY_CHECKSUM_ALGORITHM, "MD5");
+        configuration.setProperty(Configuration.PROPERTY_INFRASTRUCTURE_ENDPOINT, "http://localhost:8080");
+        configuration.setProperty(Configuration.PROPERTY_USER_HANDLE, "handle");
+        configuration.setProperty(Configuration.PROPERTY_EXPERIMENT_ID, "escidoc:2");
+        manager.beginRegistration(CONFIG_ID);
+        manager.saveInLocalFileSystem(configuration);
+        manager.registerConfiguration(configuration);
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        return Utility.byteArraytoHexString(MessageDigest.getInstance("MD5").digest(content));
+    }
+
+    private static byte[] read(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileInputStream is = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = is.read(buf)) > 0) {
+                bytes.write(buf, 0, read);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // delivers the body in chunks of a fixed size, every chunk is ready at once
+    private static final class StubInput extends ServletInputStream {
+
+        private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+
+        private ReadListener listener;
+
+        private StubInput(byte[] body, int chunkSize) {
+            for (int offset = 0; offset < body.length; offset += chunkSize) {
+                byte[] chunk = new byte[Math.min(chunkSize, body.length - offset)];
+                System.arraycopy(body, offset, chunk, 0, chunk.length);
+                chunks.add(chunk);
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return chunks.isEmpty();
+        }
+
+        @Override
+        public boolean isReady() {
+            return !chunks.isEmpty();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (chunks.isEmpty()) {
+                return -1;
+            }
+            byte[] chunk = chunks.removeFirst();
+            int read = Math.min(len, chunk.length);
+            System.arraycopy(chunk, 0, b, off, read);
+            if (read < chunk.length) {
+                byte[] rest = new byte[chunk.length - read];
+                System.arraycopy(chunk, read, rest, 0, rest.length);
+                chunks.addFirst(rest);
+            }
+            return read;
+        }
+    }
+
+    // records the status of the response and the completion of the asynchronous request
+    private static final class StubExchange implements InvocationHandler {
+
+        private final StubInput input;
+
+        private final AsyncContext asyncContext;
+
+        private final HttpServletRequest request;
+
+        private final HttpServletResponse response;
+
+        private int status;
+
+        private boolean isCompleted;
+
+        private StubExchange(StubInput input) {
+            this.input = input;
+            this.asyncContext = proxy(AsyncContext.class);
+            this.request = proxy(HttpServletRequest.class);
+            this.response = proxy(HttpServletResponse.class);
+        }
+
+        private <T> T proxy(Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, this));
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getRequest")) {
+                return request;
+            }
+            if (name.equals("getResponse")) {
+                return response;
+            }
+            if (name.equals("getInputStream")) {
+                return input;
+            }
+            if (name.equals("setStatus") || name.equals("sendError")) {
+                status = (Integer) args[0];
+            }
+            else if (name.equals("complete")) {
+                isCompleted = true;
+            }
+            return null;
+        }
+    }
+}
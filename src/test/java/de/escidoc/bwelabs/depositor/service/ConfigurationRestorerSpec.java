@@ -0,0 +1,131 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigurationRestorerSpec {
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("restore", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : DirectoryLayout.listConfigurationDirectories(baseDir)) {
+            DirectoryLayout.deleteConfigurationDirectory(dir);
+        }
+        new File(baseDir, DirectoryLayout.REGISTRY_SNAPSHOT_FILE_NAME).delete();
+    }
+
+    @Test
+    public void shouldTakeUpToDateConfigurationsFromTheSnapshotAndParseTheOthers() throws Exception {
+        // Given X0 && ...Xn
+        String upToDate = createConfigurationDirectory("escidoc:1", 1000);
+        String modified = createConfigurationDirectory("escidoc:2", System.currentTimeMillis());
+        File snapshotFile = new File(baseDir, DirectoryLayout.REGISTRY_SNAPSHOT_FILE_NAME);
+        RegistrySnapshot.write(snapshotFile, System.currentTimeMillis(), Arrays.asList(
+            entry("escidoc:1", upToDate, "from snapshot"), entry("escidoc:2", modified, "from snapshot")));
+        RegistrySnapshot snapshot = RegistrySnapshot.read(snapshotFile);
+
+        // When
+        List<ConfigurationRestorer.Restored> restored =
+            new ConfigurationRestorer(baseDir, snapshot, 2).restore(DirectoryLayout
+                .listConfigurationDirectories(baseDir));
+
+        // Then ensure that
+        assertEquals(2, restored.size());
+        for (ConfigurationRestorer.Restored configuration : restored) {
+            boolean isUpToDate = configuration.getConfigurationId().equals("escidoc:1");
+            assertEquals(isUpToDate, configuration.isFromSnapshot());
+            assertEquals(isUpToDate ? "from snapshot" : "from file",
+                configuration.getConfiguration().getProperty(Constants.PROPERTY_EXPERIMENT_ID));
+            assertFalse(configuration.isFailedExpired());
+        }
+        assertTrue(snapshotFile.exists());
+    }
+
+    @Test
+    public void shouldParseAllConfigurationsWithoutSnapshot() throws Exception {
+        // Given X0 && ...Xn
+        String path = createConfigurationDirectory("escidoc:1", 1000);
+        new File(baseDir, path).renameTo(new File(new File(baseDir, path).getParentFile(), "failed_expired_1"));
+
+        // When
+        List<ConfigurationRestorer.Restored> restored =
+            new ConfigurationRestorer(baseDir, null, 2).restore(DirectoryLayout.listConfigurationDirectories(baseDir));
+
+        // Then ensure that
+        assertEquals(1, restored.size());
+        assertFalse(restored.get(0).isFromSnapshot());
+        assertTrue(restored.get(0).isFailedExpired());
+    }
+
+    private String createConfigurationDirectory(String configId, long lastModified) throws IOException {
+        String path = DirectoryLayout.createConfigurationDirectory(baseDir, configId, "2011_05_04_10_12_01_123");
+        File configurationFile = new File(new File(baseDir, path), Constants.CONFIGURATION_FILE_NAME);
+        Properties configuration = new Properties();
+        configuration.setProperty(Constants.PROPERTY_CONFIGURATION_ID, configId);
+        configuration.setProperty(Constants.PROPERTY_EXPERIMENT_ID, "from file");
+        FileOutputStream os = new FileOutputStream(configurationFile);
+        try {
+            configuration.storeToXML(os, null);
+        }
+        finally {
+            os.close();
+        }
+        configurationFile.setLastModified(lastModified);
+        return path;
+    }
+
+    private static RegistrySnapshot.Entry entry(String configId, String path, String experimentId) {
+        Properties configuration = new Properties();
+        configuration.setProperty(Constants.PROPERTY_CONFIGURATION_ID, configId);
+        configuration.setProperty(Constants.PROPERTY_EXPERIMENT_ID, experimentId);
+        return new RegistrySnapshot.Entry(configId, path, configuration);
+    }
+}
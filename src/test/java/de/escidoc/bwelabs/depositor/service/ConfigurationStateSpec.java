@@ -0,0 +1,119 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConfigurationStateSpec {
+
+    @Test
+    public void shouldCleanUpAConfigurationOnlyOnce() throws Exception {
+        // Given X0 && ...Xn
+        ConfigurationRegistry registry = new ConfigurationRegistry();
+        ConfigurationState state = registry.getOrCreate("escidoc:1");
+        state.setDirectoryPath("ab/cd/2011_01_01_00_00_00_000");
+        state.register(new Properties());
+        state.setFailed(true);
+
+        // When
+        assertNotNull(state.beginCleaning());
+        CountDownLatch cleaning = state.getCleaning();
+
+        // Then ensure that
+        assertNull(state.beginCleaning());
+        assertFalse(state.isActive());
+        assertTrue(registry.getFailed().isEmpty());
+        state.endCleaning(ConfigurationState.Phase.FAILED_EXPIRED);
+        assertEquals(0, cleaning.getCount());
+        assertNull(state.getCleaning());
+        assertFalse(state.isFailed());
+        state.unregister();
+        assertTrue(registry.get("escidoc:1").isKnown());
+    }
+
+    @Test
+    public void shouldRejectSessionsOnceADeletionIsAccepted() throws Exception {
+        // Given X0 && ...Xn
+        ConfigurationState state = new ConfigurationState("escidoc:1");
+        state.register(new Properties());
+
+        // When
+        boolean isClosed = state.beginDeletion();
+
+        // Then ensure that
+        assertTrue(isClosed);
+        assertEquals(ConfigurationState.Phase.CLEANING, state.getPhase());
+        assertFalse(state.addSession(null));
+        assertFalse(state.beginDeletion());
+        assertNotNull(state.beginCleaning());
+        assertNull(state.beginCleaning());
+    }
+
+    @Test
+    public void shouldNotKnowAConfigurationWhichIsNotRegisteredYet() throws Exception {
+        // Given X0 && ...Xn
+        ConfigurationRegistry registry = new ConfigurationRegistry();
+
+        // When
+        ConfigurationState state = registry.getOrCreate("escidoc:1");
+
+        // Then ensure that
+        assertEquals(ConfigurationState.Phase.REGISTERING, state.getPhase());
+        assertFalse(state.isKnown());
+        assertNull(state.beginCleaning());
+    }
+
+    @Test
+    public void shouldRegisterAConfigurationOnlyOnce() throws Exception {
+        // Given X0 && ...Xn
+        ConfigurationRegistry registry = new ConfigurationRegistry();
+
+        // When
+        boolean isFirstBegun = registry.beginRegistration("escidoc:1");
+        boolean isSecondBegun = registry.beginRegistration("escidoc:1");
+
+        // Then ensure that
+        assertTrue(isFirstBegun);
+        assertFalse(isSecondBegun);
+        registry.cancelRegistration("escidoc:1");
+        assertNull(registry.get("escidoc:1"));
+        assertTrue(registry.beginRegistration("escidoc:1"));
+        registry.get("escidoc:1").register(new Properties());
+        assertFalse(registry.beginRegistration("escidoc:1"));
+    }
+}
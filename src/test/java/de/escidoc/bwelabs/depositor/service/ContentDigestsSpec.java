@@ -0,0 +1,125 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ContentDigestsSpec {
+
+    private static final byte[] CONTENT = "measurement 42".getBytes();
+
+    @Test
+    public void shouldCalculateConfiguredAlgorithmAndMd5InOnePass() throws Exception {
+        // Given X0 && ...Xn
+        File content = createContentFile("sample.txt");
+
+        // When
+        ContentDigests digests = ContentDigests.calculate(content, "SHA-1");
+
+        // Then ensure that
+        assertNotNull(digests.getChecksum("SHA-1"));
+        assertEquals(digests.getChecksum("SHA-1"), digests.getChecksum("SHA1"));
+        assertNotNull(digests.getChecksum(ContentDigests.MD5));
+        assertEquals(2, digests.getChecksums().size());
+    }
+
+    @Test
+    public void shouldNotShareSidecarWithPrefixedName() throws Exception {
+        // Given X0 && ...Xn
+        File content = createContentFile("sample.txt");
+        ContentDigests digests = ContentDigests.calculate(content, "SHA-1");
+        digests.store(content);
+        File prefixed = new File(content.getParentFile(), "failed_" + content.getName());
+
+        // When
+        ContentDigests restored = ContentDigests.load(content);
+
+        // Then ensure that
+        assertNotNull(restored);
+        assertEquals(digests.getChecksums(), restored.getChecksums());
+        assertNull(ContentDigests.load(prefixed));
+        assertFalse(ContentDigests.hasSidecar(prefixed));
+        assertTrue(ContentDigests.deleteSidecar(content));
+        assertNull(ContentDigests.load(content));
+    }
+
+    @Test
+    public void shouldHashAgainIfSidecarHoldsInvalidHex() throws Exception {
+        // Given X0 && ...Xn
+        File content = createContentFile("sample.txt");
+        ContentDigests digests = ContentDigests.calculate(content, "SHA-1");
+        File sidecar = new File(content.getParentFile(), ContentDigests.SIDECAR_PREFIX + content.getName());
+        FileOutputStream os = new FileOutputStream(sidecar);
+        try {
+            os.write(("SHA1=" + digests.getChecksum("SHA-1") + "\nMD5=not-a-checksum\n").getBytes("ISO-8859-1"));
+        }
+        finally {
+            os.close();
+        }
+
+        // When
+        ContentDigests restored = ContentDigests.loadOrCalculate(content, "SHA-1");
+
+        // Then ensure that
+        assertNull(ContentDigests.load(content));
+        assertEquals(digests.getChecksums(), restored.getChecksums());
+    }
+
+    @Test
+    public void shouldRecognizeSidecarFiles() throws Exception {
+        assertTrue(ContentDigests.isSidecar(new File(ContentDigests.SIDECAR_PREFIX + "sample.txt")));
+        assertFalse(ContentDigests.isSidecar(new File("sample.txt")));
+    }
+
+    private static File createContentFile(String name) throws IOException {
+        File dir = File.createTempFile("config", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        File content = new File(dir, name);
+        FileOutputStream os = new FileOutputStream(content);
+        try {
+            os.write(CONTENT);
+        }
+        finally {
+            os.close();
+        }
+        return content;
+    }
+}
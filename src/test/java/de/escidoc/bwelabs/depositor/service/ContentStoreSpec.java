@@ -0,0 +1,104 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentStoreSpec {
+
+    private static final String CHECKSUM = "0123456789abcdef";
+
+    private File baseDir;
+
+    private ContentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("store", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+        store = new ContentStore(new File(baseDir, DirectoryLayout.CONTENT_STORE_DIRECTORY_NAME), true);
+        Assume.assumeTrue(store.isEnabled());
+    }
+
+    @Test
+    public void shouldKeepOneBlobForIdenticalContentFiles() throws Exception {
+        // Given X0 && ...Xn
+        File first = write(new File(baseDir, "first.txt"));
+        File second = write(new File(baseDir, "second.txt"));
+
+        // When
+        store.deduplicate(first, "MD5", CHECKSUM);
+        store.deduplicate(second, "MD5", CHECKSUM);
+
+        // Then ensure that
+        assertEquals(1, store.getBlobCount());
+        assertEquals(first.length(), store.getDeduplicatedBytes());
+        assertTrue(second.exists());
+    }
+
+    @Test
+    public void shouldRemoveBlobWithItsLastContentFile() throws Exception {
+        // Given X0 && ...Xn
+        File first = write(new File(baseDir, "first.txt"));
+        File second = write(new File(baseDir, "second.txt"));
+        store.deduplicate(first, "MD5", CHECKSUM);
+        store.deduplicate(second, "MD5", CHECKSUM);
+
+        // When
+        store.release(first);
+        int blobsAfterFirst = store.getBlobCount();
+        store.release(second);
+
+        // Then ensure that
+        assertEquals(1, blobsAfterFirst);
+        assertEquals(0, store.getBlobCount());
+        assertEquals(0, new File(baseDir, DirectoryLayout.CONTENT_STORE_DIRECTORY_NAME).listFiles()[0].list().length);
+    }
+
+    private static File write(File file) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write("calibration".getBytes("UTF-8"));
+        }
+        finally {
+            fos.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.escidoc.bwelabs.depositor.error.ApplicationException;
+import de.escidoc.bwelabs.depositor.error.DepositorException;
+
+public class DeletionJobSpec {
+
+    @Test
+    public void shouldCollapseConcurrentDeletionsOfAConfiguration() throws Exception {
+        // Given X0 && ...Xn
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger deleted = new AtomicInteger();
+        DeletionJob job = new DeletionJob(new DeletionJob.Deleter() {
+            public void delete(String configId) throws ApplicationException, DepositorException {
+                deleted.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 2);
+
+        // When
+        DeletionJob.Deletion first = job.submit("escidoc:1");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        DeletionJob.Deletion second = job.submit("escidoc:1");
+        release.countDown();
+        job.shutdown();
+
+        // Then ensure that
+        assertSame(first, second);
+        for (int i = 0; i < 500 && !first.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(DeletionJob.State.SUCCEEDED, first.getState());
+        assertEquals(1, deleted.get());
+    }
+
+    @Test
+    public void shouldKeepTheFailureOfADeletion() throws Exception {
+        // Given X0 && ...Xn
+        DeletionJob job = new DeletionJob(new DeletionJob.Deleter() {
+            public void delete(String configId) throws ApplicationException, DepositorException {
+                throw new DepositorException("can not rename");
+            }
+        }, 1);
+
+        // When
+        DeletionJob.Deletion deletion = job.submit("escidoc:1");
+        for (int i = 0; i < 500 && !deletion.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        job.evictFinished(60 * 1000);
+
+        // Then ensure that
+        assertEquals(DeletionJob.State.FAILED, deletion.getState());
+        assertEquals("can not rename", deletion.getFailure().getMessage());
+        assertSame(deletion, job.getDeletion("escidoc:1"));
+    }
+}
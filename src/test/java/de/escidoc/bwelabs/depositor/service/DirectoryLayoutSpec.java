@@ -0,0 +1,131 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryLayoutSpec {
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("layout", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : DirectoryLayout.listConfigurationDirectories(baseDir)) {
+            DirectoryLayout.deleteConfigurationDirectory(dir);
+        }
+    }
+
+    @Test
+    public void shouldAllocateDistinctDirectoriesForTheSameName() throws Exception {
+        // Given X0 && ...Xn
+        String first = DirectoryLayout.createConfigurationDirectory(baseDir, "escidoc:1", "2011_05_04_10_12_01_123");
+
+        // When
+        String second = DirectoryLayout.createConfigurationDirectory(baseDir, "escidoc:1", "2011_05_04_10_12_01_123");
+
+        // Then ensure that
+        assertFalse(first.equals(second));
+        assertTrue(first.startsWith(DirectoryLayout.getConfigurationShardPath("escidoc:1") + "/"));
+        assertEquals(2, DirectoryLayout.listConfigurationDirectories(baseDir).size());
+    }
+
+    @Test
+    public void shouldMigrateFlatConfigurationDirectory() throws Exception {
+        // Given X0 && ...Xn
+        File flat = new File(baseDir, "2011_05_04_10_12_01_123");
+        flat.mkdirs();
+        touch(new File(flat, Constants.CONFIGURATION_FILE_NAME));
+        touch(new File(flat, "successful_data.txt"));
+        touch(new File(flat, ContentDigests.SIDECAR_PREFIX + "data.txt"));
+
+        // When
+        File migrated = DirectoryLayout.migrate(baseDir, flat, "escidoc:1");
+
+        // Then ensure that
+        assertFalse(flat.exists());
+        assertEquals(DirectoryLayout.getConfigurationShardPath("escidoc:1") + "/" + flat.getName(),
+            DirectoryLayout.getRelativePath(baseDir, migrated));
+        assertTrue(new File(migrated, Constants.CONFIGURATION_FILE_NAME).exists());
+        // state prefixes are stripped later by stripStatePrefixes(), which moves the file into the shard of data.txt
+        assertTrue(new File(DirectoryLayout.getContentDirectory(migrated, "successful_data.txt"),
+            "successful_data.txt").exists());
+        assertTrue(new File(DirectoryLayout.getContentDirectory(migrated, "data.txt"), ContentDigests.SIDECAR_PREFIX
+            + "data.txt").exists());
+        List<File> files = DirectoryLayout.listContentFiles(migrated);
+        assertEquals(3, files.size());
+    }
+
+    @Test
+    public void shouldStripStatePrefixesOfNamesWithUnderscores() throws Exception {
+        // Given X0 && ...Xn
+        String path = DirectoryLayout.createConfigurationDirectory(baseDir, "escidoc:1", "2011_05_04_10_12_01_123");
+        File configurationDirectory = new File(baseDir, path);
+        touch(new File(configurationDirectory, Constants.CONFIGURATION_FILE_NAME));
+        touch(DirectoryLayout.createContentFile(configurationDirectory, "run_1_data.txt"));
+        File failed = DirectoryLayout.createContentFile(configurationDirectory, "run_2_data.txt");
+        touch(new File(failed.getParentFile(), "failed_run_2_data.txt"));
+        File retried = DirectoryLayout.createContentFile(configurationDirectory, "run_3_data.txt");
+        touch(new File(retried.getParentFile(), "successful_failed_run_3_data.txt"));
+
+        // When
+        Map<String, FileNameIndex.State> states = DirectoryLayout.stripStatePrefixes(configurationDirectory);
+
+        // Then ensure that
+        assertEquals(3, states.size());
+        assertEquals(FileNameIndex.State.STORED, states.get("run_1_data.txt"));
+        assertEquals(FileNameIndex.State.FAILED, states.get("run_2_data.txt"));
+        assertEquals(FileNameIndex.State.SUCCESSFUL, states.get("run_3_data.txt"));
+        assertTrue(failed.exists());
+        assertTrue(retried.exists());
+        assertEquals(4, DirectoryLayout.listContentFiles(configurationDirectory).size());
+    }
+
+    private static void touch(File file) throws IOException {
+        new FileOutputStream(file).close();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class ExpirySchedulerSpec {
+
+    @Test
+    public void shouldPollOnlyDueConfigurationsInExpiryOrder() throws Exception {
+        // Given X0 && ...Xn
+        ExpiryScheduler scheduler = new ExpiryScheduler();
+        scheduler.schedule("escidoc:3", 300);
+        scheduler.schedule("escidoc:1", 100);
+        scheduler.schedule("escidoc:2", 200);
+        scheduler.schedule("escidoc:4", 1000);
+
+        // When
+        scheduler.cancel("escidoc:2");
+        scheduler.schedule("escidoc:3", 150);
+
+        // Then ensure that
+        assertEquals(Arrays.asList("escidoc:1", "escidoc:3"), scheduler.pollExpired(500));
+        assertTrue(scheduler.pollExpired(500).isEmpty());
+        assertFalse(scheduler.isExpired("escidoc:4", 500));
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void shouldCalculateExpiryFromMonitoringStartTimeInUtc() throws Exception {
+        // Given X0 && ...Xn
+        Properties configuration = new Properties();
+        configuration.setProperty(Constants.PROPERTY_MONITORING_START_TIME, "1970-01-01T00:00:00.000");
+        configuration.setProperty(Constants.PROPERTY_TIME_MONITORING_DURATION, "2");
+
+        // When
+        long expiry = ExpiryScheduler.getExpiry(configuration);
+
+        // Then ensure that
+        assertEquals(2 * 60 * 1000, expiry);
+        assertEquals(ExpiryScheduler.NEVER, ExpiryScheduler.getExpiry(new Properties()));
+    }
+}
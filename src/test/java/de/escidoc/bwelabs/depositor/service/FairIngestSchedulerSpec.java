@@ -0,0 +1,133 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FairIngestSchedulerSpec {
+
+    private static final int LARGE_BACKLOG = 5000;
+
+    private FairIngestScheduler scheduler;
+
+    private CountDownLatch blocker;
+
+    private List<String> executed;
+
+    @Before
+    public void blockSingleWorker() throws Exception {
+        scheduler = new FairIngestScheduler(1, LARGE_BACKLOG * 2, "Test-Worker-");
+        executed = Collections.synchronizedList(new ArrayList<String>());
+        blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        // the worker is busy until all tasks are queued, so the order only depends on the scheduler
+        scheduler.execute("blocker", 1, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        blocker.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldServeSmallConfigurationsWhileLargeOneIsBacklogged() throws Exception {
+        // Given X0 && ...Xn
+        for (int i = 0; i < LARGE_BACKLOG; i++) {
+            scheduler.execute("large", 1, record("large"));
+        }
+        for (int i = 0; i < 3; i++) {
+            scheduler.execute("small-a", 1, record("small-a"));
+            scheduler.execute("small-b", 1, record("small-b"));
+        }
+
+        // When
+        blocker.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Then ensure that
+        assertEquals(LARGE_BACKLOG + 6, executed.size());
+        // every small content file waits for at most one content file of each other configuration per round
+        assertEquals(8, executed.lastIndexOf("small-b"));
+        assertTrue(executed.lastIndexOf("small-a") < 9);
+    }
+
+    @Test
+    public void shouldShareWorkersByWeight() throws Exception {
+        // Given X0 && ...Xn
+        for (int i = 0; i < 100; i++) {
+            scheduler.execute("heavy", 3, record("heavy"));
+            scheduler.execute("light", 1, record("light"));
+        }
+
+        // When
+        blocker.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Then ensure that
+        List<String> firstRounds = executed.subList(0, 40);
+        assertEquals(30, Collections.frequency(firstRounds, "heavy"));
+        assertEquals(10, Collections.frequency(firstRounds, "light"));
+    }
+
+    private Runnable record(final String configId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(configId);
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileNameIndexSpec {
+
+    private Map<String, FileNameIndex.State> states;
+
+    @Before
+    public void createStates() throws Exception {
+        states = new HashMap<String, FileNameIndex.State>();
+        states.put("stored.dat", FileNameIndex.State.STORED);
+        states.put("done.dat", FileNameIndex.State.SUCCESSFUL);
+        states.put("broken.dat", FileNameIndex.State.FAILED);
+        states.put("half.dat", FileNameIndex.State.RESERVED);
+    }
+
+    @Test
+    public void shouldTakeNamesOfAllContentFilesFromJournalStates() throws Exception {
+        // Given X0 && ...Xn
+        FileNameIndex index = new FileNameIndex();
+        index.load("config", states);
+
+        // When
+        boolean isNewReserved = index.reserve("config", "new.dat");
+
+        // Then ensure that
+        assertTrue(isNewReserved);
+        for (String name : new String[] { Constants.CONFIGURATION_FILE_NAME, "stored.dat", "done.dat", "broken.dat",
+            "half.dat" }) {
+            assertFalse(name, index.reserve("config", name));
+        }
+        assertEquals(FileNameIndex.State.SUCCESSFUL, index.getState("config", "done.dat"));
+        assertEquals(FileNameIndex.State.FAILED, index.getState("config", "broken.dat"));
+        assertEquals(FileNameIndex.State.RESERVED, index.getState("config", "half.dat"));
+    }
+
+    @Test
+    public void shouldTreatPrefixedNamesAsDistinctNames() throws Exception {
+        // Given X0 && ...Xn
+        FileNameIndex index = new FileNameIndex();
+        index.load("config", states);
+
+        // When
+        boolean isPrefixedReserved = index.reserve("config", "failed_broken.dat");
+
+        // Then ensure that
+        assertTrue(isPrefixedReserved);
+        assertEquals(FileNameIndex.State.FAILED, index.getState("config", "broken.dat"));
+    }
+
+    @Test
+    public void shouldReserveNameOnlyOnceUntilReleased() throws Exception {
+        // Given X0 && ...Xn
+        FileNameIndex index = new FileNameIndex();
+        index.reserve("config", "new.dat");
+
+        // When
+        boolean isReservedTwice = index.reserve("config", "new.dat");
+        index.release("config", "new.dat");
+
+        // Then ensure that
+        assertFalse(isReservedTwice);
+        assertTrue(index.reserve("config", "new.dat"));
+    }
+}
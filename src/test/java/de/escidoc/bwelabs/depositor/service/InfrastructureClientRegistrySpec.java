@@ -0,0 +1,90 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import de.escidoc.core.client.interfaces.ItemHandlerClientInterface;
+
+public class InfrastructureClientRegistrySpec {
+
+    private static final String ENDPOINT = "http://localhost:8080";
+
+    @Test
+    public void shouldReuseReleasedClientForSameEndpointAndHandle() throws Exception {
+        // Given X0 && ...Xn
+        InfrastructureClientRegistry registry = new InfrastructureClientRegistry(2, 60000);
+        ItemHandlerClientInterface client = registry.borrowItemClient(ENDPOINT, "handle");
+        registry.release(ENDPOINT, "handle", client, true);
+
+        // When
+        ItemHandlerClientInterface reused = registry.borrowItemClient(ENDPOINT, "handle");
+        ItemHandlerClientInterface other = registry.borrowItemClient(ENDPOINT, "other handle");
+
+        // Then ensure that
+        assertSame(client, reused);
+        assertNotSame(client, other);
+        assertEquals(2, registry.getCreatedCount());
+        assertEquals(1, registry.getReusedCount());
+    }
+
+    @Test
+    public void shouldNotReuseClientsOfInvalidatedHandle() throws Exception {
+        // Given X0 && ...Xn
+        InfrastructureClientRegistry registry = new InfrastructureClientRegistry(2, 60000);
+        ItemHandlerClientInterface client = registry.borrowItemClient(ENDPOINT, "handle");
+        registry.release(ENDPOINT, "handle", client, true);
+
+        // When
+        registry.invalidate(ENDPOINT, "handle");
+
+        // Then ensure that
+        assertEquals(0, registry.getIdleCount());
+        assertNotSame(client, registry.borrowItemClient(ENDPOINT, "handle"));
+    }
+
+    @Test
+    public void shouldEvictExpiredIdleClients() throws Exception {
+        // Given X0 && ...Xn
+        InfrastructureClientRegistry registry = new InfrastructureClientRegistry(2, 1);
+        registry.release(ENDPOINT, "handle", registry.borrowItemClient(ENDPOINT, "handle"), true);
+        Thread.sleep(5);
+
+        // When
+        int evicted = registry.evictIdle();
+
+        // Then ensure that
+        assertEquals(1, evicted);
+        assertEquals(0, registry.getIdleCount());
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+import org.junit.Test;
+
+public class IngestBatcherSpec {
+
+    @Test
+    public void shouldIngestConcurrentFilesOfConfigurationWithOneCall() throws Exception {
+        // Given X0 && ...Xn
+        CountingIngester ingester = new CountingIngester();
+        IngestBatcher batcher = new IngestBatcher(ingester, 3, Long.MAX_VALUE, 10000);
+
+        // When
+        List<Future<String>> ids = ingestConcurrently(batcher, "a.txt", "b.txt", "c.txt");
+
+        // Then ensure that
+        assertEquals("item:a.txt", ids.get(0).get());
+        assertEquals("item:b.txt", ids.get(1).get());
+        assertEquals("item:c.txt", ids.get(2).get());
+        assertEquals(1, ingester.calls.get());
+    }
+
+    @Test
+    public void shouldNotFailOtherFilesOfBatchIfOneFileFails() throws Exception {
+        // Given X0 && ...Xn
+        CountingIngester ingester = new CountingIngester();
+        IngestBatcher batcher = new IngestBatcher(ingester, 3, Long.MAX_VALUE, 10000);
+
+        // When
+        List<Future<String>> ids = ingestConcurrently(batcher, "a.txt", "bad.txt", "c.txt");
+
+        // Then ensure that
+        assertEquals("item:a.txt", ids.get(0).get());
+        assertEquals("item:c.txt", ids.get(2).get());
+        try {
+            ids.get(1).get();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IngestException);
+            return;
+        }
+        throw new AssertionError("The failed file got an item id.");
+    }
+
+    @Test
+    public void shouldAssignItemsByFileNameIfTheyAreCreatedInAnotherOrder() throws Exception {
+        // Given X0 && ...Xn
+        CountingIngester ingester = new CountingIngester();
+        ingester.isReversed = true;
+        IngestBatcher batcher = new IngestBatcher(ingester, 3, Long.MAX_VALUE, 10000);
+
+        // When
+        List<Future<String>> ids = ingestConcurrently(batcher, "a.txt", "b.txt", "c.txt");
+
+        // Then ensure that
+        assertEquals("item:a.txt", ids.get(0).get());
+        assertEquals("item:b.txt", ids.get(1).get());
+        assertEquals("item:c.txt", ids.get(2).get());
+    }
+
+    @Test
+    public void shouldNotIngestFilesAgainIfAnItemCanNotBeAssigned() throws Exception {
+        // Given X0 && ...Xn
+        CountingIngester ingester = new CountingIngester();
+        ingester.unassigned = "b.txt";
+        IngestBatcher batcher = new IngestBatcher(ingester, 3, Long.MAX_VALUE, 10000);
+
+        // When
+        List<Future<String>> ids = ingestConcurrently(batcher, "a.txt", "b.txt", "c.txt");
+
+        // Then ensure that
+        assertEquals("item:a.txt", ids.get(0).get());
+        assertEquals("item:c.txt", ids.get(2).get());
+        try {
+            ids.get(1).get();
+            throw new AssertionError("The file without an assigned item got an item id.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IngestException);
+        }
+        assertEquals(1, ingester.calls.get());
+    }
+
+    private static List<Future<String>> ingestConcurrently(final IngestBatcher batcher, String... fileNames)
+        throws Exception {
+        final Properties configuration = new Properties();
+        configuration.setProperty(Constants.PROPERTY_CONFIGURATION_ID, "escidoc:1");
+        ExecutorService executor = Executors.newFixedThreadPool(fileNames.length);
+        try {
+            List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+            for (final String fileName : fileNames) {
+                tasks.add(new Callable<String>() {
+                    public String call() throws Exception {
+                        return batcher.ingest(configuration, new File(fileName));
+                    }
+                });
+            }
+            return executor.invokeAll(tasks);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    // creates an item for every file in order until a file named bad.txt
+    private static final class CountingIngester implements IngestBatcher.Ingester {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile boolean isReversed;
+
+        // the item of this file is created, but it is not reported for the file
+        private volatile String unassigned;
+
+        public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+            throws IngestException {
+            calls.incrementAndGet();
+            List<File> ordered = new ArrayList<File>(files);
+            if (isReversed) {
+                Collections.reverse(ordered);
+            }
+            int created = 0;
+            for (File file : ordered) {
+                if (file.getName().equals("bad.txt")) {
+                    throw new IngestException("Can not ingest " + file.getName());
+                }
+                created++;
+                if (!file.getName().equals(unassigned)) {
+                    itemIds.put(file.getName(), "item:" + file.getName());
+                }
+            }
+            return created;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.escidoc.bwelabs.deposit.Configuration;
+import de.escidoc.bwelabs.depositor.utility.StagingBufferPool;
+
+/**
+ * Runs the pipelined transfer against a local stub of the eSciDoc Core.
+ */
+public class PipelinedTransferSpec {
+
+    private static final String HANDLE = "handle-4711";
+
+    private HttpServer core;
+
+    private final ByteArrayOutputStream staged = new ByteArrayOutputStream();
+
+    private final AtomicInteger completedStagings = new AtomicInteger();
+
+    private final AtomicInteger createdItems = new AtomicInteger();
+
+    private final CountDownLatch stagingFinished = new CountDownLatch(1);
+
+    private volatile String cookie;
+
+    @Before
+    public void startCore() throws IOException {
+        core = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        core.createContext(PipelinedTransfer.STAGING_PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    cookie = exchange.getRequestHeaders().getFirst("Cookie");
+                    byte[] body = read(exchange.getRequestBody());
+                    staged.write(body);
+                    completedStagings.incrementAndGet();
+                    respond(exchange, "<staging-file xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+                        + "xlink:href=\"/st/staging-file/1\"/>");
+                }
+                finally {
+                    stagingFinished.countDown();
+                }
+            }
+        });
+        core.createContext("/ir/container/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                read(exchange.getRequestBody());
+                createdItems.incrementAndGet();
+                respond(exchange, "<escidocItem:item xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+                    + "xlink:href=\"/ir/item/escidoc:42\"/>");
+            }
+        });
+        core.start();
+    }
+
+    @After
+    public void stopCore() {
+        core.stop(0);
+    }
+
+    @Test
+    public void shouldTeeUploadIntoStagingAreaAndCreateItemOnCommit() throws Exception {
+        // Given X0 && ...Xn
+        byte[] content = createContent(300 * 1024);
+        File target = File.createTempFile("pipelined", ".bin");
+        target.deleteOnExit();
+        PipelinedTransfer transfer = new PipelinedTransfer(getEndpoint(), HANDLE);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+
+        // When
+        new StagingBufferPool(64 * 1024, 1).transfer(new ByteArrayInputStream(content), target,
+            transfer.getChannel(), md);
+        URL stagedContent = transfer.commit();
+        String itemId = new StagedContentIngester(createConfiguration()).ingest(stagedContent, target.getName());
+
+        // Then ensure that
+        assertEquals(new URL(new URL(getEndpoint()), "/st/staging-file/1"), stagedContent);
+        assertEquals("escidoc:42", itemId);
+        assertArrayEquals(content, staged.toByteArray());
+        assertArrayEquals(content, read(new FileInputStream(target)));
+        assertEquals(PipelinedTransfer.COOKIE_NAME + "=" + HANDLE, cookie);
+    }
+
+    @Test
+    public void shouldNotCompleteStagingOnRollback() throws Exception {
+        // Given X0 && ...Xn
+        byte[] content = createContent(300 * 1024);
+        File target = File.createTempFile("pipelined", ".bin");
+        target.deleteOnExit();
+        PipelinedTransfer transfer = new PipelinedTransfer(getEndpoint(), HANDLE);
+
+        // When
+        new StagingBufferPool(64 * 1024, 1).transfer(new ByteArrayInputStream(content), target,
+            transfer.getChannel(), MessageDigest.getInstance("MD5"));
+        transfer.rollback();
+
+        // Then ensure that
+        assertTrue(stagingFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, completedStagings.get());
+        assertEquals(0, createdItems.get());
+    }
+
+    private String getEndpoint() {
+        return "http://localhost:" + core.getAddress().getPort();
+    }
+
+    private Properties createConfiguration() {
+        Properties configuration = new Properties();
+        configuration.setProperty(Configuration.PROPERTY_INFRASTRUCTURE_ENDPOINT, getEndpoint());
+        configuration.setProperty(Configuration.PROPERTY_USER_HANDLE, HANDLE);
+        configuration.setProperty(Configuration.PROPERTY_EXPERIMENT_ID, "escidoc:1");
+        configuration.setProperty(Configuration.PROPERTY_CONTEXT_ID, "escidoc:2");
+        configuration.setProperty(Configuration.PROPERTY_CONTENT_MODEL_ID, "escidoc:3");
+        return configuration;
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    private static byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = is.read(buf)) > 0) {
+                bytes.write(buf, 0, read);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.escidoc.bwelabs.depositor.error.DepositorException;
+
+public class ReingestJobSpec {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ReingestJob job;
+
+    @Before
+    public void setUp() throws Exception {
+        job = new ReingestJob(new ReingestJob.Listener() {
+            public void reingestFailed(String configId) {
+            }
+        }, 1, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        job.shutdown();
+    }
+
+    @Test
+    public void shouldRunTaskInSubmittingThreadIfQueueIsFull() throws Exception {
+        // Given X0 && ...Xn
+        CountDownLatch started = new CountDownLatch(1);
+        job.submit("escidoc:1", new BlockingTask("a.txt", started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        job.submit("escidoc:1", new BlockingTask("b.txt", null));
+        RecordingTask overflow = new RecordingTask("c.txt");
+
+        // When
+        boolean isSubmitted = job.submit("escidoc:1", overflow);
+
+        // Then ensure that
+        assertTrue(isSubmitted);
+        assertSame(Thread.currentThread(), overflow.executedBy.get());
+        assertEquals(2, job.getPendingCount("escidoc:1"));
+    }
+
+    @Test
+    public void shouldNotReingestContentFileTwiceWhilePending() throws Exception {
+        // Given X0 && ...Xn
+        CountDownLatch started = new CountDownLatch(1);
+        job.submit("escidoc:1", new BlockingTask("a.txt", started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        RecordingTask again = new RecordingTask("a.txt");
+
+        // When
+        boolean isSubmitted = job.submit("escidoc:1", again);
+
+        // Then ensure that
+        assertFalse(isSubmitted);
+        assertEquals(1, job.getPendingCount("escidoc:1"));
+        release.countDown();
+        for (int i = 0; i < 500 && job.getPendingCount("escidoc:1") > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, job.getPendingCount("escidoc:1"));
+        assertTrue(job.submit("escidoc:1", again));
+        for (int i = 0; i < 500 && again.executedBy.get() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, again.executions.get());
+    }
+
+    private class BlockingTask implements ReingestJob.Task {
+
+        private final File content;
+
+        private final CountDownLatch started;
+
+        BlockingTask(String fileName, CountDownLatch started) {
+            this.content = new File(fileName);
+            this.started = started;
+        }
+
+        public File getContentFile() {
+            return content;
+        }
+
+        public void execute() throws DepositorException {
+            if (started != null) {
+                started.countDown();
+            }
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean isSessionFailed() {
+            return false;
+        }
+    }
+
+    private static class RecordingTask implements ReingestJob.Task {
+
+        private final File content;
+
+        private final AtomicReference<Thread> executedBy = new AtomicReference<Thread>();
+
+        private final AtomicInteger executions = new AtomicInteger();
+
+        RecordingTask(String fileName) {
+            this.content = new File(fileName);
+        }
+
+        public File getContentFile() {
+            return content;
+        }
+
+        public void execute() throws DepositorException {
+            executions.incrementAndGet();
+            executedBy.set(Thread.currentThread());
+        }
+
+        public boolean isSessionFailed() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.escidoc.bwelabs.depositor.error.WrongFormatException;
+import de.escidoc.bwelabs.depositor.error.WrongOffsetException;
+import de.escidoc.bwelabs.depositor.utility.StagingBufferPool;
+import de.escidoc.bwelabs.depositor.utility.Utility;
+
+public class ResumableUploadSpec {
+
+    private static final String FILE_NAME = "measurement.dat";
+
+    private final StagingBufferPool buffers = new StagingBufferPool(4096, 1);
+
+    private byte[] content;
+
+    private File configurationDirectory;
+
+    @Before
+    public void createContent() throws Exception {
+        content = new byte[10000];
+        new Random(3).nextBytes(content);
+        configurationDirectory = File.createTempFile("config", "");
+        configurationDirectory.delete();
+        configurationDirectory.mkdirs();
+        configurationDirectory.deleteOnExit();
+    }
+
+    @Test
+    public void shouldCalculateChecksumOfWholeFileFromParts() throws Exception {
+        // Given X0 && ...Xn
+        ResumableUpload upload = ResumableUpload.open(configurationDirectory, FILE_NAME, new ContentDigests("SHA-1"));
+
+        // When
+        upload.append(part(0, 3999), ContentRange.parse("bytes 0-3999/*"), buffers);
+        upload.append(part(4000, 9999), ContentRange.parse("bytes 4000-9999/10000"), buffers);
+
+        // Then ensure that
+        assertEquals(content.length, upload.getPartialFile().length());
+        assertEquals(expectedChecksum(), upload.complete().getChecksum("SHA-1"));
+    }
+
+    @Test
+    public void shouldRejectPartNotStartingAtCommittedOffset() throws Exception {
+        // Given X0 && ...Xn
+        ResumableUpload upload = ResumableUpload.open(configurationDirectory, FILE_NAME, new ContentDigests("SHA-1"));
+        upload.append(part(0, 3999), ContentRange.parse("bytes 0-3999/10000"), buffers);
+
+        // When
+        try {
+            upload.append(part(5000, 9999), ContentRange.parse("bytes 5000-9999/10000"), buffers);
+            fail("A part after a gap must be rejected.");
+        }
+        // Then ensure that
+        catch (WrongOffsetException e) {
+            assertEquals(4000, e.getCommittedOffset());
+        }
+    }
+
+    @Test
+    public void shouldDiscardIncompletePart() throws Exception {
+        // Given X0 && ...Xn
+        ResumableUpload upload = ResumableUpload.open(configurationDirectory, FILE_NAME, new ContentDigests("SHA-1"));
+        upload.append(part(0, 3999), ContentRange.parse("bytes 0-3999/10000"), buffers);
+
+        // When
+        try {
+            upload.append(part(4000, 6999), ContentRange.parse("bytes 4000-9999/10000"), buffers);
+            fail("An incomplete part must be rejected.");
+        }
+        catch (WrongFormatException e) {
+            // expected
+        }
+        upload.append(part(4000, 9999), ContentRange.parse("bytes 4000-9999/10000"), buffers);
+
+        // Then ensure that
+        assertEquals(10000, upload.getOffset());
+        assertEquals(expectedChecksum(), upload.complete().getChecksum("SHA-1"));
+    }
+
+    @Test
+    public void shouldContinueUploadAfterRestart() throws Exception {
+        // Given X0 && ...Xn
+        ResumableUpload.open(configurationDirectory, FILE_NAME, new ContentDigests("SHA-1")).append(part(0, 3999),
+            ContentRange.parse("bytes 0-3999/10000"), buffers);
+
+        // When
+        ResumableUpload restored =
+            ResumableUpload.open(configurationDirectory, FILE_NAME, new ContentDigests("SHA-1"));
+        restored.append(part(4000, 9999), ContentRange.parse("bytes 4000-9999/10000"), buffers);
+
+        // Then ensure that
+        assertTrue(ResumableUpload.isPartial(restored.getPartialFile()));
+        assertEquals(expectedChecksum(), restored.complete().getChecksum("SHA-1"));
+    }
+
+    private ByteArrayInputStream part(int first, int last) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, first, last + 1));
+    }
+
+    private String expectedChecksum() throws Exception {
+        return Utility.byteArraytoHexString(MessageDigest.getInstance("SHA-1").digest(content));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionJournalSpec {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("journal", "");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReplayLastStateOfEveryContentFile() throws Exception {
+        // Given X0 && ...Xn
+        SessionJournal journal = SessionJournal.open(file);
+        journal.create("escidoc:1");
+        journal.update("escidoc:1", "a_1.txt", FileNameIndex.State.RESERVED);
+        journal.update("escidoc:1", "a_1.txt", FileNameIndex.State.STORED);
+        journal.update("escidoc:1", "a_1.txt", FileNameIndex.State.FAILED);
+        journal.update("escidoc:1", "b.txt", FileNameIndex.State.SUCCESSFUL);
+        journal.update("escidoc:1", "c.txt", FileNameIndex.State.RESERVED);
+        journal.release("escidoc:1", "c.txt");
+        journal.create("escidoc:2");
+        journal.update("escidoc:2", "d.txt", FileNameIndex.State.STORED);
+        journal.remove("escidoc:2");
+        journal.create("escidoc:3");
+        journal.close();
+
+        // When
+        SessionJournal replayed = SessionJournal.open(file);
+
+        // Then ensure that
+        Map<String, FileNameIndex.State> states = replayed.getStates("escidoc:1");
+        assertEquals(2, states.size());
+        assertEquals(FileNameIndex.State.FAILED, states.get("a_1.txt"));
+        assertEquals(FileNameIndex.State.SUCCESSFUL, states.get("b.txt"));
+        assertFalse(replayed.contains("escidoc:2"));
+        assertTrue(replayed.contains("escidoc:3"));
+        assertTrue(replayed.getStates("escidoc:3").isEmpty());
+        replayed.close();
+    }
+
+    @Test
+    public void shouldDropTornRecordAtTheEnd() throws Exception {
+        // Given X0 && ...Xn
+        SessionJournal journal = SessionJournal.open(file);
+        journal.update("escidoc:1", "a.txt", FileNameIndex.State.STORED);
+        journal.update("escidoc:1", "b.txt", FileNameIndex.State.STORED);
+        journal.close();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            // the beginning of a record, which was not written completely
+            out.write(new byte[] { 0, 0, 0, 42, 2, 1 });
+        }
+        finally {
+            out.close();
+        }
+
+        // When
+        SessionJournal replayed = SessionJournal.open(file);
+        replayed.update("escidoc:1", "b.txt", FileNameIndex.State.SUCCESSFUL);
+        replayed.close();
+
+        // Then ensure that
+        SessionJournal reopened = SessionJournal.open(file);
+        Map<String, FileNameIndex.State> states = reopened.getStates("escidoc:1");
+        assertEquals(2, states.size());
+        assertEquals(FileNameIndex.State.STORED, states.get("a.txt"));
+        assertEquals(FileNameIndex.State.SUCCESSFUL, states.get("b.txt"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldCommitRecordsOfConcurrentThreads() throws Exception {
+        // Given X0 && ...Xn
+        final SessionJournal journal = SessionJournal.open(file);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final String configId = "escidoc:" + i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            journal.update(configId, j + ".txt", FileNameIndex.State.STORED);
+                        }
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        // When
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        // Then ensure that
+        SessionJournal replayed = SessionJournal.open(file);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(50, replayed.getStates("escidoc:" + i).size());
+        }
+        replayed.close();
+    }
+}
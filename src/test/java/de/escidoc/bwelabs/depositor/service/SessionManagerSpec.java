@@ -0,0 +1,366 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.escidoc.core.client.ingest.exceptions.IngestException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.escidoc.bwelabs.deposit.Configuration;
+import de.escidoc.bwelabs.depositor.error.ServiceUnavailableException;
+import de.escidoc.bwelabs.depositor.utility.StagingSpaceGuard;
+import de.escidoc.bwelabs.depositor.utility.Utility;
+
+public class SessionManagerSpec {
+
+    private static final String CONFIG_ID = "escidoc:1";
+
+    private static final byte[] CONTENT = "content".getBytes();
+
+    private File baseDir;
+
+    private SessionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = File.createTempFile("depositor", "");
+        baseDir.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (manager != null) {
+            manager.close();
+        }
+        delete(baseDir);
+    }
+
+    @Test
+    public void shouldKeepContentFileAsFailedIfIngesterThrowsUncheckedException() throws Exception {
+        // Given X0 && ...Xn
+        manager = new SessionManager(properties(), new IngestBatcher.Ingester() {
+            public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds) {
+                throw new IllegalStateException("broken connector");
+            }
+        });
+        register(manager);
+        assertTrue(manager.refactorNameOfThisMethod(CONFIG_ID, md5(CONTENT), new ByteArrayInputStream(CONTENT),
+            "a.txt"));
+
+        // When
+        manager.cleanupSessions(CONFIG_ID);
+        manager.close();
+        manager = null;
+
+        // Then ensure that
+        assertTrue(findContentFile("a.txt").exists());
+        SessionJournal journal = SessionJournal.open(new File(baseDir, DirectoryLayout.JOURNAL_FILE_NAME));
+        try {
+            assertEquals(FileNameIndex.State.FAILED, journal.getStates(CONFIG_ID).get("a.txt"));
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void shouldRejectAndDiscardContentFileIfIngestPoolIsExhausted() throws Exception {
+        // Given X0 && ...Xn
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Properties props = properties();
+        props.setProperty(SessionManager.PROP_INGEST_QUEUE_CAPACITY, "1");
+        manager = new SessionManager(props, new IngestBatcher.Ingester() {
+            public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+                throws IngestException {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IngestException("not ingested");
+            }
+        });
+        register(manager);
+        manager.refactorNameOfThisMethod(CONFIG_ID, md5(CONTENT), new ByteArrayInputStream(CONTENT), "a.txt");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        manager.refactorNameOfThisMethod(CONFIG_ID, md5(CONTENT), new ByteArrayInputStream(CONTENT), "b.txt");
+
+        // When
+        try {
+            manager.refactorNameOfThisMethod(CONFIG_ID, md5(CONTENT), new ByteArrayInputStream(CONTENT), "c.txt");
+            fail("The upload was accepted by an exhausted ingest pool.");
+        }
+        catch (ServiceUnavailableException e) {
+            // expected
+        }
+        finally {
+            release.countDown();
+        }
+
+        // Then ensure that
+        assertFalse(findContentFile("c.txt").exists());
+        assertTrue(findContentFile("b.txt").exists());
+    }
+
+    @Test
+    public void shouldCleanupSessionsAsSoonAsLastSessionIsFinished() throws Exception {
+        // Given X0 && ...Xn
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        manager = new SessionManager(properties(), new IngestBatcher.Ingester() {
+            public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+                throws IngestException {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IngestException("not ingested");
+            }
+        });
+        register(manager);
+        manager.refactorNameOfThisMethod(CONFIG_ID, md5(CONTENT), new ByteArrayInputStream(CONTENT), "a.txt");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread cleaning = new Thread() {
+            @Override
+            public void run() {
+                manager.cleanupSessions(CONFIG_ID);
+            }
+        };
+
+        // When
+        cleaning.start();
+        cleaning.join(200);
+        boolean isWaiting = cleaning.isAlive();
+        long released = System.nanoTime();
+        release.countDown();
+        cleaning.join(10000);
+
+        // Then ensure that
+        assertTrue(isWaiting);
+        assertFalse(cleaning.isAlive());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - released) < 1000);
+    }
+
+    @Test
+    public void shouldFailArchiveEntriesWithInvalidNames() throws Exception {
+        // Given X0 && ...Xn
+        manager = new SessionManager(properties(), new FailingIngester());
+        register(manager);
+        Properties checksums = new Properties();
+        for (String fileName : new String[] { "../x", "a/b", "", ".", "..", "a.txt" }) {
+            checksums.setProperty(fileName, md5(CONTENT));
+        }
+        byte[] archive = archive(checksums, "../x", "a/b", "", ".", "..", "a.txt");
+
+        // When
+        BatchResult result = storeArchive(archive);
+
+        // Then ensure that
+        assertEquals(6, result.getEntries().size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(BatchResult.Status.FAILED, result.getEntries().get(i).getStatus());
+        }
+        assertEquals(BatchResult.Status.STORED, result.getEntries().get(5).getStatus());
+        assertFalse(new File(baseDir, "x").exists());
+    }
+
+    @Test
+    public void shouldNotStoreArchiveEntriesWithoutChecksums() throws Exception {
+        // Given X0 && ...Xn
+        manager = new SessionManager(properties(), new FailingIngester());
+        register(manager);
+        byte[] archive = archive(null, "a.txt");
+
+        // When
+        BatchResult result = storeArchive(archive);
+
+        // Then ensure that
+        assertEquals(BatchResult.Status.MISSING_CHECKSUM, result.getEntries().get(0).getStatus());
+        assertFalse(findContentFile("a.txt").exists());
+    }
+
+    @Test
+    public void shouldDiscardArchiveEntryIfChecksumDoesNotMatch() throws Exception {
+        // Given X0 && ...Xn
+        manager = new SessionManager(properties(), new FailingIngester());
+        register(manager);
+        Properties checksums = new Properties();
+        checksums.setProperty("a.txt", md5("other content".getBytes()));
+        byte[] archive = archive(checksums, "a.txt");
+
+        // When
+        BatchResult result = storeArchive(archive);
+
+        // Then ensure that
+        assertEquals(BatchResult.Status.CHECKSUM_MISMATCH, result.getEntries().get(0).getStatus());
+        assertFalse(findContentFile("a.txt").exists());
+        assertEquals(0, manager.getStagingSpaceGuard().getStagedBytes());
+    }
+
+    @Test
+    public void shouldExtendReservationByDecompressedArchiveEntries() throws Exception {
+        // Given X0 && ...Xn
+        manager = new SessionManager(properties(), new FailingIngester());
+        register(manager);
+        byte[] large = new byte[1024 * 1024];
+        Properties checksums = new Properties();
+        checksums.setProperty("a.txt", md5(large));
+        byte[] archive = archive(checksums, Collections.singletonMap("a.txt", large));
+        StagingSpaceGuard.Reservation reservation = manager.reserveStagingSpace(archive.length);
+
+        // When
+        BatchResult result = manager.storeArchive(CONFIG_ID, new ByteArrayInputStream(archive), reservation);
+
+        // Then ensure that
+        assertEquals(BatchResult.Status.STORED, result.getEntries().get(0).getStatus());
+        assertTrue(reservation.getBytes() >= large.length);
+        reservation.release();
+        assertEquals(0, manager.getStagingSpaceGuard().getStagedBytes());
+    }
+
+    private BatchResult storeArchive(byte[] archive) throws Exception {
+        StagingSpaceGuard.Reservation reservation = manager.reserveStagingSpace(archive.length);
+        try {
+            return manager.storeArchive(CONFIG_ID, new ByteArrayInputStream(archive), reservation);
+        }
+        finally {
+            reservation.release();
+        }
+    }
+
+    private static byte[] archive(Properties checksums, String... fileNames) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (String fileName : fileNames) {
+            entries.put(fileName, CONTENT);
+        }
+        return archive(checksums, entries);
+    }
+
+    private static byte[] archive(Properties checksums, Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        try {
+            if (checksums != null) {
+                zos.putNextEntry(new ZipEntry(SessionManager.ARCHIVE_CHECKSUMS_ENTRY));
+                checksums.store(zos, null);
+                zos.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        finally {
+            zos.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private Properties properties() {
+        Properties props = new Properties();
+        props.setProperty(SessionManager.PROP_BASEDIR, baseDir.getPath());
+        props.setProperty(SessionManager.PROP_MAX_THREAD_NUMBER, "1");
+        props.setProperty(SessionManager.PROP_PING_INTERVAL, "60");
+        return props;
+    }
+
+    private static void register(SessionManager manager) throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setProperty(Configuration.PROPERTY_CONFIGURATION_ID, CONFIG_ID);
+        configuration.setProperty(Configuration.PROPERTY_CHECKSUM_ALGORITHM, "MD5");
+        configuration.setProperty(Configuration.PROPERTY_INFRASTRUCTURE_ENDPOINT, "http://localhost:8080");
+        configuration.setProperty(Configuration.PROPERTY_USER_HANDLE, "handle");
+        configuration.setProperty(Configuration.PROPERTY_EXPERIMENT_ID, "escidoc:2");
+        manager.beginRegistration(CONFIG_ID);
+        manager.saveInLocalFileSystem(configuration);
+        manager.registerConfiguration(configuration);
+    }
+
+    private File findContentFile(String fileName) {
+        for (File configurationDirectory : DirectoryLayout.listConfigurationDirectories(baseDir)) {
+            for (File file : DirectoryLayout.listContentFiles(configurationDirectory)) {
+                if (file.getName().equals(fileName)) {
+                    return file;
+                }
+            }
+        }
+        return new File(baseDir, fileName);
+    }
+
+    // keeps the content files of the specs on the disk
+    private static final class FailingIngester implements IngestBatcher.Ingester {
+
+        public int ingest(Properties configuration, List<File> files, Map<String, String> itemIds)
+            throws IngestException {
+            throw new IngestException("not ingested");
+        }
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        return Utility.byteArraytoHexString(MessageDigest.getInstance("MD5").digest(content));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
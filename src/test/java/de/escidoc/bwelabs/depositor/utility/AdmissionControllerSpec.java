@@ -0,0 +1,104 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class AdmissionControllerSpec {
+
+    @Test
+    public void shouldRejectWhenAllPermitsAreTakenAndQueueIsFull() throws Exception {
+        // Given X0 && ...Xn
+        AdmissionController controller = new AdmissionController(2, 0, 0);
+        AdmissionController.Permit first = controller.tryAcquire();
+        AdmissionController.Permit second = controller.tryAcquire();
+
+        // When
+        AdmissionController.Permit third = controller.tryAcquire();
+
+        // Then ensure that
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(third);
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(1, controller.getRejectedCount());
+        assertTrue(controller.getRetryAfterSeconds() >= AdmissionController.MIN_RETRY_AFTER_SECONDS);
+    }
+
+    @Test
+    public void shouldReleasePermitOnlyOnce() throws Exception {
+        // Given X0 && ...Xn
+        AdmissionController controller = new AdmissionController(1, 0, 0);
+        AdmissionController.Permit permit = controller.tryAcquire();
+
+        // When
+        permit.release();
+        permit.release();
+
+        // Then ensure that
+        assertEquals(1, controller.getAvailablePermits());
+    }
+
+    @Test
+    public void shouldAdmitWaitingRequestWhenPermitIsReleased() throws Exception {
+        // Given X0 && ...Xn
+        final AdmissionController controller = new AdmissionController(1, 1, 10000);
+        AdmissionController.Permit permit = controller.tryAcquire();
+        final AtomicReference<AdmissionController.Permit> waited = new AtomicReference<AdmissionController.Permit>();
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waited.set(controller.tryAcquire());
+                done.countDown();
+            }
+        }).start();
+        while (controller.getWaitingCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        // When
+        AdmissionController.Permit rejected = controller.tryAcquire();
+        permit.release();
+
+        // Then ensure that
+        assertNull(rejected);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNotNull(waited.get());
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+public class MessageDigestFactorySpec {
+
+    @Test
+    public void shouldReuseReleasedDigestInResetState() throws Exception {
+        // Given X0 && ...Xn
+        MessageDigest digest = MessageDigestFactory.acquire("SHA-384");
+        digest.update("unfinished".getBytes("UTF-8"));
+        MessageDigestFactory.release(digest);
+
+        // When
+        MessageDigest reused = MessageDigestFactory.acquire("SHA-384");
+
+        // Then ensure that
+        assertSame(digest, reused);
+        assertArrayEquals(MessageDigest.getInstance("SHA-384").digest("content".getBytes("UTF-8")),
+            reused.digest("content".getBytes("UTF-8")));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void shouldRejectUnknownAlgorithm() throws Exception {
+        MessageDigestFactory.resolve("NO-SUCH-DIGEST");
+    }
+}
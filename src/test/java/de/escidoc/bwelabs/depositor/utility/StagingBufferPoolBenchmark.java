@@ -0,0 +1,123 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the staging path of {@link StagingBufferPool} with the former 5000 byte
+ * DigestInputStream loop. It is not a unit test, run it with <code>mvn -Pbenchmark test</code>.
+ * 
+ */
+public final class StagingBufferPoolBenchmark {
+
+    private static final int CONTENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int ROUNDS = 10;
+
+    private StagingBufferPoolBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        byte[] content = new byte[CONTENT_SIZE];
+        new Random(42).nextBytes(content);
+        StagingBufferPool pool = new StagingBufferPool(StagingBufferPool.DEFAULT_BUFFER_SIZE, 1);
+        File target = File.createTempFile("staging", ".bin");
+        try {
+            byte[] expected = MessageDigest.getInstance("MD5").digest(content);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                copyWithStreamLoop(content, target);
+                copyWithPool(pool, content, target);
+            }
+            long streamNanos = Long.MAX_VALUE;
+            long poolNanos = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                check(expected, copyWithStreamLoop(content, target));
+                streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                check(expected, copyWithPool(pool, content, target));
+                poolNanos = Math.min(poolNanos, System.nanoTime() - start);
+            }
+            System.out.println("Staging " + (CONTENT_SIZE / (1024 * 1024)) + " MB with MD5, best of " + ROUNDS
+                + " rounds:");
+            System.out.println("  5000 byte stream loop: " + toMegabytesPerSecond(streamNanos) + " MB/s");
+            System.out.println("  staging buffer pool:   " + toMegabytesPerSecond(poolNanos) + " MB/s");
+        }
+        finally {
+            target.delete();
+        }
+    }
+
+    private static byte[] copyWithStreamLoop(byte[] content, File target) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        InputStream is = new ByteArrayInputStream(content);
+        FileOutputStream fos = new FileOutputStream(target);
+        DigestInputStream dis = new DigestInputStream(is, md);
+        try {
+            byte[] buf = new byte[5000];
+            int readByte;
+            while ((readByte = dis.read(buf)) > 0) {
+                fos.write(buf, 0, readByte);
+            }
+        }
+        finally {
+            fos.close();
+            dis.close();
+        }
+        return md.digest();
+    }
+
+    private static byte[] copyWithPool(StagingBufferPool pool, byte[] content, File target) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        pool.transfer(new ByteArrayInputStream(content), target, md);
+        return md.digest();
+    }
+
+    private static void check(byte[] expected, byte[] digest) throws IOException {
+        if (!Arrays.equals(expected, digest)) {
+            throw new IOException("The staged content differs from the original content.");
+        }
+    }
+
+    private static long toMegabytesPerSecond(long nanos) {
+        return CONTENT_SIZE * 1000000000L / Math.max(1, nanos) / (1024 * 1024);
+    }
+}
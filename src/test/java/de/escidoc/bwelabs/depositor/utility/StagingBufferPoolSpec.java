@@ -0,0 +1,88 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StagingBufferPoolSpec {
+
+    @Test
+    public void shouldStoreSameBytesAndDigestAsStreamCopy() throws Exception {
+        // Given X0 && ...Xn
+        byte[] content = createContent(3 * StagingBufferPool.DEFAULT_BUFFER_SIZE + 17);
+        StagingBufferPool pool = new StagingBufferPool(StagingBufferPool.DEFAULT_BUFFER_SIZE, 2);
+        File target = File.createTempFile("staging", ".bin");
+        target.deleteOnExit();
+
+        // When
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        long copied = pool.transfer(new ByteArrayInputStream(content), target, md);
+
+        // Then ensure that
+        assertEquals(content.length, copied);
+        assertEquals(content.length, target.length());
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(content), md.digest());
+    }
+
+    @Test
+    public void shouldFallBackToHeapBuffersBeyondMaxDirectBuffers() throws Exception {
+        // Given X0 && ...Xn
+        StagingBufferPool pool = new StagingBufferPool(1024, 1);
+        ByteBuffer first = pool.acquire();
+
+        // When
+        ByteBuffer second = pool.acquire();
+        pool.release(second);
+        pool.release(first);
+
+        // Then ensure that
+        assertTrue(first.isDirect());
+        assertFalse(second.isDirect());
+        assertSame(first, pool.acquire());
+        assertFalse(pool.acquire().isDirect());
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+}
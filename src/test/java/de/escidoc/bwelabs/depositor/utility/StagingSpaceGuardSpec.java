@@ -0,0 +1,130 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class StagingSpaceGuardSpec {
+
+    private static final File BASE_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void shouldRefuseReservationAboveHighWatermark() throws Exception {
+        // Given X0 && ...Xn
+        StagingSpaceGuard guard = new StagingSpaceGuard(BASE_DIR, 1, 1, 0);
+
+        // When
+        StagingSpaceGuard.Reservation reservation = guard.tryReserve(BASE_DIR.getUsableSpace() + 1);
+
+        // Then ensure that
+        assertNull(reservation);
+        assertTrue(guard.isSaturated());
+        assertEquals(0, guard.getStagedBytes());
+        assertNotNull(guard.tryReserve(0));
+        assertFalse(guard.isSaturated());
+    }
+
+    @Test
+    public void shouldReserveDefaultForUnknownLengthAndReleaseOnlyOnce() throws Exception {
+        // Given X0 && ...Xn
+        StagingSpaceGuard guard = new StagingSpaceGuard(BASE_DIR, 1, 1, 1024);
+        StagingSpaceGuard.Reservation reservation = guard.tryReserve(-1);
+
+        // When
+        long staged = guard.getStagedBytes();
+        reservation.release();
+        reservation.release();
+
+        // Then ensure that
+        assertEquals(1024, staged);
+        assertEquals(0, guard.getStagedBytes());
+    }
+
+    @Test
+    public void shouldConsumeReservationByBytesRead() throws Exception {
+        // Given X0 && ...Xn
+        StagingSpaceGuard guard = new StagingSpaceGuard(BASE_DIR, 1, 1, 0);
+        StagingSpaceGuard.Reservation reservation = guard.tryReserve(10);
+        InputStream is = reservation.track(new ByteArrayInputStream(new byte[6]));
+
+        // When
+        is.read(new byte[4]);
+        long staged = guard.getStagedBytes();
+        is.read(new byte[4]);
+        is.read();
+        reservation.release();
+
+        // Then ensure that
+        assertEquals(6, staged);
+        assertEquals(0, guard.getStagedBytes());
+    }
+
+    @Test
+    public void shouldExtendReservationByBytesReadBeyondIt() throws Exception {
+        // Given X0 && ...Xn
+        StagingSpaceGuard guard = new StagingSpaceGuard(BASE_DIR, 1, 1, 1024);
+        StagingSpaceGuard.Reservation reservation = guard.tryReserve(0);
+        InputStream is = reservation.trackExtending(new ByteArrayInputStream(new byte[6]));
+
+        // When
+        is.read(new byte[6]);
+        long staged = guard.getStagedBytes();
+        boolean isExtended = reservation.tryExtend(BASE_DIR.getUsableSpace() + 1);
+        reservation.release();
+
+        // Then ensure that
+        assertEquals(1024, reservation.getBytes());
+        assertEquals(1018, staged);
+        assertFalse(isExtended);
+        assertEquals(0, guard.getStagedBytes());
+    }
+
+    @Test
+    public void shouldReportUploadLargerThanDiskAsTooLarge() throws Exception {
+        // Given X0 && ...Xn
+        StagingSpaceGuard guard = new StagingSpaceGuard(BASE_DIR, 0.9, 0.8, 0);
+
+        // When
+        boolean isTooLarge = guard.isTooLarge(BASE_DIR.getTotalSpace());
+
+        // Then ensure that
+        assertTrue(isTooLarge);
+        assertFalse(guard.isTooLarge(0));
+    }
+}
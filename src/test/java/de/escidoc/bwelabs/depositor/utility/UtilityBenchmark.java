@@ -0,0 +1,142 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import java.util.Random;
+
+/**
+ * Compares the table based hex encoding and the byte wise checksum comparison of {@link Utility} with the former
+ * StringBuffer encoder and with a String.format encoder, both followed by a String comparison. It is not a unit test,
+ * run it with <code>mvn -Pbenchmark test</code>.
+ * 
+ */
+public final class UtilityBenchmark {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int ROUNDS = 5;
+
+    // results are consumed, so the encoding can not be optimized away
+    private static long sink;
+
+    private UtilityBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        // a SHA-1 digest
+        byte[] digest = new byte[20];
+        new Random(7).nextBytes(digest);
+        String provided = Utility.byteArraytoHexString(digest).toUpperCase();
+        if (!formerByteArraytoHexString(digest).equalsIgnoreCase(provided)
+            || !formatByteArraytoHexString(digest).equalsIgnoreCase(provided)
+            || !Utility.isHexEqual(digest, provided)) {
+            throw new IllegalStateException("The encoders do not agree.");
+        }
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(digest, provided);
+        }
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int i = 0; i < ROUNDS; i++) {
+            long[] nanos = run(digest, provided);
+            for (int j = 0; j < best.length; j++) {
+                best[j] = Math.min(best[j], nanos[j]);
+            }
+        }
+        System.out.println("Hex encoding of a SHA-1 digest, best of " + ROUNDS + " rounds of " + ITERATIONS
+            + " operations:");
+        System.out.println("  encode, String.format:        " + best[0] / ITERATIONS + " ns/op");
+        System.out.println("  encode, former StringBuffer:  " + best[1] / ITERATIONS + " ns/op");
+        System.out.println("  encode, table:                " + best[2] / ITERATIONS + " ns/op");
+        System.out.println("  compare, former encode+equal: " + best[3] / ITERATIONS + " ns/op");
+        System.out.println("  compare, isHexEqual:          " + best[4] / ITERATIONS + " ns/op");
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long[] run(byte[] digest, String provided) {
+        long[] nanos = new long[5];
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += formatByteArraytoHexString(digest).length();
+        }
+        nanos[0] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += formerByteArraytoHexString(digest).length();
+        }
+        nanos[1] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += Utility.byteArraytoHexString(digest).length();
+        }
+        nanos[2] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (formerByteArraytoHexString(digest).equalsIgnoreCase(provided)) {
+                sink++;
+            }
+        }
+        nanos[3] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (Utility.isHexEqual(digest, provided)) {
+                sink++;
+            }
+        }
+        nanos[4] = System.nanoTime() - start;
+        return nanos;
+    }
+
+    // the encoder replaced by the table based one
+    private static String formerByteArraytoHexString(byte[] array) {
+        final String hexByte = "0123456789abcdef";
+        StringBuffer buf = new StringBuffer();
+        for (byte val : array) {
+            int v1 = val >>> 4 & 0x0f;
+            int v2 = val & 0x0f;
+            buf.append(hexByte.substring(v1, v1 + 1)).append(hexByte.substring(v2, v2 + 1));
+        }
+        return buf.toString();
+    }
+
+    private static String formatByteArraytoHexString(byte[] array) {
+        StringBuilder buf = new StringBuilder(array.length * 2);
+        for (byte val : array) {
+            buf.append(String.format("%02x", val & 0xff));
+        }
+        return buf.toString();
+    }
+}
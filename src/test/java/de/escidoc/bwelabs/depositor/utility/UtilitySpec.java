@@ -0,0 +1,108 @@
+/**
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at license/ESCIDOC.LICENSE
+ * or https://www.escidoc.org/license/ESCIDOC.LICENSE .
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at license/ESCIDOC.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ *
+ *
+ * Copyright 2011 Fachinformationszentrum Karlsruhe Gesellschaft
+ * fuer wissenschaftlich-technische Information mbH and Max-Planck-
+ * Gesellschaft zur Foerderung der Wissenschaft e.V.
+ * All rights reserved.  Use is subject to license terms.
+ */
+package de.escidoc.bwelabs.depositor.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class UtilitySpec {
+
+    @Test
+    public void shouldEncodeLikeFormerImplementation() throws Exception {
+        // Given X0 && ...Xn
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+
+        // When
+        String hex = Utility.byteArraytoHexString(all);
+
+        // Then ensure that
+        assertEquals(formerByteArraytoHexString(all), hex);
+        assertArrayEquals(all, Utility.hexStringToByteArray(hex));
+    }
+
+    @Test
+    public void shouldCompareDigestWithHexOfAnyCase() throws Exception {
+        // Given X0 && ...Xn
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest("content".getBytes("UTF-8"));
+        String hex = Utility.byteArraytoHexString(digest);
+
+        // When
+        boolean isLowerCaseEqual = Utility.isHexEqual(digest, hex);
+        boolean isUpperCaseEqual = Utility.isHexEqual(digest, hex.toUpperCase());
+
+        // Then ensure that
+        assertTrue(isLowerCaseEqual);
+        assertTrue(isUpperCaseEqual);
+        assertFalse(Utility.isHexEqual(digest, hex.substring(2)));
+        assertFalse(Utility.isHexEqual(digest, "zz" + hex.substring(2)));
+        assertFalse(Utility.isHexEqual(digest, null));
+        assertNull(Utility.hexStringToByteArray("abc"));
+    }
+
+    @Test
+    public void shouldDecodeEncodedDigestsOfAnyCase() throws Exception {
+        // Given X0 && ...Xn
+        Random random = new Random(7);
+        for (int length = 0; length <= 64; length++) {
+            byte[] digest = new byte[length];
+            random.nextBytes(digest);
+
+            // When
+            String hex = Utility.byteArraytoHexString(digest);
+
+            // Then ensure that
+            assertEquals(2 * length, hex.length());
+            assertArrayEquals(digest, Utility.hexStringToByteArray(hex));
+            assertArrayEquals(digest, Utility.hexStringToByteArray(hex.toUpperCase()));
+            assertTrue(Utility.isHexEqual(digest, hex.toUpperCase()));
+        }
+    }
+
+    private static String formerByteArraytoHexString(byte[] array) {
+        final String hexByte = "0123456789abcdef";
+        StringBuffer buf = new StringBuffer();
+        for (byte val : array) {
+            int v1 = val >>> 4 & 0x0f;
+            int v2 = val & 0x0f;
+            buf.append(hexByte.substring(v1, v1 + 1)).append(hexByte.substring(v2, v2 + 1));
+        }
+        return buf.toString();
+    }
+}